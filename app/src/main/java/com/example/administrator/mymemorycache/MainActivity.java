@@ -101,9 +101,9 @@ public class MainActivity extends AppCompatActivity {
             }
         },new DefaultBitmapMemoryCacheParamsSupplier((ActivityManager) this.getSystemService(Context.ACTIVITY_SERVICE)));
 
-        instrumentedMemoryCache=new InstrumentedMemoryCache<CacheKey, Bitmap>(countingCache, new MemoryCacheTracker() {
+        instrumentedMemoryCache=new InstrumentedMemoryCache<CacheKey, Bitmap>(countingCache, new MemoryCacheTracker<CacheKey>() {
             @Override
-            public void onCacheHit(Object cacheKey) {
+            public void onCacheHit(CacheKey cacheKey) {
                 Toast.makeText(MainActivity.this, "Hit 缓存", Toast.LENGTH_SHORT).show();
             }
 
@@ -0,0 +1,213 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：根据堆的剩余空间和GC的压力调整缓存的大小。另一个提供者给出缓存最大时的配置，这里在它的基础上乘以一个比例，
+ * 堆快满了或者GC占用的时间太多时减小比例，堆很空闲而且GC很少时增大比例，两者之间保持不变，这样比例不会在一个阈值附近来回跳动。
+ * 每次只调整一小步，缩小时缓存一次只驱逐一小部分条目。
+ *
+ * Supplies {@link MemoryCacheParams} that follow the pressure on the heap. The params given by
+ * another supplier are the largest ones; their maxCacheSize and maxEvictionQueueSize are scaled
+ * down while the heap is short of room or the garbage collector runs too much, and back up while
+ * the heap has plenty of room and the collector is idle. In between the two thresholds the scale
+ * stays where it is, so that it does not flap around a single threshold.
+ *
+ * <p> The scale moves one step per sample, so that a shrinking cache evicts a slice of its
+ * entries at a time rather than most of them at once. The heap is read from {@link Runtime}, and
+ * the collection time from the garbage collector MXBeans where the platform has them, that is on
+ * the JVM but not on Android; without them only the heap is looked at.
+ *
+ * <p> The caches only poll their supplier every few minutes. To follow the heap more closely,
+ * call {@link #sample} periodically, and {@link CountingMemoryCache#refreshCacheParams} on the
+ * caches whenever it returns true.
+ */
+@ThreadSafe
+public class AdaptiveMemoryCacheParamsSupplier implements Supplier<MemoryCacheParams> {
+
+    // 两次采样的最小间隔，分段缓存的每个分段都会调用get()，这样它们不会让比例连续走好几步
+    // The minimum interval between two samples taken by get(), so that the segments of a cache,
+    // which each call get(), do not move the scale several steps in a row.
+    private static final long MIN_SAMPLE_INTERVAL_MS = 1000;
+
+    private static final float DEFAULT_MIN_SCALE = 0.25f;
+    // 剩余空间低于这个比例时缩小，高于HIGH_HEADROOM时才可以放大
+    private static final float LOW_HEADROOM = 0.15f;
+    private static final float HIGH_HEADROOM = 0.35f;
+    // GC占用的时间比例高于这个值时缩小，低于LOW_GC_SHARE时才可以放大
+    private static final float HIGH_GC_SHARE = 0.05f;
+    private static final float LOW_GC_SHARE = 0.01f;
+    private static final float SHRINK_FACTOR = 0.8f;
+    private static final float GROW_STEP = 0.05f;
+
+    // GarbageCollectorMXBean的方法，平台上没有时为null
+    @Nullable
+    private static final Method sGetGarbageCollectorMXBeans;
+    @Nullable
+    private static final Method sGetCollectionTime;
+
+    static {
+        Method getGarbageCollectorMXBeans = null;
+        Method getCollectionTime = null;
+        try {
+            getGarbageCollectorMXBeans = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getGarbageCollectorMXBeans");
+            getCollectionTime = Class.forName("java.lang.management.GarbageCollectorMXBean")
+                    .getMethod("getCollectionTime");
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            getGarbageCollectorMXBeans = null;
+            getCollectionTime = null;
+        }
+        sGetGarbageCollectorMXBeans = getGarbageCollectorMXBeans;
+        sGetCollectionTime = getCollectionTime;
+    }
+
+    private final Supplier<MemoryCacheParams> mMaxParamsSupplier;
+    private final float mMinScale;
+
+    @GuardedBy("this")
+    private float mScale = 1;
+    @GuardedBy("this")
+    private long mLastSampleTime;
+    // 上一次采样时GC的总耗时，未知时为-1
+    @GuardedBy("this")
+    private long mLastCollectionTime = -1;
+
+    /**
+     * @param maxParamsSupplier supplies the params of the cache at its largest
+     */
+    public AdaptiveMemoryCacheParamsSupplier(Supplier<MemoryCacheParams> maxParamsSupplier) {
+        this(maxParamsSupplier, DEFAULT_MIN_SCALE);
+    }
+
+    /**
+     * @param maxParamsSupplier supplies the params of the cache at its largest
+     * @param minScale the smallest share of the largest size the cache is shrunk to
+     */
+    public AdaptiveMemoryCacheParamsSupplier(
+            Supplier<MemoryCacheParams> maxParamsSupplier,
+            float minScale) {
+        Preconditions.checkArgument(minScale > 0 && minScale <= 1);
+        mMaxParamsSupplier = Preconditions.checkNotNull(maxParamsSupplier);
+        mMinScale = minScale;
+    }
+
+    /**
+     * 返回按当前比例缩放的配置，距离上一次采样足够久时先采样一次
+     * Returns the largest params scaled by the current scale, sampling the heap first unless it
+     * was sampled a moment ago.
+     */
+    @Override
+    public MemoryCacheParams get() {
+        float scale;
+        synchronized (this) {
+            if (mLastSampleTime == 0
+                    || SystemClock.uptimeMillis() - mLastSampleTime >= MIN_SAMPLE_INTERVAL_MS) {
+                sampleLocked();
+            }
+            scale = mScale;
+        }
+        MemoryCacheParams params = mMaxParamsSupplier.get();
+        return new MemoryCacheParams(
+                (long) (params.maxCacheSize * scale),
+                params.maxCacheEntries,
+                (long) (params.maxEvictionQueueSize * scale),
+                params.maxEvictionQueueEntries,
+                params.maxCacheEntrySize);
+    }
+
+    /**
+     * 采样堆和GC，根据结果将比例调整一步
+     * Samples the heap and the garbage collector, and moves the scale one step if they call for
+     * it.
+     *
+     * @return true if the scale changed, in which case the caches should refresh their params
+     */
+    public synchronized boolean sample() {
+        return sampleLocked();
+    }
+
+    /** The current share of the largest size, between the minimum scale and 1. */
+    public synchronized float getScale() {
+        return mScale;
+    }
+
+    @GuardedBy("this")
+    private boolean sampleLocked() {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastSampleTime;
+        mLastSampleTime = now;
+
+        Runtime runtime = Runtime.getRuntime();
+        long maxMemory = runtime.maxMemory();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        float headroom = (float) (maxMemory - usedMemory) / maxMemory;
+
+        // 上一次采样之后GC占用的时间比例，第一次采样或者平台不支持时为0
+        float gcShare = 0;
+        long collectionTime = getCollectionTime();
+        if (collectionTime >= 0 && mLastCollectionTime >= 0 && elapsed > 0) {
+            gcShare = (float) (collectionTime - mLastCollectionTime) / elapsed;
+        }
+        mLastCollectionTime = collectionTime;
+        return adjustScale(headroom, gcShare);
+    }
+
+    /**
+     * 根据剩余空间和GC占用的时间比例将比例调整一步，两个阈值之间保持不变
+     * Moves the scale one step if the headroom of the heap or the share of time spent collecting
+     * calls for it, and leaves it where it is in between the thresholds.
+     *
+     * @return true if the scale changed
+     */
+    @VisibleForTesting
+    synchronized boolean adjustScale(float headroom, float gcShare) {
+        float scale = mScale;
+        if (headroom < LOW_HEADROOM || gcShare > HIGH_GC_SHARE) {
+            scale = Math.max(mMinScale, scale * SHRINK_FACTOR);
+        } else if (headroom > HIGH_HEADROOM && gcShare < LOW_GC_SHARE) {
+            scale = Math.min(1, scale + GROW_STEP);
+        }
+        if (scale == mScale) {
+            return false;
+        }
+        mScale = scale;
+        return true;
+    }
+
+    /**
+     * 所有垃圾收集器的总耗时，单位是毫秒，平台不支持时返回-1
+     * The total time spent by all the garbage collectors, in milliseconds, or -1 if the platform
+     * does not tell.
+     */
+    private static long getCollectionTime() {
+        if (sGetGarbageCollectorMXBeans == null) {
+            return -1;
+        }
+        try {
+            long total = 0;
+            List<?> beans = (List<?>) sGetGarbageCollectorMXBeans.invoke(null);
+            for (int i = 0; i < beans.size(); i++) {
+                long time = (Long) sGetCollectionTime.invoke(beans.get(i));
+                if (time > 0) {
+                    total += time;
+                }
+            }
+            return total;
+        } catch (IllegalAccessException | InvocationTargetException | ClassCastException e) {
+            return -1;
+        }
+    }
+}
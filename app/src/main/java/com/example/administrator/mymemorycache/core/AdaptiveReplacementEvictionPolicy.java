@@ -0,0 +1,153 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：ARC。待销毁队列分成两个LRU队列：T1中是只用过一次的条目，T2中是被命中过的条目，
+ * 同时用B1和B2记住最近从T1和T2中被驱逐的key。如果B1中的key又被缓存了，说明T1太小了，就增大T1的目标大小p，
+ * 如果是B2中的key，就减小p。驱逐时T1超过p就驱逐T1中的条目，否则驱逐T2中的条目，所以它会根据负载在LRU和LFU之间自己调整。
+ *
+ * Adaptive Replacement Cache: the eviction queue is split into T1, the entries used once, and
+ * T2, the entries hit since they were cached, while B1 and B2 remember the keys recently evicted
+ * from each. A key cached again while in B1 means T1 is too small, so its target size grows; a
+ * key found in B2 makes it shrink. The victim is taken from T1 while it is over its target, and
+ * from T2 otherwise, so the policy balances recency and frequency by itself.
+ *
+ * <p> The sizes are counted in entries, as in the original algorithm. The capacity the ghost
+ * lists and the target are measured against is the number of entries in the eviction queue.
+ */
+@NotThreadSafe
+final class AdaptiveReplacementEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 条目在哪个队列中
+    private static final int RECENT = 0;
+    private static final int FREQUENT = 1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final EntryQueue<K, V> mRecent = new EntryQueue<>();
+    private final EntryQueue<K, V> mFrequent = new EntryQueue<>();
+    private final GhostList<K> mRecentGhosts = new GhostList<>();
+    private final GhostList<K> mFrequentGhosts = new GhostList<>();
+
+    // T1的目标条目数
+    private int mRecentTarget;
+    private int mMaxCacheEntries = Integer.MAX_VALUE;
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+        mMaxCacheEntries = params.maxCacheEntries;
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return true;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        int recentGhosts = mRecentGhosts.size();
+        int frequentGhosts = mFrequentGhosts.size();
+        if (mRecentGhosts.remove(entry.key)) {
+            int delta = Math.max(1, frequentGhosts / recentGhosts);
+            mRecentTarget = Math.min(getCapacity(), mRecentTarget + delta);
+            entry.policyState = FREQUENT;
+        } else if (mFrequentGhosts.remove(entry.key)) {
+            int delta = Math.max(1, recentGhosts / frequentGhosts);
+            mRecentTarget = Math.max(0, mRecentTarget - delta);
+            entry.policyState = FREQUENT;
+        } else {
+            entry.policyState = RECENT;
+        }
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.policyState = oldEntry.policyState;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+        entry.policyState = FREQUENT;
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        if (entry.policyState == FREQUENT) {
+            mFrequent.addLast(entry);
+        } else {
+            mRecent.addLast(entry);
+        }
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return mRecent.remove(entry) || mFrequent.remove(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        return isRecentOverTarget() ? mRecent.peekFirst() : mFrequent.peekFirst();
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        return isRecentOverTarget() ? mRecent.pollFirst() : mFrequent.pollFirst();
+    }
+
+    private boolean isRecentOverTarget() {
+        return mRecent.getCount() > 0
+                && (mRecent.getCount() > mRecentTarget || mFrequent.getCount() == 0);
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        int capacity = getCapacity();
+        if (entry.policyState == FREQUENT) {
+            mFrequentGhosts.add(entry.key, capacity - mRecentGhosts.size());
+        } else {
+            // |T1| + |B1| <= c
+            mRecentGhosts.add(entry.key, capacity - mRecent.getCount());
+            // |B1| + |B2| <= c
+            mFrequentGhosts.trimTo(capacity - mRecentGhosts.size());
+        }
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    /** The number of entries the target and the ghost lists are measured against. */
+    private int getCapacity() {
+        return Math.min(mMaxCacheEntries, Math.max(MIN_CAPACITY, getCount()));
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = mRecent.removeAll(predicate);
+        oldEntries.addAll(mFrequent.removeAll(predicate));
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mRecent.getCount() + mFrequent.getCount();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mRecent.getSizeInBytes() + mFrequent.getSizeInBytes();
+    }
+}
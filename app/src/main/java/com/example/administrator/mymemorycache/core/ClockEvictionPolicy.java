@@ -0,0 +1,160 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：CLOCK。条目排成一个环，命中只设置条目的引用位，不移动条目，所以命中不需要修改任何链表指针。
+ * 需要驱逐时指针扫过环：引用位被设置过的条目清除引用位，再给一次机会，遇到的第一个没有被引用的条目被驱逐。
+ *
+ * CLOCK: the entries form a ring, and a hit only sets the reference bit of its entry, without
+ * moving it, so hits write no link pointers. At eviction time the hand sweeps the ring: an entry
+ * whose bit is set has it cleared and gets a second chance, and the first entry found unreferenced
+ * is the victim.
+ *
+ * <p> An entry acquired by a client stays linked in the ring: it is only flagged as not
+ * exclusive, and the hand unlinks it lazily if it meets it while still in use. An entry released
+ * before the hand reaches it thus keeps its place, and neither the acquire nor the release touch
+ * the ring. The head of the queue is the hand.
+ */
+@NotThreadSafe
+final class ClockEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 条目是否属于待销毁队列
+    private static final int EXCLUSIVE = 1;
+
+    // 超过这么多圈仍然没有找到没被引用的条目，说明命中一直在设置引用位，就直接驱逐指针指向的条目
+    // The hand gives up on the reference bits after this many turns, in case the hits keep
+    // setting them as fast as it clears them.
+    private static final int MAX_TURNS = 2;
+
+    private final EntryQueue<K, V> mRing = new EntryQueue<>();
+
+    private int mCount;
+    private long mSizeInBytes;
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return false;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.referenced = oldEntry.referenced;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        entry.policyState |= EXCLUSIVE;
+        mCount++;
+        mSizeInBytes += entry.sizeInBytes;
+        if (entry.queue == null) {
+            mRing.addLast(entry);
+        }
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        if ((entry.policyState & EXCLUSIVE) == 0) {
+            return false;
+        }
+        clearExclusive(entry);
+        return true;
+    }
+
+    private void clearExclusive(Entry<K, V> entry) {
+        entry.policyState &= ~EXCLUSIVE;
+        mCount--;
+        mSizeInBytes -= entry.sizeInBytes;
+    }
+
+    /** Moves the hand to the next victim, without removing it. */
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        if (mCount == 0) {
+            return null;
+        }
+        int steps = mRing.getCount() * MAX_TURNS;
+        for (;;) {
+            Entry<K, V> entry = mRing.peekFirst();
+            if ((entry.policyState & EXCLUSIVE) == 0) {
+                // 正在被使用，释放时再放回环中
+                mRing.pollFirst();
+                continue;
+            }
+            if (entry.referenced && steps-- > 0) {
+                entry.referenced = false;
+                mRing.pollFirst();
+                mRing.addLast(entry);
+                continue;
+            }
+            return entry;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        Entry<K, V> victim = peekVictim();
+        if (victim != null) {
+            mRing.pollFirst();
+            clearExclusive(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+        // 正在被使用的条目仍然在环中
+        mRing.remove(entry);
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        ArrayList<Entry<K, V>> linkedEntries = mRing.removeAll(predicate);
+        for (int i = 0; i < linkedEntries.size(); i++) {
+            Entry<K, V> entry = linkedEntries.get(i);
+            if (removeExclusive(entry)) {
+                oldEntries.add(entry);
+            }
+        }
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：CLOCK-Pro。和CLOCK一样命中只设置引用位，但条目分成冷热两种，只有冷条目会被驱逐。
+ * 新条目是冷的，并且处于测试期；测试期内再次被引用的冷条目变热。测试期内被驱逐的冷条目的key被记住，
+ * 如果它很快又被缓存了，说明冷条目的份额太小，就增大冷条目的目标数量，并且它直接变热；
+ * 如果记住的key直到被忘记都没有再被缓存，就减小冷条目的目标数量。热条目超过份额时，没有被引用的热条目降级为冷条目。
+ *
+ * CLOCK-Pro: as with CLOCK, a hit only sets the reference bit of its entry, but the entries are
+ * either hot or cold, and only the cold ones are evicted, so a scan through one-off keys cannot
+ * flush the hot entries.
+ *
+ * <p> A new entry is cold and in its test period. When the hand finds a cold entry referenced,
+ * the entry turns hot if it was in its test period, and starts one otherwise. A cold entry evicted
+ * in its test period leaves its key behind: if the key is cached again before being forgotten,
+ * the cold entries deserved a bigger share and their target grows, and the new entry is hot right
+ * away. A key forgotten without being cached again makes the target shrink. The hand demotes the
+ * unreferenced hot entries it meets while there are more than the hot share.
+ *
+ * <p> The three hands of the original algorithm are folded into the single hand of
+ * {@link ClockEvictionPolicy}, and the test keys are kept apart in a {@link GhostList} as large as
+ * the eviction queue. The sizes are counted in entries.
+ */
+@NotThreadSafe
+final class ClockProEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 条目是否属于待销毁队列，是否是热的，以及冷条目是否处于测试期
+    private static final int EXCLUSIVE = 1;
+    private static final int HOT = 2;
+    private static final int TEST = 4;
+
+    // 冷条目至少占待销毁队列的百分比
+    private static final int MIN_COLD_PERCENTAGE = 1;
+    private static final int MIN_TEST_CAPACITY = 16;
+
+    // 超过这么多圈仍然没有找到冷条目，就直接驱逐指针指向的条目
+    // The hand gives up after this many turns without finding a cold victim.
+    private static final int MAX_TURNS = 2;
+
+    private final EntryQueue<K, V> mRing = new EntryQueue<>();
+    private final GhostList<K> mTestKeys = new GhostList<>();
+
+    private int mCount;
+    private long mSizeInBytes;
+    // 环中热条目的数量，包括还没有被移出环的正在被使用的条目
+    private int mHotCount;
+    // 冷条目的目标数量
+    private int mColdTarget;
+    private int mMaxCacheEntries = Integer.MAX_VALUE;
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+        mMaxCacheEntries = params.maxCacheEntries;
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return false;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        if (mTestKeys.remove(entry.key)) {
+            mColdTarget = Math.min(mCount, mColdTarget + 1);
+            entry.policyState = HOT;
+        } else {
+            entry.policyState = TEST;
+        }
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.policyState = oldEntry.policyState & ~EXCLUSIVE;
+        newEntry.referenced = oldEntry.referenced;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        entry.policyState |= EXCLUSIVE;
+        mCount++;
+        mSizeInBytes += entry.sizeInBytes;
+        if (entry.queue == null) {
+            link(entry);
+        }
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        if ((entry.policyState & EXCLUSIVE) == 0) {
+            return false;
+        }
+        clearExclusive(entry);
+        return true;
+    }
+
+    private void clearExclusive(Entry<K, V> entry) {
+        entry.policyState &= ~EXCLUSIVE;
+        mCount--;
+        mSizeInBytes -= entry.sizeInBytes;
+    }
+
+    private void link(Entry<K, V> entry) {
+        mRing.addLast(entry);
+        if ((entry.policyState & HOT) != 0) {
+            mHotCount++;
+        }
+    }
+
+    private void unlink(Entry<K, V> entry) {
+        if (mRing.remove(entry) && (entry.policyState & HOT) != 0) {
+            mHotCount--;
+        }
+    }
+
+    /** Moves the hand to the next cold victim, without removing it. */
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        if (mCount == 0) {
+            return null;
+        }
+        int steps = mRing.getCount() * MAX_TURNS;
+        for (;;) {
+            Entry<K, V> entry = mRing.peekFirst();
+            int state = entry.policyState;
+            if ((state & EXCLUSIVE) == 0) {
+                // 正在被使用，释放时再放回环中
+                unlink(entry);
+                continue;
+            }
+            if (steps-- <= 0) {
+                return entry;
+            }
+            if ((state & HOT) != 0) {
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (mHotCount > getMaxHotCount()) {
+                    entry.policyState = state & ~HOT;
+                    mHotCount--;
+                }
+            } else if (entry.referenced) {
+                entry.referenced = false;
+                if ((state & TEST) != 0) {
+                    entry.policyState = (state & ~TEST) | HOT;
+                    mHotCount++;
+                } else {
+                    entry.policyState = state | TEST;
+                }
+            } else {
+                return entry;
+            }
+            mRing.pollFirst();
+            mRing.addLast(entry);
+        }
+    }
+
+    private int getMaxHotCount() {
+        int minCold = Math.max(1, (int) (mCount * (long) MIN_COLD_PERCENTAGE / 100));
+        return mCount - Math.max(minCold, mColdTarget);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        Entry<K, V> victim = peekVictim();
+        if (victim != null) {
+            unlink(victim);
+            clearExclusive(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        if ((entry.policyState & (HOT | TEST)) == TEST) {
+            int capacity = Math.min(mMaxCacheEntries, Math.max(MIN_TEST_CAPACITY, mCount));
+            int forgotten = mTestKeys.size() + 1;
+            mTestKeys.add(entry.key, capacity);
+            forgotten -= mTestKeys.size();
+            // 测试期结束前没有被再次缓存的key
+            // The keys forgotten before being cached again.
+            mColdTarget = Math.max(0, mColdTarget - forgotten);
+        }
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+        // 正在被使用的条目仍然在环中
+        unlink(entry);
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        ArrayList<Entry<K, V>> linkedEntries = mRing.removeAll(predicate);
+        for (int i = 0; i < linkedEntries.size(); i++) {
+            Entry<K, V> entry = linkedEntries.get(i);
+            if ((entry.policyState & HOT) != 0) {
+                mHotCount--;
+            }
+            if (removeExclusive(entry)) {
+                oldEntries.add(entry);
+            }
+        }
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+}
@@ -4,19 +4,32 @@ package com.example.administrator.mymemorycache.core;
  * Created by heshixiyang on 2017/3/26.
  */
 
+import android.net.Uri;
 import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 
 import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.cacheKey.CacheKey;
 import com.example.administrator.mymemorycache.reference.CloseableReference;
-import com.example.administrator.mymemorycache.reference.ResourceReleaser;
 import com.example.administrator.mymemorycache.trimmable.MemoryTrimType;
 import com.example.administrator.mymemorycache.trimmable.MemoryTrimmable;
 import com.example.administrator.mymemorycache.util.Preconditions;
+import com.example.administrator.mymemorycache.util.Priority;
 import com.example.administrator.mymemorycache.util.Supplier;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -28,15 +41,16 @@ import javax.annotation.concurrent.ThreadSafe;
  * 2.Entry中的key和value不用说，clientCount是用来记录该Entry正在被几个客户端使用，我们前面了解了CloseableReference的特性，
  * 这里在创建的时候使用了CloseableReference#of()创建新的客户端使用的CloseableReference，所以我们可以知道这里的clientCount
  * 与SharedReference.sLiveObjects中该资源的SharedReference数量是一致的。isOrphan则是用来标记该Entry的资源是否应该被close。
- * 3.CountingMemoryCache中使用了两个包装了LinkedHashMap的CountingLruMap，一个mCachedEntries用来储存所有的Entry，一个mExclusiveEntries
+ * 3.CountingMemoryCache中使用了一个ConcurrentHashMap的mEntryIndex用来储存所有的Entry，一个驱逐策略mEvictionPolicy
  * 用来储存所有clientCount为0的Entry，因为Entry只有在cache()中会被调用，而cache()会返回一个CloseableReference，所以该Entry在创建的时候
  * clientCount为1。
- * 4.由于mExclusiveEntries是一个LinkedHashMap，所以在清除缓存的时候，我们只要按照顺序清除就已经实现了LRU算法了。而在一般情况下
+ * 4.默认的驱逐策略按照加入的顺序排列条目，所以在清除缓存的时候，我们只要按照顺序清除就已经实现了LRU算法了。而在一般情况下
  * clientCount为0的Entry比不为0的Entry多许多，所以基本不需要担心内存清理问题。
- * 5.我们在2中说了clientCount就代表着该资源所有的引用数，在newClientReference()中使用CloseableReference#of()创建CloseableReference的时候
- * 传入了一个ResourceReleaser的实现，这个实现调用了releaseClientReference()，这里的实现和CloseableReference中的实现是不同的
+ * 5.我们在2中说了clientCount就代表着该资源所有的引用数，在newClientReference()中使用CloseableReference#ofLease()创建租约的时候
+ * 传入了条目的LeaseOwner，关闭租约时调用releaseClientReference()，克隆租约时clientCount加一，所以clientCount就是租约的引用计数，
+ * 这里的实现和CloseableReference中的实现是不同的，
  * 不同之处在于CloseableReference中第一个SharedReference清零了之后资源就被释放了，完全不顾其他SharedReference的死活。
- * 而这里的实现是所有的SharedReference都失效了之后才释放资源。
+ * 而这里的实现是所有的租约都关闭了之后才释放资源。
  */
 @ThreadSafe
 public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimmable {
@@ -64,57 +78,440 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         void onExclusivityChanged(K key, boolean isExclusive);
     }
 
+    /**
+     * 在缓存没有命中时加载值，比如解码一张图片
+     * Interface used to load the value of a key that is not in the cache, see
+     * {@link #getOrCompute}.
+     */
+    public interface ValueLoader<K, V> {
+
+        /**
+         * 加载key对应的值，返回的引用由缓存负责关闭
+         * Loads the value of the given key. The cache takes ownership of the returned reference.
+         *
+         * @return the loaded value, or null if there is none
+         */
+        @Nullable
+        CloseableReference<V> load(K key) throws Exception;
+    }
+
     /**
      * 将一对键值对储存在内存中,每一个Entry代表一个内存条目
      * The internal representation of a key-value pair stored by the cache.
      */
     @VisibleForTesting
     static class Entry<K, V> {
+        // state的最高位表示isOrphan，其余的位表示clientCount。两者放在同一个int中，
+        // 这样get()在不持有锁的时候也能原子地判断"不是orphan才增加clientCount"。
+        // The highest bit of the state is the orphan flag, the other bits are the client count.
+        // Keeping both in one word lets get() increase the count only if the entry is not an
+        // orphan, atomically and without holding the cache lock.
+        private static final int ORPHAN_FLAG = Integer.MIN_VALUE;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Entry> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
         public final K key;
         public final CloseableReference<V> valueRef;
-        // 引用这个缓存的客户端的数量.
-        public int clientCount;
+        // 值的大小，在创建条目时由ValueDescriptor计算一次，之后的计数都使用这个值
+        // The size of the value, measured once by the ValueDescriptor when the entry is created.
+        // All the counters use it, so the descriptor is not called again on removal.
+        public final int sizeInBytes;
+        // 调用者给出的重新获取这个值的代价，比如下载和解码花费的毫秒数
+        // The cost of computing the value again, as hinted by the caller, such as the milliseconds
+        // spent fetching and decoding it.
+        public final int cost;
+        // 调用者给出的优先级，屏幕上的图片比后台预取的图片优先级更高
+        // The priority given by the caller: the images on screen rank above background prefetches.
+        public final Priority priority;
+        // 引用这个缓存的客户端的数量，以及是否为orphan
         // Whether or not this entry is tracked by this cache. Orphans are not tracked by the cache and
         // as soon as the last client of an orphaned entry closes their reference, the entry's copy is
         // closed too.
         // 使用了这个标记表示该Entry就要被删除了，只要clientCount等于零。
-        public boolean isOrphan;
+        private volatile int state;
         @Nullable public final EntryStateObserver<K> observer;
+        // 使用TinyLFU时，条目是否已经从窗口进入了主队列，只在持有cache的锁时访问
+        // With TinyLFU admission, whether the entry was admitted from the window to the main
+        // eviction queue. Only accessed while holding the cache lock.
+        boolean admitted;
+        // 驱逐策略记录的条目状态，比如条目属于哪个队列，只在持有cache的锁时访问
+        // The state the eviction policy keeps about the entry, such as the queue it belongs to.
+        // Only accessed while holding the cache lock.
+        int policyState;
+        // 条目在驱逐策略的数组中的位置，比如GreedyDual的堆，只在持有cache的锁时访问
+        // The position of the entry in the array of an array-backed eviction policy, such as the
+        // GreedyDual heap. Only accessed while holding the cache lock.
+        int policyIndex = -1;
+        // CLOCK的引用位，命中时在不持有锁的情况下设置，由驱逐策略的指针扫过时清除
+        // The CLOCK reference bit. Set by the hits without holding the cache lock, and cleared by
+        // the eviction policy as its hand sweeps past the entry.
+        volatile boolean referenced;
+        // 条目在待销毁队列中的位置，只在持有cache的锁时访问
+        // The position of the entry in the eviction queue. Only accessed while holding the cache
+        // lock.
+        @Nullable EntryQueue<K, V> queue;
+        @Nullable Entry<K, V> queuePrev;
+        @Nullable Entry<K, V> queueNext;
+        // 客户端租约的所有者，第一次命中时创建，之后所有的租约共用。两个线程同时创建也没有关系，两者是等价的
+        // The owner of the client leases, created on the first hit and shared by all the leases
+        // after it. Two threads may both create one, which is harmless as they are equivalent.
+        @Nullable CloseableReference.LeaseOwner<V> leaseOwner;
 
-        private Entry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer) {
+        private Entry(
+                K key,
+                CloseableReference<V> valueRef,
+                @Nullable EntryStateObserver<K> observer,
+                int sizeInBytes,
+                int cost,
+                Priority priority) {
             this.key = Preconditions.checkNotNull(key);
             this.valueRef = Preconditions.checkNotNull(CloseableReference.cloneOrNull(valueRef));
-            this.clientCount = 0;
-            this.isOrphan = false;
+            this.sizeInBytes = sizeInBytes;
+            this.cost = cost;
+            this.priority = Preconditions.checkNotNull(priority);
+            this.state = 0;
             this.observer = observer;
         }
 
+        /** 引用这个缓存的客户端的数量 */
+        public int getClientCount() {
+            return state & ~ORPHAN_FLAG;
+        }
+
+        public boolean isOrphan() {
+            return (state & ORPHAN_FLAG) != 0;
+        }
+
+        /**
+         * 如果不是orphan，将clientCount加一
+         * Increases the client count unless the entry is an orphan.
+         *
+         * @return the client count before the increase, or -1 if the entry is an orphan
+         */
+        int tryIncreaseClientCount() {
+            for (;;) {
+                int current = state;
+                if ((current & ORPHAN_FLAG) != 0) {
+                    return -1;
+                }
+                if (STATE_UPDATER.compareAndSet(this, current, current + 1)) {
+                    return current;
+                }
+            }
+        }
+
+        /**
+         * 只在已经有客户端时将clientCount加一，用于克隆客户端的租约，条目是orphan时也可以
+         * Increases the client count only if some client holds the entry, which may be an orphan.
+         * Used to clone the lease of a client.
+         *
+         * @return false if the client count was 0
+         */
+        boolean tryIncreaseHeldClientCount() {
+            for (;;) {
+                int current = state;
+                if ((current & ~ORPHAN_FLAG) == 0) {
+                    return false;
+                }
+                if (STATE_UPDATER.compareAndSet(this, current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 将clientCount减一
+         * Decreases the client count.
+         *
+         * @return the client count after the decrease
+         */
+        int decreaseClientCount() {
+            for (;;) {
+                int current = state;
+                Preconditions.checkState((current & ~ORPHAN_FLAG) > 0);
+                if (STATE_UPDATER.compareAndSet(this, current, current - 1)) {
+                    return (current - 1) & ~ORPHAN_FLAG;
+                }
+            }
+        }
+
+        /** Marks the entry as orphan, whatever its client count. */
+        void markOrphan() {
+            for (;;) {
+                int current = state;
+                Preconditions.checkState((current & ORPHAN_FLAG) == 0);
+                if (STATE_UPDATER.compareAndSet(this, current, current | ORPHAN_FLAG)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 只有在没有客户端引用的时候才标记为orphan，用于驱逐，防止和get()竞争
+         * Marks the entry as orphan only if no client uses it. Used for eviction, where an entry
+         * that a concurrent get() has just acquired must be kept.
+         *
+         * @return true if the entry was marked as orphan
+         */
+        boolean tryMarkExclusiveOrphan() {
+            return STATE_UPDATER.compareAndSet(this, 0, ORPHAN_FLAG);
+        }
+
+        /** Returns the time the given duration ends at, saturating at NO_EXPIRY. */
+        static long deadline(long time, long durationMs) {
+            if (durationMs >= ExpiryPolicy.NO_EXPIRY - time) {
+                return ExpiryPolicy.NO_EXPIRY;
+            }
+            return time + durationMs;
+        }
+
         /** Creates a new entry with the usage count of 0. */
         @VisibleForTesting
         static <K, V> Entry<K, V> of(
                 final K key,
                 final CloseableReference<V> valueRef,
-                final @Nullable EntryStateObserver<K> observer) {
-            return new Entry<>(key, valueRef, observer);
+                final @Nullable EntryStateObserver<K> observer,
+                final int sizeInBytes,
+                final int cost,
+                final Priority priority) {
+            return new Entry<>(key, valueRef, observer, sizeInBytes, cost, priority);
         }
     }
 
+    /**
+     * 使用ExpiryPolicy或RefreshPolicy时的条目，多了过期和刷新的时间以及在时间轮中的位置。
+     * 没有这两个策略的cache只创建Entry，不需要为这些字段付出内存
+     * The entry of a cache with an {@link ExpiryPolicy} or a {@link RefreshPolicy}: it adds the
+     * expiry and refresh times, and the position in the timer wheel. The caches without either
+     * policy create plain entries, which do not pay for these fields.
+     */
+    @VisibleForTesting
+    static final class TimedEntry<K, V> extends Entry<K, V> {
+        // 使用ExpiryPolicy时的过期时间，在条目被缓存时设置一次
+        // With an ExpiryPolicy, the expiry of the entry, set once when it is cached.
+        long writeDeadline = ExpiryPolicy.NO_EXPIRY;
+        long expireAfterAccessMs = ExpiryPolicy.NO_EXPIRY;
+        // 最后一次被访问的时间，get()在不持有锁的时候更新
+        // The time of the last access. Updated by get() without holding the cache lock.
+        volatile long accessTime;
+        // 使用RefreshPolicy时，从这个时间开始命中会触发后台刷新
+        // With a RefreshPolicy, the time from which a hit reloads the value in the background.
+        volatile long refreshTime = ExpiryPolicy.NO_EXPIRY;
+        // 条目在时间轮中的位置，只在持有cache的锁时访问。层和桶放在同一个int中，-1表示不在时间轮中
+        // The position of the entry in the timer wheel. Only accessed while holding the cache lock.
+        // The level and the bucket share one int, see TimerWheel; -1 when not scheduled.
+        @Nullable TimedEntry<K, V> timerPrev;
+        @Nullable TimedEntry<K, V> timerNext;
+        long timerTime;
+        int timerSlot = -1;
+
+        TimedEntry(
+                K key,
+                CloseableReference<V> valueRef,
+                @Nullable EntryStateObserver<K> observer,
+                int sizeInBytes,
+                int cost,
+                Priority priority) {
+            super(key, valueRef, observer, sizeInBytes, cost, priority);
+        }
+
+        /**
+         * 返回条目过期的时间
+         * Returns the time the entry expires at, or {@link ExpiryPolicy#NO_EXPIRY}.
+         */
+        long getExpirationTime() {
+            if (expireAfterAccessMs == ExpiryPolicy.NO_EXPIRY) {
+                return writeDeadline;
+            }
+            return Math.min(writeDeadline, deadline(accessTime, expireAfterAccessMs));
+        }
+    }
+
+    /**
+     * 一个等待发出的EntryStateObserver通知
+     * An {@link EntryStateObserver} notification waiting for the maintenance task.
+     */
+    private static class PendingNotification<K> {
+        final EntryStateObserver<K> observer;
+        final K key;
+        final boolean isExclusive;
+
+        PendingNotification(EntryStateObserver<K> observer, K key, boolean isExclusive) {
+            this.observer = observer;
+            this.key = key;
+            this.isExclusive = isExclusive;
+        }
+    }
+
+    /**
+     * 我的理解：一次正在进行的加载。第一个没有命中的调用者负责加载，同一个key上的其他调用者等待这次加载的结果，
+     * 每个参与者都会得到结果的一个拷贝，最后一个离开的参与者关闭结果。
+     * A load in progress. The first caller that misses runs the loader, the other callers asking
+     * for the same key wait for its outcome. Every participant gets its own clone of the result,
+     * and the last one to leave closes it.
+     */
+    private static class PendingLoad<V> {
+        // 是否为后台刷新，刷新失败时等待的调用者不应该失败，而是重新查找当前的值
+        // Whether this is a background refresh, whose failure must not fail the waiting callers.
+        final boolean isRefresh;
+
+        @GuardedBy("this")
+        private int mParticipants = 1;
+        @GuardedBy("this")
+        private boolean mDone;
+        @GuardedBy("this")
+        @Nullable
+        private CloseableReference<V> mResult;
+        @GuardedBy("this")
+        @Nullable
+        private Throwable mFailure;
+
+        PendingLoad(boolean isRefresh) {
+            this.isRefresh = isRefresh;
+        }
+
+        /**
+         * 加入这次加载
+         * Joins the load.
+         *
+         * @return false if the load is over and its result already closed
+         */
+        synchronized boolean join() {
+            if (mParticipants == 0) {
+                return false;
+            }
+            mParticipants++;
+            return true;
+        }
+
+        /** Publishes the outcome of the load and wakes up the waiting participants. */
+        synchronized void complete(
+                @Nullable CloseableReference<V> result,
+                @Nullable Throwable failure) {
+            mResult = result;
+            mFailure = failure;
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * 等待加载完成，然后离开这次加载
+         * Waits for the load to complete, then leaves it.
+         *
+         * @return a new reference to the result, or null if the loader found no value
+         * @throws CancellationException if the load was cancelled or interrupted
+         * @throws ExecutionException if the loader threw an exception
+         * @throws Error the error thrown by the loader, as is
+         * @throws InterruptedException if the calling thread was interrupted while waiting
+         */
+        @Nullable
+        CloseableReference<V> await() throws InterruptedException, ExecutionException {
+            CloseableReference<V> refToClose = null;
+            try {
+                synchronized (this) {
+                    try {
+                        while (!mDone) {
+                            wait();
+                        }
+                        if (mFailure instanceof CancellationException
+                                || mFailure instanceof InterruptedException) {
+                            CancellationException e =
+                                    new CancellationException("The load was cancelled");
+                            e.initCause(mFailure);
+                            throw e;
+                        }
+                        if (mFailure instanceof Error) {
+                            // 比如OutOfMemoryError，不应该被包装起来
+                            // Such as an OutOfMemoryError, which is not to be wrapped.
+                            throw (Error) mFailure;
+                        }
+                        if (mFailure != null) {
+                            throw new ExecutionException(mFailure);
+                        }
+                        return CloseableReference.cloneOrNull(mResult);
+                    } finally {
+                        if (--mParticipants == 0) {
+                            refToClose = mResult;
+                            mResult = null;
+                        }
+                    }
+                }
+            } finally {
+                CloseableReference.closeSafely(refToClose);
+            }
+        }
+    }
+
+    // 维护任务的状态
+    // No maintenance is pending.
+    private static final int MAINTENANCE_IDLE = 0;
+    // A maintenance pass has been submitted to the executor.
+    private static final int MAINTENANCE_REQUIRED = 1;
+    // A pass is running, and nothing was requested since it started.
+    private static final int MAINTENANCE_PROCESSING_TO_IDLE = 2;
+    // A pass is running, and another one was requested since it started.
+    private static final int MAINTENANCE_PROCESSING_TO_REQUIRED = 3;
+
+    /**
+     * 没有给出代价时条目的代价
+     * The cost of the entries cached without a cost hint.
+     */
+    public static final int DEFAULT_COST = 1;
+
+    /**
+     * 没有给出优先级时条目的优先级
+     * The priority of the entries cached without a priority.
+     */
+    public static final Priority DEFAULT_PRIORITY = Priority.MEDIUM;
+
     // How often the cache checks for a new cache configuration.
     // 多久检查一次新的缓存配置
     @VisibleForTesting
     static final long PARAMS_INTERCHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
 
     // Contains the items that are not being used by any client and are hence viable for eviction
-    // 包括所有没有任何客户端引用的内存条目。
+    // 包括所有没有任何客户端引用的内存条目，由驱逐策略决定它们被驱逐的顺序。
+    // 由于get()不持有锁，一个刚被get()引用的条目在读缓冲区被处理之前可能还留在这里。
+    // The eviction policy decides the order they are evicted in. An entry just acquired by get()
+    // may stay here until the read buffer is drained.
     @GuardedBy("this")
     @VisibleForTesting
-    final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
+    final EvictionPolicy<K, V> mEvictionPolicy;
 
-    // Contains all the cached items including the exclusively owned ones.
-    // 包含所有的缓存条目，包括上面的条目。
-    @GuardedBy("this")
+    // 驱逐策略是否需要知道每一次命中
+    // Whether the eviction policy wants every hit reported.
+    private final boolean mRecordsAccesses;
+
+    // Contains all the cached items including the exclusively owned ones. It is the only index
+    // by key: the eviction queues are threaded through the entries.
+    // 包含所有的缓存条目，包括待销毁的条目。只在持有锁时修改，但是get()可以不持有锁读取
+    // It is only modified while holding the lock, but get() reads it without the lock.
     @VisibleForTesting
-    final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+    final ConcurrentHashMap<K, Entry<K, V>> mEntryIndex = new ConcurrentHashMap<>();
+
+    // 键为CacheKey的条目按照CacheKey#getUriString()建立的索引，没有打开URI索引时为null
+    // The entries whose key is a CacheKey, by CacheKey#getUriString(). Null unless the URI index
+    // is enabled.
+    @GuardedBy("this")
+    @Nullable
+    private final UriIndex<K, V> mUriIndex;
+
+    // mEntryIndex中所有条目的数量和大小
+    // The count and the size of all the cached items.
+    @GuardedBy("this")
+    private int mCachedCount;
+    @GuardedBy("this")
+    private long mCachedSizeInBytes;
+
+    // 不持有锁的get()使条目离开待销毁队列时，将该条目记录在这里，在下一次持有锁时批量处理
+    // Entries that left the exclusively owned state in a lock-free get(). They are removed from
+    // the eviction queue in batches, the next time the lock is held.
+    private final StripedReadBuffer<Entry<K, V>> mReadBuffer = new StripedReadBuffer<>();
+
+    @GuardedBy("this")
+    private final ArrayList<Entry<K, V>> mDrainedEntries = new ArrayList<>();
 
     //value包装器
     private final ValueDescriptor<V> mValueDescriptor;
@@ -128,32 +525,369 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     @GuardedBy("this")
     protected MemoryCacheParams mMemoryCacheParams;
 
-    //上一次检查缓存信息的时间
+    //上一次检查缓存信息的时间，volatile是为了在不需要更新时不用获取锁
+    private volatile long mLastCacheParamsCheck;
+
+    // 和其他cache共享的计数器，只有作为SegmentedCountingMemoryCache的分段时才不为null
+    // Counters shared with other caches, non-null only when this cache is a segment of
+    // SegmentedCountingMemoryCache.
+    @Nullable
+    private final SharedCacheBudget mSharedBudget;
+
+    // 上一次发布到mSharedBudget中的数值
+    // The values last published to mSharedBudget.
+    @GuardedBy("this")
+    private int mPublishedCount;
+    @GuardedBy("this")
+    private long mPublishedSizeInBytes;
+    @GuardedBy("this")
+    private int mPublishedEvictionQueueCount;
+    @GuardedBy("this")
+    private long mPublishedEvictionQueueSizeInBytes;
+
+    // 执行驱逐、关闭资源和通知监听者的线程池，为null时这些工作在调用者的线程中执行
+    // Runs the eviction passes, the closing of the values and the observer notifications. When
+    // null, this work runs on the calling thread.
+    @Nullable
+    private final Executor mMaintenanceExecutor;
+
+    // 维护任务的状态，用来将多次请求合并成一次执行
+    // The state of the maintenance task, used to collapse many requests into a single pass.
+    private final AtomicInteger mMaintenanceStatus = new AtomicInteger(MAINTENANCE_IDLE);
+
+    // 是否已经有一个读线程在等待锁去处理读缓冲区，这时其他读线程不再等待
+    // Whether a reader is already waiting for the lock to drain the read buffer, in which case
+    // the other readers do not wait as well.
+    private final AtomicBoolean mDrainPending = new AtomicBoolean();
+
+    // 等待维护任务关闭的引用
+    private final ConcurrentLinkedQueue<CloseableReference<V>> mPendingCloses =
+            new ConcurrentLinkedQueue<>();
+
+    // 等待维护任务发出的通知
+    private final ConcurrentLinkedQueue<PendingNotification<K>> mPendingNotifications =
+            new ConcurrentLinkedQueue<>();
+
+    // 决定条目的过期时间，为null时条目不会过期
+    // Gives the expiry of the entries. When null, the entries never expire.
+    @Nullable
+    private final ExpiryPolicy<K, V> mExpiryPolicy;
+
+    // 按照过期时间排列会过期的条目，只有mExpiryPolicy不为null时才不为null
+    // Orders the entries that expire by their expiration time. Non-null only with an expiry
+    // policy.
     @GuardedBy("this")
-    private long mLastCacheParamsCheck;
+    @Nullable
+    private final TimerWheel<K, V> mTimerWheel;
+
+    @GuardedBy("this")
+    private final ArrayList<TimedEntry<K, V>> mExpiredEntries = new ArrayList<>();
+
+    // 在后台刷新条目，为null时条目不会被刷新
+    // Refreshes the entries in the background. When null, the entries are never refreshed.
+    @Nullable
+    private final RefreshPolicy<K, V> mRefreshPolicy;
+
+    // 记录访问，估计不同缓存大小下的命中率，为null时不记录
+    // Estimates the hit ratio at other cache sizes from the accesses. When null, nothing is
+    // recorded.
+    @Nullable
+    private volatile MissRatioCurveEstimator<K> mMissRatioCurveEstimator;
+
+    // get()和getAll()命中和未命中的次数
+    // The hits and misses of get() and getAll().
+    private final StripedCounter mHitCount = new StripedCounter();
+    private final StripedCounter mMissCount = new StripedCounter();
+
+    // 分片驱逐时每一片最多驱逐的条目数和最长时间，默认不分片
+    // With sliced eviction, the most entries evicted and the longest time spent per slice. By
+    // default there is a single slice.
+    private volatile int mMaxSliceEntries = Integer.MAX_VALUE;
+    private volatile long mMaxSliceNanos = Long.MAX_VALUE;
+
+    // 正在进行的加载，每个key最多一个
+    // The loads in progress, at most one per key.
+    private final ConcurrentHashMap<K, PendingLoad<V>> mPendingLoads = new ConcurrentHashMap<>();
+
+    private final Runnable mMaintenanceTask = new Runnable() {
+        @Override
+        public void run() {
+            runMaintenance();
+        }
+    };
+
+    /**
+     * 我的理解：除了三个必须的参数之外，缓存的其他选项都是可选的，用Builder设置，没有设置的选项使用默认值，
+     * 最后用build()创建一个CountingMemoryCache，或者用buildSegmented()创建一个SegmentedCountingMemoryCache。
+     *
+     * Builds a {@link CountingMemoryCache}, or a {@link SegmentedCountingMemoryCache}, with the
+     * options that are not required. The options not set keep their defaults: no maintenance
+     * executor, no TinyLFU admission, no expiry, no refresh, the LRU policy, and no priorities.
+     */
+    public static class Builder<K, V> {
+        final ValueDescriptor<V> mValueDescriptor;
+        final CacheTrimStrategy mCacheTrimStrategy;
+        final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+        @Nullable
+        Executor mMaintenanceExecutor;
+        boolean mUseTinyLfuAdmission;
+        @Nullable
+        ExpiryPolicy<K, V> mExpiryPolicy;
+        @Nullable
+        RefreshPolicy<K, V> mRefreshPolicy;
+        EvictionPolicyType mEvictionPolicyType = EvictionPolicyType.LRU;
+        @Nullable
+        Map<Priority, Integer> mReservedPercentages;
+        boolean mUriIndexEnabled;
+
+        public Builder(
+                ValueDescriptor<V> valueDescriptor,
+                CacheTrimStrategy cacheTrimStrategy,
+                Supplier<MemoryCacheParams> memoryCacheParamsSupplier) {
+            mValueDescriptor = Preconditions.checkNotNull(valueDescriptor);
+            mCacheTrimStrategy = cacheTrimStrategy;
+            mMemoryCacheParamsSupplier = Preconditions.checkNotNull(memoryCacheParamsSupplier);
+        }
+
+        /**
+         * 传入maintenanceExecutor时，驱逐、关闭资源（比如Bitmap.recycle()）和通知EntryStateObserver
+         * 都在这个线程池中执行，而不是在调用get()、cache()或者CloseableReference.close()的线程中执行，
+         * 短时间内的多次请求会被合并成一次执行。
+         * When a maintenance executor is given, the eviction passes, the closing of the values
+         * (for example {@code Bitmap.recycle()}) and the {@link EntryStateObserver} notifications
+         * run on it instead of on the thread calling get(), cache() or
+         * {@link CloseableReference#close}. Requests made while a pass is pending are collapsed
+         * into that pass.
+         *
+         * <p> The cache may then go over its constraints until the pass runs.
+         *
+         * @param maintenanceExecutor the executor to run maintenance on, or null to run it on the
+         *                            calling thread
+         */
+        public Builder<K, V> setMaintenanceExecutor(@Nullable Executor maintenanceExecutor) {
+            mMaintenanceExecutor = maintenanceExecutor;
+            return this;
+        }
+
+        /**
+         * 使用TinyLFU时，新的待销毁条目只有在估计的访问频率比将被驱逐的条目更高时才能替换它，
+         * 这样一次性的访问（比如快速滑过一个很长的图片列表）不会把经常使用的条目挤出缓存。
+         * With TinyLFU admission, a new exclusively owned item only displaces the eviction victim
+         * if it is estimated to be accessed more often. One-off accesses, such as a scroll through
+         * a long list of images, then no longer flush the working set out of the cache.
+         *
+         * <p> New items stay in a small LRU window first, so that bursts of accesses to a new key
+         * can build up its frequency. Every hit is recorded in a {@link FrequencySketch}, which
+         * takes a few kilobytes of memory per cache.
+         *
+         * @param useTinyLfuAdmission whether to filter the eviction queue with TinyLFU
+         */
+        public Builder<K, V> setTinyLfuAdmission(boolean useTinyLfuAdmission) {
+            mUseTinyLfuAdmission = useTinyLfuAdmission;
+            return this;
+        }
+
+        /**
+         * 传入expiryPolicy时，条目在过期之后会被删除，即使缓存没有超出约束。到期的条目由时间轮找出，
+         * 时间轮在每次驱逐的时候前进，所以条目可能在过期之后还会保留到下一次操作缓存的时候，但是get()不会返回过期的条目。
+         * 过期的时候仍然被客户端使用的条目会变成orphan，直到最后一个客户端关闭它的引用时才被关闭。
+         * When an expiry policy is given, the entries are removed once they expire, even if the
+         * cache is within its constraints. The expired entries are found by a timer wheel, which
+         * advances on every eviction pass, so an expired entry may stay until the next operation
+         * on the cache; get() never returns it though.
+         *
+         * <p> An entry still used by clients when it expires becomes an orphan, and its value is
+         * closed once the last client closes its reference.
+         *
+         * @param expiryPolicy gives the expiry of every entry, or null for no expiry
+         */
+        public Builder<K, V> setExpiryPolicy(@Nullable ExpiryPolicy<K, V> expiryPolicy) {
+            mExpiryPolicy = expiryPolicy;
+            return this;
+        }
+
+        /**
+         * 传入refreshPolicy时，被缓存超过一定时间的条目在下一次命中时会在后台重新加载，加载期间命中仍然返回旧值，
+         * 调用者不会等待刷新。加载完成后新值原子地替换旧值，旧值变成orphan，仍在使用它的客户端关闭引用之后才被关闭。
+         * When a refresh policy is given, an entry older than its refresh age is reloaded in the
+         * background on the next hit. The hits keep returning the current value meanwhile, and
+         * never wait for the reload.
+         *
+         * <p> The new value then replaces the old one atomically, unless the entry was removed or
+         * replaced in the meantime. The old entry becomes an orphan, so its clients keep a valid
+         * value until they close their references. If the reload fails, the current value is kept
+         * and the next refresh is attempted one refresh age later.
+         *
+         * @param refreshPolicy tells when and how to reload the entries, or null for no refresh
+         */
+        public Builder<K, V> setRefreshPolicy(@Nullable RefreshPolicy<K, V> refreshPolicy) {
+            mRefreshPolicy = refreshPolicy;
+            return this;
+        }
+
+        /**
+         * 选择驱逐没有被使用的条目的策略。使用TinyLFU时，准入过滤加在这个策略的前面。
+         * Selects how the unused entries are picked for eviction. With TinyLFU admission, the
+         * admission filter sits in front of the selected policy.
+         *
+         * <p> The segmented LRU and ARC policies need to know about every hit, so each hit is
+         * recorded in the read buffer, as with TinyLFU admission. The CLOCK policies only read the
+         * reference bit the hits set on their entry.
+         *
+         * @param evictionPolicyType the eviction policy, {@link EvictionPolicyType#LRU} by default
+         */
+        public Builder<K, V> setEvictionPolicyType(EvictionPolicyType evictionPolicyType) {
+            mEvictionPolicyType = Preconditions.checkNotNull(evictionPolicyType);
+            return this;
+        }
+
+        /**
+         * 传入reservedPercentages时，每个优先级的条目有自己的待销毁队列，先驱逐低优先级的条目。
+         * 每个优先级可以保留一部分maxCacheSize，没有超过保留份额的优先级在其他优先级超过份额时不会被驱逐。
+         * When shares are reserved by priority, the entries of every {@link Priority} level have
+         * their own eviction queue, ordered by the selected policy, and the lower levels are
+         * evicted first.
+         *
+         * <p> A level may reserve a percentage of maxCacheSize: while its entries, in use or not,
+         * take no more than that, the levels over their share are evicted before it.
+         *
+         * @param reservedPercentages the percentage of maxCacheSize reserved by each priority
+         *     level, at most 100 in total; an empty map evicts in priority order without
+         *     reservation, and null ignores the priorities
+         * @see #cache(Object, CloseableReference, EntryStateObserver, int, Priority)
+         */
+        public Builder<K, V> setReservedPercentages(
+                @Nullable Map<Priority, Integer> reservedPercentages) {
+            mReservedPercentages = reservedPercentages;
+            return this;
+        }
+
+        /**
+         * 打开URI索引时，removeAllWithUri()和containsUri()只查找getUriString()和URI完全相同的条目，
+         * 不用扫描整个缓存。默认关闭，这时和CacheKey#containsUri()一样按子串匹配，比如SimpleCacheKey
+         * Makes {@link #removeAllWithUri} and {@link #containsUri} look the URI up in an index
+         * rather than scan the whole cache, so that their cost is proportional to the number of
+         * matches. The index only finds the keys whose {@link CacheKey#getUriString} is the URI
+         * itself: a key that {@link CacheKey#containsUri} matches otherwise, for instance
+         * because the URI is only a substring of a {@code SimpleCacheKey}, is then missed.
+         *
+         * <p> Off by default, in which case every {@link CacheKey} is matched with
+         * {@link CacheKey#containsUri}.
+         *
+         * @param uriIndexEnabled whether to index the keys by their URI string
+         */
+        public Builder<K, V> setUriIndexEnabled(boolean uriIndexEnabled) {
+            mUriIndexEnabled = uriIndexEnabled;
+            return this;
+        }
+
+        /** Returns the share reserved by each level in one of the given number of caches. */
+        @Nullable
+        double[] getReservedShares(int cacheCount) {
+            return mReservedPercentages != null
+                    ? PrioritizedEvictionPolicy.toReservedShares(mReservedPercentages, cacheCount)
+                    : null;
+        }
+
+        public CountingMemoryCache<K, V> build() {
+            return new CountingMemoryCache<>(this);
+        }
+
+        /**
+         * 创建一个分段的缓存，每个分段使用这些选项
+         * Builds a cache split in segments, each of which gets these options.
+         *
+         * @param segmentCount the number of segments, rounded up to the next power of two
+         * @see SegmentedCountingMemoryCache
+         */
+        public SegmentedCountingMemoryCache<K, V> buildSegmented(int segmentCount) {
+            return new SegmentedCountingMemoryCache<>(this, segmentCount);
+        }
+    }
 
     public CountingMemoryCache(
             ValueDescriptor<V> valueDescriptor,
             CacheTrimStrategy cacheTrimStrategy,
             Supplier<MemoryCacheParams> memoryCacheParamsSupplier) {
-        mValueDescriptor = valueDescriptor;
-        mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-        mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-        mCacheTrimStrategy = cacheTrimStrategy;
-        mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+        this(new Builder<K, V>(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier));
+    }
+
+    private CountingMemoryCache(Builder<K, V> builder) {
+        this(builder, builder.getReservedShares(1), null);
+    }
+
+    /**
+     * 传入sharedBudget时，缓存约束针对的是所有共享该计数器的cache的总和
+     * When a shared budget is given, the cache constraints apply to the sum of all the caches
+     * sharing it rather than to this cache alone.
+     *
+     * @param reservedShares the share of maxCacheSize reserved by each priority level in this
+     *     cache, as given by {@link PrioritizedEvictionPolicy#toReservedShares}, or null
+     */
+    CountingMemoryCache(
+            Builder<K, V> builder,
+            @Nullable double[] reservedShares,
+            @Nullable SharedCacheBudget sharedBudget) {
+        mValueDescriptor = builder.mValueDescriptor;
+        mCacheTrimStrategy = builder.mCacheTrimStrategy;
+        mMemoryCacheParamsSupplier = builder.mMemoryCacheParamsSupplier;
         mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
         mLastCacheParamsCheck = SystemClock.uptimeMillis();
+        mMaintenanceExecutor = builder.mMaintenanceExecutor;
+        mSharedBudget = sharedBudget;
+        if (reservedShares != null) {
+            ArrayList<EvictionPolicy<K, V>> levels = new ArrayList<>();
+            for (int i = 0; i < Priority.values().length; i++) {
+                levels.add(CountingMemoryCache.<K, V>newEvictionPolicy(
+                        builder.mEvictionPolicyType, builder.mUseTinyLfuAdmission));
+            }
+            mEvictionPolicy = new PrioritizedEvictionPolicy<>(levels, reservedShares);
+        } else {
+            mEvictionPolicy = newEvictionPolicy(
+                    builder.mEvictionPolicyType, builder.mUseTinyLfuAdmission);
+        }
+        mEvictionPolicy.setParams(mMemoryCacheParams);
+        mRecordsAccesses = mEvictionPolicy.recordsAccesses();
+        mExpiryPolicy = builder.mExpiryPolicy;
+        mTimerWheel = mExpiryPolicy != null
+                ? new TimerWheel<K, V>(SystemClock.uptimeMillis())
+                : null;
+        mRefreshPolicy = builder.mRefreshPolicy;
+        mUriIndex = builder.mUriIndexEnabled ? new UriIndex<K, V>() : null;
+    }
 
+    private static <K, V> EvictionPolicy<K, V> newEvictionPolicy(
+            EvictionPolicyType evictionPolicyType,
+            boolean useTinyLfuAdmission) {
+        EvictionPolicy<K, V> evictionPolicy = evictionPolicyType.newPolicy();
+        return useTinyLfuAdmission
+                ? new TinyLfuEvictionPolicy<K, V>(evictionPolicy)
+                : evictionPolicy;
     }
 
-    private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(
-            final ValueDescriptor<V> evictableValueDescriptor) {
-        return new ValueDescriptor<Entry<K,V>>() {
-            @Override
-            public int getSizeInBytes(Entry<K, V> entry) {
-                return evictableValueDescriptor.getSizeInBytes(entry.valueRef.get());
-            }
-        };
+    /**
+     * 创建条目，有过期或刷新策略时创建TimedEntry
+     * Creates an entry, a {@link TimedEntry} when there is an expiry or a refresh policy.
+     */
+    private Entry<K, V> newEntry(
+            K key,
+            CloseableReference<V> valueRef,
+            @Nullable EntryStateObserver<K> observer,
+            int sizeInBytes,
+            int cost,
+            Priority priority) {
+        if (mExpiryPolicy == null && mRefreshPolicy == null) {
+            return Entry.of(key, valueRef, observer, sizeInBytes, cost, priority);
+        }
+        return new TimedEntry<>(key, valueRef, observer, sizeInBytes, cost, priority);
+    }
+
+    /**
+     * 只在有过期或刷新策略时调用，这时所有的条目都是TimedEntry
+     * Only called with an expiry or a refresh policy, when all the entries are timed.
+     */
+    private static <K, V> TimedEntry<K, V> timed(Entry<K, V> entry) {
+        return (TimedEntry<K, V>) entry;
     }
 
     /**
@@ -182,35 +916,91 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
             final K key,
             final CloseableReference<V> valueRef,
             final EntryStateObserver<K> observer) {
+        return cache(key, valueRef, observer, DEFAULT_COST);
+    }
+
+    /**
+     * 缓存键值对，同时给出重新获取这个值的代价。代价只被GreedyDual策略使用，
+     * 它优先保留每个字节代价最高的条目，比如下载很慢的缩略图，而不是从本地文件很快就能解码的大图片。
+     * Caches the given key-value pair, with a hint of the cost of computing the value again. Only
+     * {@link EvictionPolicyType#GREEDY_DUAL} uses the cost: it keeps the entries that cost the most
+     * to recompute per byte, such as a slow to fetch thumbnail, over a large bitmap decoded quickly
+     * from a local file.
+     *
+     * <p> Important: the client should use the returned reference instead of the original one.
+     * It is the caller's responsibility to close the returned reference once not needed anymore.
+     *
+     * @param cost the cost of computing the value again, in any unit consistent across the cache
+     *     such as milliseconds; {@link #DEFAULT_COST} when unknown
+     * @return the new reference to be used, null if the value cannot be cached
+     */
+    public CloseableReference<V> cache(
+            final K key,
+            final CloseableReference<V> valueRef,
+            @Nullable final EntryStateObserver<K> observer,
+            final int cost) {
+        return cache(key, valueRef, observer, cost, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * 缓存键值对，同时给出它的优先级。只有构造时给出了每个优先级保留的份额，优先级才会影响驱逐的顺序。
+     * Caches the given key-value pair with the given priority. The priority only affects the order
+     * of eviction when the cache was created with the shares reserved by priority.
+     *
+     * <p> Important: the client should use the returned reference instead of the original one.
+     * It is the caller's responsibility to close the returned reference once not needed anymore.
+     *
+     * @param cost the cost of computing the value again; {@link #DEFAULT_COST} when unknown
+     * @param priority the priority of the entry; {@link #DEFAULT_PRIORITY} when unknown
+     * @return the new reference to be used, null if the value cannot be cached
+     */
+    public CloseableReference<V> cache(
+            final K key,
+            final CloseableReference<V> valueRef,
+            @Nullable final EntryStateObserver<K> observer,
+            final int cost,
+            final Priority priority) {
         Preconditions.checkNotNull(key);
         Preconditions.checkNotNull(valueRef);
+        Preconditions.checkNotNull(priority);
+        Preconditions.checkArgument(cost >= 0);
 
         maybeUpdateCacheParams();
 
+        ArrayList<Entry<K, V>> drainedExclusives;
         Entry<K, V> oldExclusive;
         CloseableReference<V> oldRefToClose = null;
         CloseableReference<V> clientRef = null;
         synchronized (this) {
+            drainedExclusives = drainReadBuffer();
             // 删除 待销毁Map 和 全部条目Map 中的该键值对
-            oldExclusive = mExclusiveEntries.remove(key);
-            Entry<K, V> oldEntry = mCachedEntries.remove(key);
+            oldExclusive = removeExclusive(key);
+            Entry<K, V> oldEntry = removeCachedEntry(key);
 
             //如果之前 全部条目Map 中已经有了这个键值对 那么将其设置为Orphan
             if (oldEntry != null) {
                 makeOrphan(oldEntry);
                 oldRefToClose = referenceToClose(oldEntry);
             }
+            publishToSharedBudget();
 
             //如果剩余内存容量，可以添加支持新的cache，那么就添加
-            if (canCacheNewValue(valueRef.get())) {
-                Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
-                mCachedEntries.put(key, newEntry);
+            int newValueSize = mValueDescriptor.getSizeInBytes(valueRef.get());
+            recordForEstimation(key, newValueSize);
+            if (canCacheNewValue(newValueSize)) {
+                Entry<K, V> newEntry = newEntry(
+                        key, valueRef, observer, newValueSize, cost, priority);
+                increaseClientCount(newEntry);
+                putCachedEntry(key, newEntry);
+                mEvictionPolicy.onAdmitted(newEntry);
                 clientRef = newClientReference(newEntry);
+                publishToSharedBudget();
             }
         }
 
         //安全的关闭旧的条目
-        CloseableReference.closeSafely(oldRefToClose);
+        maybeClose(oldRefToClose);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
         //如果设置该缓存原本是属于要被删除的条目，那么此时其状态改变了，可以调用状态改变的监听者
         maybeNotifyExclusiveEntryRemoval(oldExclusive);
         //判断添加了缓存之后，是否应该进行缓存清理
@@ -220,60 +1010,679 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     }
 
     /**
-     * 判断是否可以插入一个新缓存
-     * Checks the cache constraints to determine whether the new value can be cached or not. */
-    private synchronized boolean canCacheNewValue(V value) {
-        int newValueSize = mValueDescriptor.getSizeInBytes(value);
-        return (newValueSize <= mMemoryCacheParams.maxCacheEntrySize) &&
-                (getInUseCount() <= mMemoryCacheParams.maxCacheEntries - 1) &&
-                (getInUseSizeInBytes() <= mMemoryCacheParams.maxCacheSize - newValueSize);
+     * 批量缓存键值对，所有的插入都在一次持有锁的过程中完成，最后只执行一次驱逐
+     * Caches all the given key-value pairs while holding the lock once, and runs a single eviction
+     * pass at the end.
+     *
+     * <p> Important: the client should use the returned references instead of the original ones.
+     * It is the caller's responsibility to close the returned references once not needed anymore.
+     *
+     * @return the new references to be used, by key; the keys whose value cannot be cached are
+     * left out
+     */
+    @Override
+    public Map<K, CloseableReference<V>> cacheAll(final Map<K, CloseableReference<V>> values) {
+        Preconditions.checkNotNull(values);
+
+        maybeUpdateCacheParams();
+
+        ArrayList<Entry<K, V>> drainedExclusives;
+        ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        Map<K, CloseableReference<V>> clientRefs = new HashMap<>();
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            for (Map.Entry<K, CloseableReference<V>> value : values.entrySet()) {
+                K key = Preconditions.checkNotNull(value.getKey());
+                CloseableReference<V> valueRef = Preconditions.checkNotNull(value.getValue());
+                Entry<K, V> oldExclusive = removeExclusive(key);
+                if (oldExclusive != null) {
+                    oldExclusives.add(oldExclusive);
+                }
+                Entry<K, V> oldEntry = removeCachedEntry(key);
+                if (oldEntry != null) {
+                    makeOrphan(oldEntry);
+                    oldEntries.add(oldEntry);
+                }
+                publishToSharedBudget();
+
+                int newValueSize = mValueDescriptor.getSizeInBytes(valueRef.get());
+                recordForEstimation(key, newValueSize);
+                if (canCacheNewValue(newValueSize)) {
+                    Entry<K, V> newEntry = newEntry(
+                            key, valueRef, null, newValueSize, DEFAULT_COST, DEFAULT_PRIORITY);
+                    increaseClientCount(newEntry);
+                    putCachedEntry(key, newEntry);
+                    mEvictionPolicy.onAdmitted(newEntry);
+                    clientRefs.put(key, newClientReference(newEntry));
+                    publishToSharedBudget();
+                }
+            }
+        }
+
+        maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(oldExclusives);
+        maybeEvictEntries();
+        return clientRefs;
+    }
+
+    /**
+     * 判断是否可以插入一个新缓存
+     * Checks the cache constraints to determine whether the new value can be cached or not. */
+    private synchronized boolean canCacheNewValue(int newValueSize) {
+        int inUseCount;
+        long inUseSizeInBytes;
+        if (mSharedBudget != null) {
+            inUseCount = mSharedBudget.getInUseCount();
+            inUseSizeInBytes = mSharedBudget.getInUseSizeInBytes();
+        } else {
+            inUseCount = mCachedCount - getExclusiveCount();
+            inUseSizeInBytes = getInUseSizeInBytesLocked();
+        }
+        return (newValueSize <= mMemoryCacheParams.maxCacheEntrySize) &&
+                (inUseCount <= mMemoryCacheParams.maxCacheEntries - 1) &&
+                (inUseSizeInBytes <= mMemoryCacheParams.maxCacheSize - newValueSize);
+    }
+
+    /**
+     * 获取一个缓存条目
+     * Gets the item with the given key, or null if there is no such item.
+     * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
+     *
+     * 命中的时候不获取锁：在mEntryIndex中找到条目后原子地增加clientCount，如果条目因此离开了待销毁状态，
+     * 就将它写入读缓冲区，等持有锁的时候再从待销毁队列中删除。
+     * <p> A hit does not take the cache lock: the entry is looked up in a concurrent index and its
+     * client count is increased atomically. If that takes the entry out of the exclusively owned
+     * state, the entry is recorded in a read buffer and removed from the eviction queue in a batch,
+     * the next time the lock is held. When the eviction policy asks for it, every hit is
+     * recorded, so that the policy learns about the entries hit while in use.
+     */
+    @Nullable
+    public CloseableReference<V> get(final K key) {
+        Preconditions.checkNotNull(key);
+        Entry<K, V> entry = mEntryIndex.get(key);
+        if (entry == null) {
+            mMissCount.increment();
+            //没有命中，可能会更新缓存配置
+            if (maybeUpdateCacheParams()) {
+                maybeEvictEntries();
+            }
+            return null;
+        }
+        if (!checkExpiryOnAccess(entry)) {
+            // 条目已经过期，只删除这一个条目，不必执行一次完整的驱逐
+            // The entry has expired: remove it alone rather than running a full eviction pass,
+            // which every get() would repeat until the timer wheel ticks.
+            mMissCount.increment();
+            expireEntry(entry);
+            return null;
+        }
+        int previousClientCount = entry.tryIncreaseClientCount();
+        if (previousClientCount < 0) {
+            // 条目刚刚被删除或替换，在锁中重新查找
+            // The entry has just been removed or replaced, look it up again under the lock.
+            return getLocked(key);
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        mHitCount.increment();
+        recordForEstimation(key, entry.sizeInBytes);
+        if (previousClientCount == 0 || mRecordsAccesses) {
+            recordAccess(entry);
+        }
+        CloseableReference<V> clientRef = newClientReference(entry);
+        maybeRefresh(entry);
+        //可能会更新缓存配置
+        if (maybeUpdateCacheParams()) {
+            //判断是否应该进行缓存清理
+            maybeEvictEntries();
+        }
+        return clientRef;
+    }
+
+    /**
+     * 批量获取缓存条目，所有的查找都在一次持有锁的过程中完成，命中的条目直接离开待销毁队列，不经过读缓冲区
+     * Gets the items with the given keys while holding the lock once. The entries found leave the
+     * eviction queue right away instead of going through the read buffer.
+     *
+     * <p> It is the caller's responsibility to close the returned references once not needed
+     * anymore.
+     *
+     * @return references to the cached values, by key; the keys not found are left out
+     */
+    @Override
+    public Map<K, CloseableReference<V>> getAll(final Iterable<K> keys) {
+        Preconditions.checkNotNull(keys);
+        ArrayList<Entry<K, V>> drainedExclusives;
+        ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+        Map<K, CloseableReference<V>> clientRefs = new HashMap<>();
+        ArrayList<Entry<K, V>> hitEntries = new ArrayList<>();
+        boolean foundExpired = false;
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            for (K key : keys) {
+                Preconditions.checkNotNull(key);
+                Entry<K, V> entry = mEntryIndex.get(key);
+                if (clientRefs.containsKey(key)) {
+                    continue;
+                }
+                if (entry == null) {
+                    mMissCount.increment();
+                    continue;
+                }
+                if (!checkExpiryOnAccess(entry)) {
+                    mMissCount.increment();
+                    foundExpired = true;
+                    continue;
+                }
+                entry.referenced = true;
+                mHitCount.increment();
+                recordForEstimation(key, entry.sizeInBytes);
+                mEvictionPolicy.onAccess(entry);
+                Entry<K, V> oldExclusive = removeExclusive(key);
+                if (oldExclusive != null) {
+                    oldExclusives.add(oldExclusive);
+                }
+                increaseClientCount(entry);
+                clientRefs.put(key, newClientReference(entry));
+                if (mRefreshPolicy != null) {
+                    hitEntries.add(entry);
+                }
+            }
+            publishToSharedBudget();
+        }
+
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(oldExclusives);
+        for (int i = 0; i < hitEntries.size(); i++) {
+            maybeRefresh(hitEntries.get(i));
+        }
+        //可能会更新缓存配置，过期的条目也需要回收
+        if (maybeUpdateCacheParams() || foundExpired) {
+            maybeEvictEntries();
+        }
+        return clientRefs;
+    }
+
+    /**
+     * 获取一个缓存条目，如果没有命中就使用loader加载并缓存。同一个key上同时没有命中的调用者只会加载一次，
+     * 其他调用者等待这次加载，每个调用者都会得到这个结果的一个独立的引用。
+     * Gets the item with the given key, loading and caching it with the given loader if there is
+     * no such item. Concurrent misses on the same key are coalesced: only one caller runs the
+     * loader, the others wait for it, and every caller gets its own reference to the result.
+     *
+     * <p> If the loaded value cannot be cached, for example because it is too large, the callers
+     * still share the loaded value. All the callers see the same outcome: if the loader fails they
+     * all get an {@link ExecutionException}, and if it is cancelled or interrupted they all get a
+     * {@link CancellationException}. A caller interrupted while waiting leaves the load, which goes
+     * on for the others. The callers that wait for a background refresh are the exception: if the
+     * refresh fails, they look the key up again rather than failing.
+     *
+     * <p> It is the caller's responsibility to close the returned reference once not needed
+     * anymore. The loader runs on the calling thread, so this method must not be called from the UI
+     * thread if the loader is slow.
+     *
+     * @return a reference to the value, or null if the loader found no value
+     * @throws ExecutionException if the loader threw an exception
+     * @throws Error the error thrown by the loader, such as an OutOfMemoryError, as is
+     * @throws CancellationException if the loader threw a CancellationException or an
+     * InterruptedException
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the
+     * load of another caller
+     */
+    @Nullable
+    public CloseableReference<V> getOrCompute(final K key, final ValueLoader<K, V> loader)
+            throws InterruptedException, ExecutionException {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(loader);
+        for (;;) {
+            CloseableReference<V> cachedRef = get(key);
+            if (cachedRef != null) {
+                return cachedRef;
+            }
+            PendingLoad<V> pendingLoad = mPendingLoads.get(key);
+            if (pendingLoad == null) {
+                PendingLoad<V> newLoad = new PendingLoad<>(false);
+                pendingLoad = mPendingLoads.putIfAbsent(key, newLoad);
+                if (pendingLoad == null) {
+                    return load(key, loader, newLoad);
+                }
+            }
+            if (pendingLoad.join()) {
+                if (!pendingLoad.isRefresh) {
+                    return pendingLoad.await();
+                }
+                CloseableReference<V> refreshedRef = awaitRefresh(pendingLoad);
+                if (refreshedRef != null) {
+                    return refreshedRef;
+                }
+                // 后台刷新失败了，它的失败不属于这个调用者，重新查找，需要时自己加载
+                // The background refresh failed. Its failure is not this caller's: look the key
+                // up again, and load it if it is missing.
+                continue;
+            }
+            // 这次加载刚刚结束，重新查找
+            // The load has just finished, look the key up again.
+        }
+    }
+
+    /**
+     * 等待一次后台刷新，刷新失败或者没有找到值时返回null，而不是抛出刷新的异常
+     * Waits for a background refresh. A failed refresh does not fail the foreground callers.
+     *
+     * @return the refreshed value, or null if the refresh failed or found no value
+     */
+    @Nullable
+    private static <V> CloseableReference<V> awaitRefresh(PendingLoad<V> pendingLoad)
+            throws InterruptedException {
+        try {
+            return pendingLoad.await();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (Error e) {
+            // 这个Error已经在刷新的线程中抛出了
+            // The error has been rethrown on the thread of the refresh already.
+            return null;
+        }
+    }
+
+    /**
+     * 运行loader并将结果发布给等待的调用者
+     * Runs the loader for the pending load the caller has registered, and publishes the outcome.
+     */
+    @Nullable
+    private CloseableReference<V> load(
+            final K key,
+            final ValueLoader<K, V> loader,
+            final PendingLoad<V> pendingLoad) throws InterruptedException, ExecutionException {
+        CloseableReference<V> result = null;
+        Throwable failure = null;
+        try {
+            // 另一次加载可能在注册之前刚刚完成
+            // Another load may have completed just before this one was registered.
+            result = get(key);
+            if (result == null) {
+                CloseableReference<V> loadedRef = loader.load(key);
+                if (loadedRef != null) {
+                    try {
+                        result = cache(key, loadedRef);
+                        if (result == null) {
+                            result = loadedRef.clone();
+                        }
+                    } finally {
+                        loadedRef.close();
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            if (t instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            failure = t;
+        } finally {
+            mPendingLoads.remove(key, pendingLoad);
+            pendingLoad.complete(result, failure);
+        }
+        return pendingLoad.await();
+    }
+
+    /**
+     * 如果条目到了刷新的时间，在后台重新加载它。同一个key同时只有一次加载，没有命中的getOrCompute()会等待这次加载
+     * Reloads the entry in the background if it is due for a refresh. The reload is registered as
+     * the pending load of the key, so there is at most one per key, and getOrCompute() misses on
+     * the key wait for it.
+     */
+    private void maybeRefresh(final Entry<K, V> entry) {
+        if (mRefreshPolicy == null
+                || timed(entry).refreshTime > SystemClock.uptimeMillis()) {
+            return;
+        }
+        final PendingLoad<V> pendingLoad = new PendingLoad<>(true);
+        if (mPendingLoads.putIfAbsent(entry.key, pendingLoad) != null) {
+            return;
+        }
+        try {
+            mRefreshPolicy.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(entry, pendingLoad);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 线程池拒绝了任务，这次不刷新
+            // The executor rejected the task: skip this refresh.
+            timed(entry).refreshTime =
+                    Entry.deadline(SystemClock.uptimeMillis(), mRefreshPolicy.getRefreshAfterWriteMs());
+            mPendingLoads.remove(entry.key, pendingLoad);
+            pendingLoad.complete(null, e);
+            closeQuietly(pendingLoad);
+        }
+    }
+
+    /**
+     * 后台刷新任务：加载新值并替换旧的条目
+     * The refresh task: loads the new value and swaps it in.
+     */
+    private void refresh(final Entry<K, V> entry, final PendingLoad<V> pendingLoad) {
+        CloseableReference<V> result = null;
+        Throwable failure = null;
+        boolean swapped = false;
+        try {
+            CloseableReference<V> loadedRef = mRefreshPolicy.getLoader().load(entry.key);
+            if (loadedRef != null) {
+                try {
+                    swapped = swapRefreshedValue(entry, loadedRef);
+                    result = loadedRef.clone();
+                } finally {
+                    loadedRef.close();
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            if (!swapped) {
+                // 保留当前的值，过一个刷新周期再试。新值太大或者条目已经被替换时也是这样，否则之后的每次命中都会再刷新一次
+                // Keep the current value, and try again one refresh age later. This also holds
+                // when the new value was too large or the entry was replaced meanwhile, or every
+                // later hit would start another reload.
+                timed(entry).refreshTime = Entry.deadline(
+                        SystemClock.uptimeMillis(),
+                        mRefreshPolicy.getRefreshAfterWriteMs());
+            }
+            mPendingLoads.remove(entry.key, pendingLoad);
+            pendingLoad.complete(result, failure);
+        }
+        closeQuietly(pendingLoad);
+    }
+
+    /**
+     * Leaves the pending load, closing the reference it returns and ignoring its exceptions. An
+     * Error thrown by the loader is rethrown.
+     */
+    private static <V> void closeQuietly(PendingLoad<V> pendingLoad) {
+        try {
+            CloseableReference.closeSafely(pendingLoad.await());
+        } catch (Exception e) {
+            // 失败已经发布给了等待的调用者
+            // The failure has been published to the waiting callers.
+        }
+    }
+
+    /**
+     * 如果条目仍然是这个key当前的条目，就用新值替换它。旧的条目变成orphan，和cache()替换条目时一样。
+     * Replaces the entry with a new one holding the refreshed value, if the entry is still the
+     * current one for its key. As in {@link #cache}, the old entry becomes an orphan, and its value
+     * is closed once its last client closes its reference.
+     *
+     * <p> The new entry has no client, so it goes to the eviction queue right away, in the same
+     * part of the queue as the old one.
+     *
+     * @return false if the entry was not replaced, because it was no longer the current one or
+     * the new value is too large for the cache
+     */
+    private boolean swapRefreshedValue(Entry<K, V> oldEntry, CloseableReference<V> valueRef) {
+        boolean swapped = false;
+        ArrayList<Entry<K, V>> drainedExclusives;
+        Entry<K, V> oldExclusive = null;
+        Entry<K, V> newEntry = null;
+        CloseableReference<V> oldRefToClose = null;
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            int newValueSize = mValueDescriptor.getSizeInBytes(valueRef.get());
+            if (mEntryIndex.get(oldEntry.key) == oldEntry
+                    && newValueSize <= mMemoryCacheParams.maxCacheEntrySize) {
+                oldExclusive = removeExclusive(oldEntry.key);
+                removeCachedEntry(oldEntry.key);
+                makeOrphan(oldEntry);
+                oldRefToClose = referenceToClose(oldEntry);
+
+                newEntry = newEntry(
+                        oldEntry.key,
+                        valueRef,
+                        oldEntry.observer,
+                        newValueSize,
+                        oldEntry.cost,
+                        oldEntry.priority);
+                mEvictionPolicy.onReplaced(oldEntry, newEntry);
+                putCachedEntry(oldEntry.key, newEntry);
+                swapped = true;
+                if (!maybeAddToExclusives(newEntry)) {
+                    newEntry = null;
+                }
+            }
+            publishToSharedBudget();
+        }
+        maybeClose(oldRefToClose);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(oldExclusive);
+        maybeNotifyExclusiveEntryInsertion(newEntry);
+        maybeEvictEntries();
+        return swapped;
+    }
+
+    /**
+     * get()在持有锁时的实现
+     * The locked version of {@link #get}, used when the lock-free lookup raced with a removal.
+     */
+    @Nullable
+    private CloseableReference<V> getLocked(final K key) {
+        ArrayList<Entry<K, V>> drainedExclusives;
+        Entry<K, V> oldExclusive = null;
+        Entry<K, V> refreshedEntry = null;
+        CloseableReference<V> clientRef = null;
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            Entry<K, V> entry = mEntryIndex.get(key);
+            //如果从 全部条目Map 中获取的条目不为空并且没有过期 那么新建一个 CloseableReference引用
+            if (entry != null && checkExpiryOnAccess(entry)) {
+                //将该条目从 待销毁条目Map 中删除
+                oldExclusive = removeExclusive(key);
+                entry.referenced = true;
+                mHitCount.increment();
+                recordForEstimation(key, entry.sizeInBytes);
+                mEvictionPolicy.onAccess(entry);
+                increaseClientCount(entry);
+                clientRef = newClientReference(entry);
+                refreshedEntry = entry;
+            } else {
+                mMissCount.increment();
+            }
+            publishToSharedBudget();
+        }
+
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        //如果设置该缓存原本是属于要被删除的条目，那么此时其状态改变了，可以调用状态改变的监听者
+        maybeNotifyExclusiveEntryRemoval(oldExclusive);
+        if (refreshedEntry != null) {
+            maybeRefresh(refreshedEntry);
+        }
+        //可能会更新缓存配置
+        maybeUpdateCacheParams();
+        //判断是否应该进行缓存清理
+        maybeEvictEntries();
+        return clientRef;
+    }
+
+    /**
+     * 如果条目已经过期返回false，否则更新它的访问时间。可以不持有锁调用
+     * Returns false if the entry has expired, and records the access otherwise. May be called
+     * without holding the lock.
+     */
+    private boolean checkExpiryOnAccess(Entry<K, V> entry) {
+        if (mExpiryPolicy == null) {
+            return true;
+        }
+        TimedEntry<K, V> timedEntry = timed(entry);
+        long now = SystemClock.uptimeMillis();
+        if (timedEntry.getExpirationTime() <= now) {
+            return false;
+        }
+        if (timedEntry.expireAfterAccessMs != ExpiryPolicy.NO_EXPIRY) {
+            timedEntry.accessTime = now;
+        }
+        return true;
+    }
+
+    /**
+     * 删除get()发现已经过期的条目，不必等到时间轮前进。条目仍然被客户端使用时会变成orphan
+     * Removes an entry that get() found expired, without waiting for the timer wheel. An entry
+     * still used by clients becomes an orphan, as on any other expiry.
+     */
+    private void expireEntry(Entry<K, V> entry) {
+        ArrayList<Entry<K, V>> drainedExclusives;
+        boolean wasExclusive = false;
+        CloseableReference<V> oldRefToClose = null;
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            if (mEntryIndex.get(entry.key) == entry
+                    && timed(entry).getExpirationTime() <= SystemClock.uptimeMillis()) {
+                wasExclusive = removeExclusive(entry);
+                removeCachedEntry(entry.key);
+                makeOrphan(entry);
+                oldRefToClose = referenceToClose(entry);
+            }
+            publishToSharedBudget();
+        }
+        maybeClose(oldRefToClose);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(wasExclusive ? entry : null);
+    }
+
+    /**
+     * 设置命中率估计器，传入null时停止记录。一个估计器可以被多个cache共享。
+     * Sets the estimator the hits and insertions are recorded to, or stops recording when null.
+     * A miss is not recorded by itself, since the value is normally cached right after it, which
+     * records the access. An estimator may be shared between caches.
+     */
+    public void setMissRatioCurveEstimator(@Nullable MissRatioCurveEstimator<K> estimator) {
+        mMissRatioCurveEstimator = estimator;
+    }
+
+    private void recordForEstimation(K key, int sizeInBytes) {
+        MissRatioCurveEstimator<K> estimator = mMissRatioCurveEstimator;
+        if (estimator != null) {
+            estimator.recordAccess(key, sizeInBytes);
+        }
+    }
+
+    /**
+     * 将被访问的条目写入读缓冲区，缓冲区快满的时候就获取锁批量处理
+     * Records that the entry was accessed, and may no longer be exclusively owned. When the
+     * buffer asks for it, the recorded events are drained right away.
+     */
+    private void recordAccess(Entry<K, V> entry) {
+        if (mReadBuffer.offer(entry) != StripedReadBuffer.OfferResult.DRAIN_RECOMMENDED) {
+            return;
+        }
+        if (mMaintenanceExecutor != null) {
+            // 维护任务在驱逐之前会处理读缓冲区
+            // The maintenance pass drains the read buffer before it evicts.
+            scheduleMaintenance();
+        } else if (mDrainPending.compareAndSet(false, true)) {
+            // 只有一个读线程去获取锁，其他的读线程直接返回：每个持有锁的操作都会先处理读缓冲区，
+            // 所以跳过的事件会在下一次处理时被处理，或者在缓冲区满了时被丢弃
+            // Only one reader goes for the lock, the others return right away. Every operation
+            // holding the lock drains the buffer first, so their events are applied by the next
+            // drain, or dropped if the buffer fills up meanwhile.
+            try {
+                drainReadBufferAndNotify();
+            } finally {
+                mDrainPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * This method invokes the external observers, so it must not be called while holding the
+     * <code>this</code> lock.
+     */
+    private void drainReadBufferAndNotify() {
+        ArrayList<Entry<K, V>> drainedExclusives;
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            publishToSharedBudget();
+        }
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
     }
 
     /**
-     * 获取一个缓存条目
-     * Gets the item with the given key, or null if there is no such item.
-     * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
+     * 处理读缓冲区中的事件，将已经被客户端引用的条目从待销毁队列中删除，并将访问报告给驱逐策略
+     * Applies the events recorded by lock-free get() calls: entries that are used by a client are
+     * removed from the eviction queue, and the accesses are reported to the eviction policy. An
+     * event may be stale, since the client may have released the entry again in the meantime, so
+     * the current state of the entry is checked.
+     *
+     * <p> Dropped events are tolerated: an entry that is in use but still in the eviction queue is
+     * skipped and removed from the queue by the next eviction.
+     *
+     * @return the entries with an observer removed from the eviction queue, so that the caller
+     * can notify their observers once the lock is released; the others are left out, so that the
+     * hits on entries without observer allocate no list
      */
     @Nullable
-    public CloseableReference<V> get(final K key) {
-        Preconditions.checkNotNull(key);
-        Entry<K, V> oldExclusive;
-        CloseableReference<V> clientRef = null;
-        synchronized (this) {
-            //将该条目从 待销毁条目Map 中删除
-            oldExclusive = mExclusiveEntries.remove(key);
-            Entry<K, V> entry = mCachedEntries.get(key);
-            //如果从 全部条目Map 中获取的条目不为空 那么新建一个 CloseableReference引用
-            if (entry != null) {
-                clientRef = newClientReference(entry);
+    private synchronized ArrayList<Entry<K, V>> drainReadBuffer() {
+        mReadBuffer.drainTo(mDrainedEntries);
+        if (mDrainedEntries.isEmpty()) {
+            return null;
+        }
+        ArrayList<Entry<K, V>> removedExclusives = null;
+        for (int i = 0; i < mDrainedEntries.size(); i++) {
+            Entry<K, V> entry = mDrainedEntries.get(i);
+            mEvictionPolicy.onAccess(entry);
+            if (entry.getClientCount() > 0 && removeExclusive(entry) && entry.observer != null) {
+                if (removedExclusives == null) {
+                    removedExclusives = new ArrayList<>();
+                }
+                removedExclusives.add(entry);
             }
         }
+        mDrainedEntries.clear();
+        return removedExclusives;
+    }
 
-        //如果设置该缓存原本是属于要被删除的条目，那么此时其状态改变了，可以调用状态改变的监听者
-        maybeNotifyExclusiveEntryRemoval(oldExclusive);
-        //可能会更新缓存配置
-        maybeUpdateCacheParams();
-        //判断是否应该进行缓存清理
-        maybeEvictEntries();
-        return clientRef;
+    /**
+     * 为客户端创建一个新的引用，调用之前需要先增加该条目的客户端引用数值。
+     * 返回的是一个租约，客户端引用数值就是它的引用计数，所以每次命中只创建租约这一个对象。
+     * Creates a new reference for the client. The client count of the entry must have been
+     * increased by the caller.
+     *
+     * <p> The reference is a lease, whose count of holds is the client count of the entry, so a
+     * hit only allocates the lease itself.
+     */
+    private CloseableReference<V> newClientReference(Entry<K, V> entry) {
+        CloseableReference.LeaseOwner<V> owner = entry.leaseOwner;
+        if (owner == null) {
+            owner = new ClientLeaseOwner(entry);
+            entry.leaseOwner = owner;
+        }
+        //返回一个客户端引用，关闭这个引用的时候调用releaseClientReference()
+        return CloseableReference.ofLease(entry.valueRef.get(), owner);
     }
 
     /**
-     * 为客户端创建一个新的引用
-     * Creates a new reference for the client. */
-    private synchronized CloseableReference<V> newClientReference(final Entry<K, V> entry) {
-        //增加该缓存条目的客户端引用数值
-        increaseClientCount(entry);
+     * 客户端租约的所有者，每个条目一个
+     * The owner of the client leases on an entry.
+     */
+    private class ClientLeaseOwner implements CloseableReference.LeaseOwner<V> {
+        private final Entry<K, V> mEntry;
 
-        //返回一个客户端引用，并放入一个回调当关闭这个引用的时候调用
-        return CloseableReference.of(
-                entry.valueRef.get(),
-                new ResourceReleaser<V>() {
-                    @Override
-                    public void release(V unused) {
-                        releaseClientReference(entry);
-                    }
-                });
+        ClientLeaseOwner(Entry<K, V> entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public boolean reacquire() {
+            return mEntry.tryIncreaseHeldClientCount();
+        }
+
+        @Override
+        public void release(V unused) {
+            releaseClientReference(mEntry);
+        }
     }
 
     /**
@@ -282,30 +1691,43 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * Called when the client closes its reference. */
     private void releaseClientReference(final Entry<K, V> entry) {
         Preconditions.checkNotNull(entry);
+        ArrayList<Entry<K, V>> drainedExclusives;
         boolean isExclusiveAdded;
         CloseableReference<V> oldRefToClose;
         synchronized (this) {
+            drainedExclusives = drainReadBuffer();
             //减少该条目客户端应用数值
             decreaseClientCount(entry);
             //判断是否需要添加到 待销毁条目Map 中
             isExclusiveAdded = maybeAddToExclusives(entry);
             oldRefToClose = referenceToClose(entry);
+            publishToSharedBudget();
         }
         //关闭这个客户端引用
-        CloseableReference.closeSafely(oldRefToClose);
+        maybeClose(oldRefToClose);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
         //如果需要添加到 待销毁条目Map 中，就去调用
         maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
 
         maybeUpdateCacheParams();
         maybeEvictEntries();
+        // 作为分段时，超出的部分可能要由其他分段驱逐
+        // As a segment, the overflow may have to be evicted from the other segments.
+        if (mSharedBudget != null) {
+            mSharedBudget.onEntryReleased();
+        }
     }
 
     /**
      * 将条目添加到 待销毁条目Map 中，如果这是可行的
      * Adds the entry to the exclusively owned queue if it is viable for eviction. */
     private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
-        if (!entry.isOrphan && entry.clientCount == 0) {
-            mExclusiveEntries.put(entry.key, entry);
+        if (!entry.isOrphan() && entry.getClientCount() == 0) {
+            // 条目可能还在队列中，如果get()写入读缓冲区的事件被丢弃了，这时将它移到队尾
+            // The entry may still be queued if the event of a lock-free get() was dropped; it
+            // then moves to the end of the queue.
+            removeExclusive(entry);
+            mEvictionPolicy.onExclusive(entry);
             return true;
         }
         return false;
@@ -319,21 +1741,28 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     @Nullable
     public CloseableReference<V> reuse(K key) {
         Preconditions.checkNotNull(key);
+        ArrayList<Entry<K, V>> drainedExclusives;
         CloseableReference<V> clientRef = null;
         boolean removed = false;
         Entry<K, V> oldExclusive = null;
         synchronized (this) {
-            oldExclusive = mExclusiveEntries.remove(key);
+            drainedExclusives = drainReadBuffer();
+            oldExclusive = removeExclusive(key);
             if (oldExclusive != null) {
-                Entry<K, V> entry = mCachedEntries.remove(key);
-                Preconditions.checkNotNull(entry);
-                Preconditions.checkState(entry.clientCount == 0);
-                // optimization: instead of cloning and then closing the original reference,
-                // we just do a move
-                clientRef = entry.valueRef;
+                if (oldExclusive.tryMarkExclusiveOrphan()) {
+                    Entry<K, V> entry = removeCachedEntry(key);
+                    Preconditions.checkNotNull(entry);
+                    // optimization: instead of cloning and then closing the original reference,
+                    // we just do a move
+                    clientRef = entry.valueRef;
+                }
+                // 否则该条目刚刚被一个不持有锁的get()引用了，不能再被复用
+                // Otherwise a lock-free get() has just acquired the entry, so it cannot be reused.
                 removed = true;
+                publishToSharedBudget();
             }
         }
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
         if (removed) {
             maybeNotifyExclusiveEntryRemoval(oldExclusive);
         }
@@ -348,14 +1777,113 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * @return number of the items removed from the cache
      */
     public int removeAll(Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> drainedExclusives;
         ArrayList<Entry<K, V>> oldExclusives;
         ArrayList<Entry<K, V>> oldEntries;
         synchronized (this) {
-            oldExclusives = mExclusiveEntries.removeAll(predicate);
-            oldEntries = mCachedEntries.removeAll(predicate);
+            drainedExclusives = drainReadBuffer();
+            oldExclusives = mEvictionPolicy.removeAll(predicate);
+            oldEntries = new ArrayList<>();
+            for (Entry<K, V> entry : mEntryIndex.values()) {
+                if (predicate.apply(entry.key)) {
+                    oldEntries.add(entry);
+                }
+            }
+            for (int i = 0; i < oldEntries.size(); i++) {
+                removeCachedEntry(oldEntries.get(i).key);
+            }
             makeOrphans(oldEntries);
+            publishToSharedBudget();
+        }
+        maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(oldExclusives);
+        maybeUpdateCacheParams();
+        maybeEvictEntries();
+        return oldEntries.size();
+    }
+
+    /**
+     * 删除给定key的条目，所有的删除都在一次持有锁的过程中完成
+     * Removes the items with the given keys while holding the lock once.
+     *
+     * @return number of the items removed from the cache
+     */
+    @Override
+    public int removeKeys(final Iterable<K> keys) {
+        Preconditions.checkNotNull(keys);
+        ArrayList<Entry<K, V>> drainedExclusives;
+        ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            for (K key : keys) {
+                Preconditions.checkNotNull(key);
+                Entry<K, V> oldExclusive = removeExclusive(key);
+                if (oldExclusive != null) {
+                    oldExclusives.add(oldExclusive);
+                }
+                Entry<K, V> oldEntry = removeCachedEntry(key);
+                if (oldEntry != null) {
+                    makeOrphan(oldEntry);
+                    oldEntries.add(oldEntry);
+                }
+            }
+            publishToSharedBudget();
+        }
+        maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(oldExclusives);
+        maybeUpdateCacheParams();
+        maybeEvictEntries();
+        return oldEntries.size();
+    }
+
+    /**
+     * 删除给定key的条目
+     * Removes the item with the given key.
+     *
+     * @return true if the item was found and removed
+     */
+    @Override
+    public boolean remove(final K key) {
+        return removeKeys(Collections.singletonList(key)) > 0;
+    }
+
+    /**
+     * 删除所有由给定URI构建的条目。打开URI索引时只检查索引中的条目，否则检查每一个CacheKey
+     * Removes all the items whose key is a {@link CacheKey} built from the given URI, as told by
+     * {@link CacheKey#containsUri}. With the URI index, see {@link Builder#setUriIndexEnabled},
+     * only the keys whose {@link CacheKey#getUriString} is the URI are looked at, so the cost is
+     * proportional to the number of such keys rather than to the size of the cache.
+     *
+     * @return number of the items removed from the cache
+     */
+    public int removeAllWithUri(final Uri uri) {
+        Preconditions.checkNotNull(uri);
+        ArrayList<Entry<K, V>> drainedExclusives;
+        ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        synchronized (this) {
+            drainedExclusives = drainReadBuffer();
+            ArrayList<Entry<K, V>> entries = getEntriesWithUri(uri);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry<K, V> entry = entries.get(i);
+                if (((CacheKey) entry.key).containsUri(uri)) {
+                    if (removeExclusive(entry)) {
+                        oldExclusives.add(entry);
+                    }
+                    removeCachedEntry(entry.key);
+                    makeOrphan(entry);
+                    oldEntries.add(entry);
+                }
+            }
+            if (!oldEntries.isEmpty()) {
+                publishToSharedBudget();
+            }
         }
         maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
         maybeNotifyExclusiveEntryRemoval(oldExclusives);
         maybeUpdateCacheParams();
         maybeEvictEntries();
@@ -366,14 +1894,28 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * 清空条目
      * Removes all the items from the cache. */
     public void clear() {
+        ArrayList<Entry<K, V>> drainedExclusives;
         ArrayList<Entry<K, V>> oldExclusives;
         ArrayList<Entry<K, V>> oldEntries;
         synchronized (this) {
-            oldExclusives = mExclusiveEntries.clear();
-            oldEntries = mCachedEntries.clear();
+            drainedExclusives = drainReadBuffer();
+            oldExclusives = mEvictionPolicy.removeAll(null);
+            oldEntries = new ArrayList<>(mEntryIndex.values());
+            mEntryIndex.clear();
+            if (mUriIndex != null) {
+                mUriIndex.clear();
+            }
+            mCachedCount = 0;
+            mCachedSizeInBytes = 0;
+            for (int i = 0; i < oldEntries.size(); i++) {
+                descheduleExpiry(oldEntries.get(i));
+                mEvictionPolicy.onRemoved(oldEntries.get(i));
+            }
             makeOrphans(oldEntries);
+            publishToSharedBudget();
         }
         maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
         maybeNotifyExclusiveEntryRemoval(oldExclusives);
         maybeUpdateCacheParams();
     }
@@ -386,8 +1928,66 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * @return true is any items matches from the cache
      */
     @Override
-    public synchronized boolean contains(Predicate<K> predicate) {
-        return !mCachedEntries.getMatchingEntries(predicate).isEmpty();
+    public boolean contains(Predicate<K> predicate) {
+        // 索引可以不持有锁读取，找到第一个匹配的条目就返回
+        // The index can be read without the lock; stop at the first match.
+        for (K key : mEntryIndex.keySet()) {
+            if (predicate.apply(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查找给定key的条目是否存在，不获取锁，也不算作一次访问
+     * Returns whether an item with the given key is cached, without taking the lock and without
+     * counting as an access.
+     */
+    @Override
+    public boolean containsKey(final K key) {
+        Preconditions.checkNotNull(key);
+        return mEntryIndex.containsKey(key);
+    }
+
+    /**
+     * 查找是否有由给定URI构建的条目，不获取锁。和{@link #removeAllWithUri}一样，打开URI索引时只检查索引中这个URI下的条目，
+     * 否则遍历所有的key，找到第一个匹配的就返回
+     * Returns whether an item whose key is a {@link CacheKey} built from the given URI is cached,
+     * without taking the lock. As with {@link #removeAllWithUri}, only the keys indexed under the
+     * URI are looked at when the URI index is enabled, so the cost is proportional to their
+     * number; otherwise the keys are scanned up to the first match.
+     */
+    public boolean containsUri(final Uri uri) {
+        Preconditions.checkNotNull(uri);
+        if (mUriIndex != null) {
+            return mUriIndex.containsUri(uri);
+        }
+        for (K key : mEntryIndex.keySet()) {
+            if (key instanceof CacheKey && ((CacheKey) key).containsUri(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 返回可能由给定URI构建的条目：打开URI索引时是索引中的条目，否则是键为CacheKey并且包含这个URI的所有条目
+     * Returns the entries whose key may be built from the given URI: the entries indexed under
+     * the URI with the URI index, or else every entry whose key is a {@link CacheKey} that
+     * contains the URI.
+     */
+    private synchronized ArrayList<Entry<K, V>> getEntriesWithUri(Uri uri) {
+        if (mUriIndex != null) {
+            return mUriIndex.get(uri.toString());
+        }
+        ArrayList<Entry<K, V>> entries = new ArrayList<>();
+        for (Entry<K, V> entry : mEntryIndex.values()) {
+            if (entry.key instanceof CacheKey && ((CacheKey) entry.key).containsUri(uri)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
     }
 
     /**
@@ -395,82 +1995,474 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
      * Trims the cache according to the specified trimming strategy and the given trim type. */
     @Override
     public void trim(MemoryTrimType trimType) {
-        ArrayList<Entry<K, V>> oldEntries;
         final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
-        synchronized (this) {
-            int targetCacheSize = (int) (mCachedEntries.getSizeInBytes() * (1 - trimRatio));
-            int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
-            oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
-            makeOrphans(oldEntries);
-        }
-        maybeClose(oldEntries);
-        maybeNotifyExclusiveEntryRemoval(oldEntries);
+        long targetCacheSize = -1;
+        boolean overConstraints;
+        do {
+            ArrayList<Entry<K, V>> drainedExclusives;
+            ArrayList<Entry<K, V>> oldEntries;
+            synchronized (this) {
+                drainedExclusives = drainReadBuffer();
+                if (targetCacheSize < 0) {
+                    targetCacheSize = (long) (mCachedSizeInBytes * (1 - trimRatio));
+                }
+                long targetEvictionQueueSize =
+                        Math.max(0, targetCacheSize - getInUseSizeInBytesLocked());
+                oldEntries =
+                        trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
+                overConstraints =
+                        isOverConstraints(Integer.MAX_VALUE, targetEvictionQueueSize);
+                publishToSharedBudget();
+            }
+            // 每一片驱逐的条目在释放锁之后马上关闭，不等到全部驱逐完
+            // The entries of each slice are closed as soon as the lock is released.
+            maybeClose(oldEntries);
+            maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+            maybeNotifyExclusiveEntryRemoval(oldEntries);
+        } while (overConstraints);
         maybeUpdateCacheParams();
         maybeEvictEntries();
     }
 
     /**
-     * 根据给定的时间去修改更新缓存配置
+     * 根据给定的时间去修改更新缓存配置，只有在需要更新的时候才获取锁
      * Updates the cache params (constraints) if enough time has passed since the last update.
+     * The lock is only taken when an update is due.
+     *
+     * @return true if the params were updated
      */
-    private synchronized void maybeUpdateCacheParams() {
-        if (mLastCacheParamsCheck + PARAMS_INTERCHECK_INTERVAL_MS > SystemClock.uptimeMillis()) {
-            return;
+    private boolean maybeUpdateCacheParams() {
+        if (!isCacheParamsCheckDue()) {
+            return false;
+        }
+        synchronized (this) {
+            if (!isCacheParamsCheckDue()) {
+                return false;
+            }
+            updateCacheParams();
+            return true;
+        }
+    }
+
+    /**
+     * 立即重新读取缓存配置，不等到下一次检查的时间，新的约束变小时驱逐放不下的条目
+     * Reads the cache params again right away rather than at the next check, and evicts what no
+     * longer fits, e.g. once an {@link AdaptiveMemoryCacheParamsSupplier} has changed its scale.
+     */
+    public void refreshCacheParams() {
+        synchronized (this) {
+            updateCacheParams();
         }
+        maybeEvictEntries();
+    }
+
+    @GuardedBy("this")
+    private void updateCacheParams() {
         mLastCacheParamsCheck = SystemClock.uptimeMillis();
         mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        mEvictionPolicy.setParams(mMemoryCacheParams);
+    }
+
+    private boolean isCacheParamsCheckDue() {
+        return mLastCacheParamsCheck + PARAMS_INTERCHECK_INTERVAL_MS <= SystemClock.uptimeMillis();
     }
 
     /**
-     * 销毁条目直至目前的缓存满足约束，这里删除的是mExclusiveEntries中的条目，
-     * 因为其用的是LinkedHashMap，所以只要按顺序删除，那么就是按LRU算法删除
+     * 销毁条目直至目前的缓存满足约束，这里删除的是待销毁队列中的条目，按照驱逐策略选出的顺序删除，
      * 而且一般情况下没有使用的条目比正在使用的条目多许多。
      * Removes the exclusively owned items until the cache constraints are met.
      *
+     * 如果有共享计数器，那么约束是针对总和的，本cache只从自己的待销毁队列中删除超出的部分
+     * <p> With a shared budget the constraints apply to the total, and this cache removes the
+     * overflow from its own exclusively owned items only.
+     *
+     * 如果有维护线程池，驱逐会在线程池中执行
+     * <p> With a maintenance executor, the eviction pass is scheduled on it instead.
+     *
      * <p> This method invokes the external {@link CloseableReference#close} method,
      * so it must not be called while holding the <code>this</code> lock.
      */
-    private void maybeEvictEntries() {
+    void maybeEvictEntries() {
+        if (mMaintenanceExecutor != null) {
+            scheduleMaintenance();
+        } else {
+            evictEntries();
+        }
+    }
+
+    /**
+     * The eviction pass itself, see {@link #maybeEvictEntries}. With slices set by
+     * {@link #setTrimSlice}, the lock is released after every slice.
+     */
+    private void evictEntries() {
+        boolean firstSlice = true;
+        boolean overConstraints;
+        do {
+            overConstraints = evictSlice(firstSlice);
+            firstSlice = false;
+        } while (overConstraints);
+    }
+
+    /**
+     * 驱逐一片条目，第一片还会回收过期的条目
+     * Evicts a slice of entries, and the expired entries along with the first slice.
+     *
+     * @return true if more entries are left to evict
+     */
+    private boolean evictSlice(boolean firstSlice) {
+        ArrayList<Entry<K, V>> drainedExclusives;
+        ArrayList<Entry<K, V>> expiredEntries = null;
+        ArrayList<Entry<K, V>> expiredExclusives = null;
         ArrayList<Entry<K, V>> oldEntries;
+        boolean overConstraints;
         synchronized (this) {
-            int maxCount = Math.min(
-                    mMemoryCacheParams.maxEvictionQueueEntries,
-                    mMemoryCacheParams.maxCacheEntries - getInUseCount());
-            int maxSize = Math.min(
-                    mMemoryCacheParams.maxEvictionQueueSize,
-                    mMemoryCacheParams.maxCacheSize - getInUseSizeInBytes());
+            drainedExclusives = drainReadBuffer();
+            // 先回收过期的条目，这样可能就不需要驱逐没有过期的条目了
+            // Expired entries go first, which may leave nothing else to evict.
+            if (firstSlice && mTimerWheel != null) {
+                long now = SystemClock.uptimeMillis();
+                mTimerWheel.advance(now, mExpiredEntries);
+                if (!mExpiredEntries.isEmpty()) {
+                    expiredEntries = new ArrayList<>();
+                    expiredExclusives = new ArrayList<>();
+                    expireEntries(now, expiredEntries, expiredExclusives);
+                }
+            }
+            int maxCount;
+            long maxSize;
+            if (mSharedBudget != null) {
+                maxCount = getExclusiveCount()
+                        - mSharedBudget.getEvictionQueueCountOverflow(mMemoryCacheParams);
+                maxSize = getExclusiveSizeInBytes()
+                        - mSharedBudget.getEvictionQueueSizeOverflow(mMemoryCacheParams);
+            } else {
+                maxCount = Math.min(
+                        mMemoryCacheParams.maxEvictionQueueEntries,
+                        mMemoryCacheParams.maxCacheEntries
+                                - (mCachedCount - getExclusiveCount()));
+                maxSize = Math.min(
+                        mMemoryCacheParams.maxEvictionQueueSize,
+                        mMemoryCacheParams.maxCacheSize - getInUseSizeInBytesLocked());
+            }
             oldEntries = trimExclusivelyOwnedEntries(maxCount, maxSize);
-            makeOrphans(oldEntries);
+            overConstraints = isOverConstraints(maxCount, maxSize);
+            publishToSharedBudget();
         }
+        maybeClose(expiredEntries);
         maybeClose(oldEntries);
+        maybeNotifyExclusiveEntryRemoval(drainedExclusives);
+        maybeNotifyExclusiveEntryRemoval(expiredExclusives);
         maybeNotifyExclusiveEntryRemoval(oldEntries);
+        return overConstraints;
+    }
+
+    /**
+     * 删除时间轮找出的到期条目并标记为orphan。条目在被放入时间轮之后可能又被访问过，这种条目会按照新的过期时间重新放入。
+     * Removes the entries found due by the timer wheel and marks them as orphans. An entry may
+     * have been accessed since it was scheduled; such an entry is scheduled again at its new
+     * expiration time.
+     *
+     * @param expiredEntries receives the removed entries
+     * @param expiredExclusives receives the removed entries that were exclusively owned
+     */
+    private synchronized void expireEntries(
+            long now,
+            ArrayList<Entry<K, V>> expiredEntries,
+            ArrayList<Entry<K, V>> expiredExclusives) {
+        for (int i = 0; i < mExpiredEntries.size(); i++) {
+            TimedEntry<K, V> entry = mExpiredEntries.get(i);
+            long expirationTime = entry.getExpirationTime();
+            if (expirationTime > now) {
+                mTimerWheel.schedule(entry, expirationTime);
+                continue;
+            }
+            if (removeExclusive(entry)) {
+                expiredExclusives.add(entry);
+            }
+            // 时间轮中只有仍然被缓存的条目，因为删除条目的时候会将它从时间轮中删除
+            // Only cached entries are in the wheel, since removing an entry deschedules it.
+            removeCachedEntry(entry.key);
+            makeOrphan(entry);
+            expiredEntries.add(entry);
+        }
+        mExpiredEntries.clear();
     }
 
     /**
-     * 削减内存缓存的具体方法，按顺序从mExclusiveEntries中删除条目，直至符合限制
+     * 削减内存缓存的具体方法，按驱逐策略选出的顺序从待销毁队列中删除条目并标记为orphan，直至符合限制。
+     * 刚刚被不持有锁的get()引用的条目不会被删除，只是离开待销毁队列。
      * Removes the exclusively owned items until there is at most <code>count</code> of them
-     * and they occupy no more than <code>size</code> bytes.
+     * and they occupy no more than <code>size</code> bytes, and marks them as orphans.
+     *
+     * <p> An entry that a lock-free get() has just acquired is not evicted; it only leaves the
+     * eviction queue, and is returned as well so that its observer is notified.
+     *
+     * 设置了分片时，删除的条目数或者花费的时间到达一片的上限就返回，即使还没有符合限制
+     * <p> With slices set by {@link #setTrimSlice}, this method returns once it has removed a
+     * slice worth of items, within constraints or not; see {@link #isOverConstraints}.
      *
      * <p> This method returns the removed items instead of actually closing them, so it is safe to
      * be called while holding the <code>this</code> lock.
      */
     @Nullable
-    private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
+    private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, long size) {
         count = Math.max(count, 0);
         size = Math.max(size, 0);
         // fast path without array allocation if no eviction is necessary
-        if (mExclusiveEntries.getCount() <= count && mExclusiveEntries.getSizeInBytes() <= size) {
+        if (getExclusiveCount() <= count && getExclusiveSizeInBytes() <= size) {
+            mEvictionPolicy.onWithinConstraints();
             return null;
         }
+        int maxSliceEntries = mMaxSliceEntries;
+        long maxSliceNanos = mMaxSliceNanos;
+        long sliceStart = maxSliceNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
         ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
-        while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
-            K key = mExclusiveEntries.getFirstKey();
-            mExclusiveEntries.remove(key);
-            oldEntries.add(mCachedEntries.remove(key));
+        while (getExclusiveCount() > count || getExclusiveSizeInBytes() > size) {
+            Entry<K, V> entry = mEvictionPolicy.selectVictim();
+            if (entry.tryMarkExclusiveOrphan()) {
+                removeCachedEntry(entry.key);
+                mEvictionPolicy.onEvicted(entry);
+            }
+            oldEntries.add(entry);
+            // 每一片至少删除一个条目，这样总能向前推进
+            // Every slice removes at least one item, so that the trim always makes progress.
+            if (oldEntries.size() >= maxSliceEntries
+                    || (maxSliceNanos != Long.MAX_VALUE
+                            && System.nanoTime() - sliceStart >= maxSliceNanos)) {
+                break;
+            }
         }
         return oldEntries;
     }
 
+    /**
+     * 一片驱逐结束之后，是否还有超出限制的条目
+     * Whether more exclusively owned items are left than allowed, once a slice is over.
+     */
+    private synchronized boolean isOverConstraints(int count, long size) {
+        return getExclusiveCount() > Math.max(count, 0)
+                || getExclusiveSizeInBytes() > Math.max(size, 0);
+    }
+
+    /**
+     * 设置分片驱逐：每一片最多驱逐maxEntries个条目，最多花费maxDurationUs微秒，片与片之间释放锁，
+     * 其他线程可以在这期间获取锁，上一片驱逐的条目也在这期间被关闭。
+     * Has trim() and the eviction passes evict in slices of at most the given number of entries
+     * and the given duration. The lock is released between two slices, so that other threads get
+     * a turn, and the entries of a slice are closed before the next slice starts. By default,
+     * every pass evicts in a single slice.
+     *
+     * @param maxEntries the most entries evicted per slice, or Integer.MAX_VALUE for no limit
+     * @param maxDurationUs the longest a slice runs, in microseconds, or Long.MAX_VALUE for no
+     * limit
+     */
+    public void setTrimSlice(int maxEntries, long maxDurationUs) {
+        Preconditions.checkArgument(maxEntries > 0);
+        Preconditions.checkArgument(maxDurationUs > 0);
+        mMaxSliceEntries = maxEntries;
+        mMaxSliceNanos = maxDurationUs == Long.MAX_VALUE
+                ? Long.MAX_VALUE
+                : TimeUnit.MICROSECONDS.toNanos(maxDurationUs);
+    }
+
+    /** Removes the exclusively owned item with the given key, from the window or the main queue. */
+    @Nullable
+    private synchronized Entry<K, V> removeExclusive(K key) {
+        Entry<K, V> entry = mEntryIndex.get(key);
+        return (entry != null && removeExclusive(entry)) ? entry : null;
+    }
+
+    /**
+     * 如果条目在待销毁队列中就将它删除
+     * Removes the given entry from the eviction queue if it is there.
+     *
+     * @return true if the entry was removed
+     */
+    private synchronized boolean removeExclusive(Entry<K, V> entry) {
+        return mEvictionPolicy.removeExclusive(entry);
+    }
+
+    /** Gets the number of the exclusively owned items, in the window and in the main queue. */
+    private synchronized int getExclusiveCount() {
+        return mEvictionPolicy.getCount();
+    }
+
+    /** Gets the size of the exclusively owned items, in the window and in the main queue. */
+    private synchronized long getExclusiveSizeInBytes() {
+        return mEvictionPolicy.getSizeInBytes();
+    }
+
+    /**
+     * Adds the entry to the index, and schedules its expiry. The expiry is set before the entry
+     * is published to get().
+     */
+    private synchronized void putCachedEntry(K key, Entry<K, V> entry) {
+        scheduleExpiry(entry);
+        if (mRefreshPolicy != null) {
+            timed(entry).refreshTime = Entry.deadline(
+                    SystemClock.uptimeMillis(),
+                    mRefreshPolicy.getRefreshAfterWriteMs());
+        }
+        Entry<K, V> oldEntry = mEntryIndex.put(key, entry);
+        Preconditions.checkState(oldEntry == null);
+        mCachedCount++;
+        mCachedSizeInBytes += entry.sizeInBytes;
+        if (key instanceof CacheKey) {
+            indexUri(entry, ((CacheKey) key).getUriString());
+        }
+    }
+
+    /** Removes the entry from the index, deschedules its expiry and tells the eviction policy. */
+    @Nullable
+    private synchronized Entry<K, V> removeCachedEntry(K key) {
+        Entry<K, V> entry = mEntryIndex.remove(key);
+        if (entry != null) {
+            mCachedCount--;
+            mCachedSizeInBytes -= entry.sizeInBytes;
+            if (key instanceof CacheKey) {
+                unindexUri(entry, ((CacheKey) key).getUriString());
+            }
+            descheduleExpiry(entry);
+            mEvictionPolicy.onRemoved(entry);
+        }
+        return entry;
+    }
+
+    private synchronized void indexUri(Entry<K, V> entry, @Nullable String uriString) {
+        if (mUriIndex != null && uriString != null) {
+            mUriIndex.add(uriString, entry);
+        }
+    }
+
+    private synchronized void unindexUri(Entry<K, V> entry, @Nullable String uriString) {
+        if (mUriIndex != null && uriString != null) {
+            mUriIndex.remove(uriString, entry);
+        }
+    }
+
+    /**
+     * 根据ExpiryPolicy设置条目的过期时间，并放入时间轮
+     * Sets the expiry of a new entry from the expiry policy, and schedules it in the timer wheel.
+     */
+    private synchronized void scheduleExpiry(Entry<K, V> cachedEntry) {
+        if (mExpiryPolicy == null) {
+            return;
+        }
+        TimedEntry<K, V> entry = timed(cachedEntry);
+        long now = SystemClock.uptimeMillis();
+        V value = entry.valueRef.get();
+        long expireAfterWriteMs = mExpiryPolicy.getExpireAfterWriteMs(entry.key, value);
+        long expireAfterAccessMs = mExpiryPolicy.getExpireAfterAccessMs(entry.key, value);
+        Preconditions.checkState(expireAfterWriteMs >= 0 && expireAfterAccessMs >= 0);
+        entry.writeDeadline = Entry.deadline(now, expireAfterWriteMs);
+        entry.expireAfterAccessMs = expireAfterAccessMs;
+        entry.accessTime = now;
+        long expirationTime = entry.getExpirationTime();
+        if (expirationTime != ExpiryPolicy.NO_EXPIRY) {
+            mTimerWheel.schedule(entry, expirationTime);
+        }
+    }
+
+    private synchronized void descheduleExpiry(Entry<K, V> entry) {
+        if (mTimerWheel != null) {
+            mTimerWheel.deschedule(timed(entry));
+        }
+    }
+
+    /**
+     * 请求执行一次维护任务，如果已经有一次在等待执行，那么这次请求会合并到那一次中
+     * Requests a maintenance pass on the maintenance executor. If a pass is already pending, the
+     * request is collapsed into it; if a pass is running, another one runs after it.
+     */
+    private void scheduleMaintenance() {
+        for (;;) {
+            switch (mMaintenanceStatus.get()) {
+                case MAINTENANCE_IDLE:
+                    if (mMaintenanceStatus.compareAndSet(MAINTENANCE_IDLE, MAINTENANCE_REQUIRED)) {
+                        executeMaintenance();
+                        return;
+                    }
+                    break;
+                case MAINTENANCE_PROCESSING_TO_IDLE:
+                    if (mMaintenanceStatus.compareAndSet(
+                            MAINTENANCE_PROCESSING_TO_IDLE,
+                            MAINTENANCE_PROCESSING_TO_REQUIRED)) {
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void executeMaintenance() {
+        try {
+            mMaintenanceExecutor.execute(mMaintenanceTask);
+        } catch (RuntimeException e) {
+            // 线程池拒绝了任务，在当前线程执行，以免资源一直得不到释放
+            // The executor rejected the task: run it here, so that nothing is left unreleased.
+            runMaintenance();
+        }
+    }
+
+    /**
+     * 维护任务：执行一次驱逐，然后关闭所有等待关闭的引用，发出所有等待发出的通知。
+     * 一个引用关闭失败或者一个监听者抛出异常不会中断队列，第一个异常在整个任务结束后抛出；
+     * 无论如何都会把状态从PROCESSING中恢复，否则scheduleMaintenance()再也不会安排新的任务。
+     * The maintenance pass: evicts, then closes the pending references and sends the pending
+     * notifications. Runs again if more maintenance was requested in the meantime.
+     *
+     * <p> A close or a notification that throws does not hold up the rest of the queue: the first
+     * exception is rethrown once the pass is over. Whatever happens, the status leaves
+     * PROCESSING, so that later requests still schedule a pass.
+     */
+    private void runMaintenance() {
+        RuntimeException failure = null;
+        boolean completed = false;
+        try {
+            do {
+                mMaintenanceStatus.set(MAINTENANCE_PROCESSING_TO_IDLE);
+                try {
+                    evictEntries();
+                } catch (RuntimeException e) {
+                    failure = failure != null ? failure : e;
+                }
+                CloseableReference<V> ref;
+                while ((ref = mPendingCloses.poll()) != null) {
+                    try {
+                        ref.close();
+                    } catch (RuntimeException e) {
+                        failure = failure != null ? failure : e;
+                    }
+                }
+                PendingNotification<K> notification;
+                while ((notification = mPendingNotifications.poll()) != null) {
+                    try {
+                        notification.observer.onExclusivityChanged(
+                                notification.key,
+                                notification.isExclusive);
+                    } catch (RuntimeException e) {
+                        failure = failure != null ? failure : e;
+                    }
+                }
+            } while (!mMaintenanceStatus.compareAndSet(
+                    MAINTENANCE_PROCESSING_TO_IDLE,
+                    MAINTENANCE_IDLE));
+            completed = true;
+        } finally {
+            if (!completed) {
+                // 只有Error会走到这里，这时状态还是PROCESSING，交给下一次请求重新安排
+                // Only an Error gets here, with the status still PROCESSING: reset it, so that
+                // the next request schedules a pass for what is left.
+                mMaintenanceStatus.set(MAINTENANCE_IDLE);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * 关闭一系列CloseableReference引用
      * Notifies the client that the cache no longer tracks the given items.
@@ -481,10 +2473,27 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
         if (oldEntries != null) {
             for (Entry<K, V> oldEntry : oldEntries) {
-                CloseableReference.closeSafely(referenceToClose(oldEntry));
+                maybeClose(referenceToClose(oldEntry));
             }
         }
     }
+
+    /**
+     * 关闭引用，有维护线程池的时候交给维护任务去关闭
+     * Closes the reference, or hands it to the maintenance task if there is an executor.
+     */
+    private void maybeClose(@Nullable CloseableReference<V> ref) {
+        if (ref == null) {
+            return;
+        }
+        if (mMaintenanceExecutor != null) {
+            mPendingCloses.add(ref);
+            scheduleMaintenance();
+        } else {
+            ref.close();
+        }
+    }
+
     //通知一系列Entry可能发生状态变化
     private void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
         if (entries != null) {
@@ -494,16 +2503,50 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         }
     }
 
-    private static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
+    private void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
         if (entry != null && entry.observer != null) {
-            entry.observer.onExclusivityChanged(entry.key, false);
+            notifyExclusivityChanged(entry, false);
         }
     }
 
-    private static <K, V> void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
+    private void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
         if (entry != null && entry.observer != null) {
-            entry.observer.onExclusivityChanged(entry.key, true);
+            notifyExclusivityChanged(entry, true);
+        }
+    }
+
+    private void notifyExclusivityChanged(Entry<K, V> entry, boolean isExclusive) {
+        if (mMaintenanceExecutor != null) {
+            mPendingNotifications.add(
+                    new PendingNotification<>(entry.observer, entry.key, isExclusive));
+            scheduleMaintenance();
+        } else {
+            entry.observer.onExclusivityChanged(entry.key, isExclusive);
+        }
+    }
+
+    /**
+     * 将本cache的计数器变化发布到共享计数器中，需要在每次修改条目之后调用
+     * Publishes the changes of this cache's counters to the shared budget. Must be called after
+     * the entries are modified, before the lock is released.
+     */
+    private synchronized void publishToSharedBudget() {
+        if (mSharedBudget == null) {
+            return;
         }
+        int count = mCachedCount;
+        long sizeInBytes = mCachedSizeInBytes;
+        int evictionQueueCount = getExclusiveCount();
+        long evictionQueueSizeInBytes = getExclusiveSizeInBytes();
+        mSharedBudget.update(
+                count - mPublishedCount,
+                sizeInBytes - mPublishedSizeInBytes,
+                evictionQueueCount - mPublishedEvictionQueueCount,
+                evictionQueueSizeInBytes - mPublishedEvictionQueueSizeInBytes);
+        mPublishedCount = count;
+        mPublishedSizeInBytes = sizeInBytes;
+        mPublishedEvictionQueueCount = evictionQueueCount;
+        mPublishedEvictionQueueSizeInBytes = evictionQueueSizeInBytes;
     }
 
     /** Marks the given entries as orphans. */
@@ -518,58 +2561,76 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     /** Marks the entry as orphan. */
     private synchronized void makeOrphan(Entry<K, V> entry) {
         Preconditions.checkNotNull(entry);
-        Preconditions.checkState(!entry.isOrphan);
-        entry.isOrphan = true;
+        entry.markOrphan();
     }
 
     /** Increases the entry's client count. */
     private synchronized void increaseClientCount(Entry<K, V> entry) {
         Preconditions.checkNotNull(entry);
-        Preconditions.checkState(!entry.isOrphan);
-        entry.clientCount++;
+        // Entries only become orphans under the lock, so this cannot fail here.
+        Preconditions.checkState(entry.tryIncreaseClientCount() >= 0);
     }
 
     /** Decreases the entry's client count. */
     private synchronized void decreaseClientCount(Entry<K, V> entry) {
         Preconditions.checkNotNull(entry);
-        Preconditions.checkState(entry.clientCount > 0);
-        entry.clientCount--;
+        entry.decreaseClientCount();
     }
 
     /** Returns the value reference of the entry if it should be closed, null otherwise. */
     @Nullable
     private synchronized CloseableReference<V> referenceToClose(Entry<K, V> entry) {
         Preconditions.checkNotNull(entry);
-        return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
+        return (entry.isOrphan() && entry.getClientCount() == 0) ? entry.valueRef : null;
     }
 
     /** Gets the total number of all currently cached items. */
     public synchronized int getCount() {
-        return mCachedEntries.getCount();
+        return mCachedCount;
     }
 
     /** Gets the total size in bytes of all currently cached items. */
-    public synchronized int getSizeInBytes() {
-        return mCachedEntries.getSizeInBytes();
+    public synchronized long getSizeInBytes() {
+        return mCachedSizeInBytes;
     }
 
     /** Gets the number of the cached items that are used by at least one client. */
-    public synchronized int getInUseCount() {
-        return mCachedEntries.getCount() - mExclusiveEntries.getCount();
+    public int getInUseCount() {
+        drainReadBufferAndNotify();
+        synchronized (this) {
+            return mCachedCount - getExclusiveCount();
+        }
     }
 
     /** Gets the total size in bytes of the cached items that are used by at least one client. */
-    public synchronized int getInUseSizeInBytes() {
-        return mCachedEntries.getSizeInBytes() - mExclusiveEntries.getSizeInBytes();
+    public long getInUseSizeInBytes() {
+        drainReadBufferAndNotify();
+        return getInUseSizeInBytesLocked();
+    }
+
+    private synchronized long getInUseSizeInBytesLocked() {
+        return mCachedSizeInBytes - getExclusiveSizeInBytes();
     }
 
     /** Gets the number of the exclusively owned items. */
-    public synchronized int getEvictionQueueCount() {
-        return mExclusiveEntries.getCount();
+    public int getEvictionQueueCount() {
+        drainReadBufferAndNotify();
+        return getExclusiveCount();
     }
 
     /** Gets the total size in bytes of the exclusively owned items. */
-    public synchronized int getEvictionQueueSizeInBytes() {
-        return mExclusiveEntries.getSizeInBytes();
+    public long getEvictionQueueSizeInBytes() {
+        drainReadBufferAndNotify();
+        return getExclusiveSizeInBytes();
+    }
+
+    /** Gets the number of lookups by get() and getAll() that found their item. */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Gets the number of lookups by get() and getAll() that did not find their item. */
+    public long getMissCount() {
+        return mMissCount.get();
     }
 }
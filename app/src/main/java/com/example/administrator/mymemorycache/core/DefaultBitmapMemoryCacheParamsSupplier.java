@@ -36,9 +36,8 @@ public class DefaultBitmapMemoryCacheParamsSupplier implements Supplier<MemoryCa
                 MAX_CACHE_ENTRY_SIZE);
     }
 
-    private int getMaxCacheSize() {
-        final int maxMemory =
-                Math.min(mActivityManager.getMemoryClass() * ByteConstants.MB, Integer.MAX_VALUE);
+    private long getMaxCacheSize() {
+        final long maxMemory = (long) mActivityManager.getMemoryClass() * ByteConstants.MB;
         if (maxMemory < 32 * ByteConstants.MB) {
             return 4 * ByteConstants.MB;
         } else if (maxMemory < 64 * ByteConstants.MB) {
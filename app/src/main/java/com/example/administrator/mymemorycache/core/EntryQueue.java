@@ -0,0 +1,128 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：待销毁队列，按照加入的顺序排列条目并记录数量和大小。它不使用LinkedHashMap，
+ * 而是用条目自身的前后指针串成一个双向链表。条目本来就已经在cache的索引中了，所以加入和删除条目只需要修改几个指针，
+ * 不需要再计算一次hash，也不需要为每个条目再分配一个LinkedHashMap的节点。
+ *
+ * The eviction queue of {@link CountingMemoryCache}: it keeps the entries in insertion order and
+ * tracks their count and size. Rather than a LinkedHashMap, it is a doubly-linked list threaded
+ * through the entries themselves. The cache already indexes the entries by key, so
+ * adding or removing an entry is a pointer splice, with no hashing and no node allocated per
+ * entry.
+ *
+ * <p> An entry is in at most one queue at a time, which it records, so that it can be removed
+ * without knowing which queue holds it. The size of an entry is the one recorded when the entry
+ * was created, so the value descriptor is not called again.
+ *
+ * <p> The queue is not thread safe: {@link CountingMemoryCache} only uses it under its lock.
+ */
+@NotThreadSafe
+final class EntryQueue<K, V> {
+
+    @Nullable
+    private Entry<K, V> mHead;
+    @Nullable
+    private Entry<K, V> mTail;
+    private int mCount;
+    private long mSizeInBytes;
+
+    /** Gets the count of the entries in the queue. */
+    int getCount() {
+        return mCount;
+    }
+
+    /** Gets the total size in bytes of the entries in the queue. */
+    long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    /** Gets the oldest entry of the queue. */
+    @Nullable
+    Entry<K, V> peekFirst() {
+        return mHead;
+    }
+
+    /** Adds the entry at the end of the queue. The entry must not be in any queue. */
+    void addLast(Entry<K, V> entry) {
+        Preconditions.checkState(entry.queue == null);
+        entry.queue = this;
+        entry.queuePrev = mTail;
+        entry.queueNext = null;
+        if (mTail != null) {
+            mTail.queueNext = entry;
+        } else {
+            mHead = entry;
+        }
+        mTail = entry;
+        mCount++;
+        mSizeInBytes += entry.sizeInBytes;
+    }
+
+    /**
+     * 如果条目在这个队列中，就将它删除
+     * Removes the entry from the queue.
+     *
+     * @return false if the entry is not in this queue
+     */
+    boolean remove(Entry<K, V> entry) {
+        if (entry.queue != this) {
+            return false;
+        }
+        if (entry.queuePrev != null) {
+            entry.queuePrev.queueNext = entry.queueNext;
+        } else {
+            mHead = entry.queueNext;
+        }
+        if (entry.queueNext != null) {
+            entry.queueNext.queuePrev = entry.queuePrev;
+        } else {
+            mTail = entry.queuePrev;
+        }
+        entry.queue = null;
+        entry.queuePrev = null;
+        entry.queueNext = null;
+        mCount--;
+        mSizeInBytes -= entry.sizeInBytes;
+        return true;
+    }
+
+    /** Removes the oldest entry of the queue and returns it. */
+    @Nullable
+    Entry<K, V> pollFirst() {
+        Entry<K, V> entry = mHead;
+        if (entry != null) {
+            remove(entry);
+        }
+        return entry;
+    }
+
+    /** Removes all the entries whose key matches the predicate, oldest first. */
+    ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        Entry<K, V> entry = mHead;
+        while (entry != null) {
+            Entry<K, V> next = entry.queueNext;
+            if (predicate == null || predicate.apply(entry.key)) {
+                remove(entry);
+                oldEntries.add(entry);
+            }
+            entry = next;
+        }
+        return oldEntries;
+    }
+
+    /** Removes all the entries, oldest first. */
+    ArrayList<Entry<K, V>> clear() {
+        return removeAll(null);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+
+/**
+ * 我的理解：驱逐策略，管理CountingMemoryCache的待销毁队列。cache在条目被加入、被访问、进入和离开待销毁队列的时候
+ * 通知策略，需要驱逐的时候由策略选出被驱逐的条目。策略只管理没有客户端引用的条目，正在被使用的条目不会被驱逐。
+ *
+ * The eviction policy of a {@link CountingMemoryCache}: it owns the eviction queue, the entries
+ * that no client uses, and picks the entry to evict when the cache is over its constraints. The
+ * cache tells the policy when an entry is added, accessed, enters or leaves the eviction queue,
+ * and is evicted.
+ *
+ * <p> The entries in use are never in the queue: an entry leaves it when a client acquires it
+ * and enters it again when its last client releases it. A policy that orders the entries by
+ * their history rather than by release time does so through the callbacks below, and may keep
+ * its state in {@link Entry#policyState}.
+ *
+ * <p> All the methods are called while holding the lock of the cache, so implementations need
+ * not be thread safe. Each cache needs its own instance, see {@link EvictionPolicyType}.
+ */
+interface EvictionPolicy<K, V> {
+
+    /** Called with the current constraints when the cache is created and when they change. */
+    void setParams(MemoryCacheParams params);
+
+    /**
+     * 是否需要知道每一次命中。返回false时，cache只报告使条目离开待销毁队列的命中
+     * Whether every hit must be reported to {@link #onAccess}. When false, only the hits taking
+     * an entry out of the eviction queue are, and some may be missed.
+     */
+    boolean recordsAccesses();
+
+    /** Called when a new entry is added to the cache, before it enters the eviction queue. */
+    void onAdmitted(Entry<K, V> entry);
+
+    /**
+     * 刷新的值替换了旧的条目，新条目继承旧条目的状态
+     * Called instead of {@link #onAdmitted} when a refreshed value replaces an entry, so that
+     * the new entry can inherit the state of the old one.
+     */
+    void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry);
+
+    /**
+     * 条目被命中了，这时它可能在待销毁队列中，也可能正在被使用
+     * Called when the entry is hit. The entry may still be in the eviction queue, or may already
+     * have left the cache if the hit is reported late.
+     */
+    void onAccess(Entry<K, V> entry);
+
+    /** Adds the entry to the eviction queue. The entry must not be in it already. */
+    void onExclusive(Entry<K, V> entry);
+
+    /**
+     * 将条目从待销毁队列中删除，比如它被客户端引用了或者被删除了
+     * Removes the entry from the eviction queue, because a client acquired it or because it is
+     * removed from the cache.
+     *
+     * @return false if the entry is not in the eviction queue
+     */
+    boolean removeExclusive(Entry<K, V> entry);
+
+    /** Returns the entry {@link #selectVictim} would remove, without removing it. */
+    @Nullable
+    Entry<K, V> peekVictim();
+
+    /**
+     * 选出下一个要驱逐的条目并从待销毁队列中删除
+     * Removes the next entry to evict from the eviction queue and returns it, or null if the queue
+     * is empty.
+     *
+     * <p> The cache may then keep the entry anyway, if a lock-free get() has just acquired it; it
+     * calls {@link #onEvicted} only for the entries actually evicted.
+     */
+    @Nullable
+    Entry<K, V> selectVictim();
+
+    /** Called when an entry returned by {@link #selectVictim} has been evicted. */
+    void onEvicted(Entry<K, V> entry);
+
+    /**
+     * 条目离开了cache，不管是被驱逐、删除还是替换。条目可能正在被使用
+     * Called when the entry leaves the cache, whatever the reason. The entry may still be in use,
+     * and has left the eviction queue already if it was in it.
+     */
+    void onRemoved(Entry<K, V> entry);
+
+    /** Called when an eviction pass finds the cache within its constraints. */
+    void onWithinConstraints();
+
+    /** Removes the entries whose key matches the predicate from the eviction queue, or all of them. */
+    ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate);
+
+    /** Gets the count of the entries in the eviction queue. */
+    int getCount();
+
+    /** Gets the total size in bytes of the entries in the eviction queue. */
+    long getSizeInBytes();
+}
@@ -0,0 +1,88 @@
+package com.example.administrator.mymemorycache.core;
+
+/**
+ * 我的理解：选择CountingMemoryCache驱逐没有被使用的条目的策略。LRU适合只有最近的条目会被再次访问的负载，
+ * 其他的策略在反复浏览的列表中夹杂着一次性的扫描时效果更好，因为一次性的条目不会把反复使用的条目挤出缓存。
+ *
+ * Selects how a {@link CountingMemoryCache} picks the unused entries to evict. LRU suits
+ * workloads where only the recent entries are accessed again. The other policies do better when
+ * repeatedly viewed content is mixed with one-off scans, since the entries used once no longer
+ * flush those used repeatedly.
+ */
+public enum EvictionPolicyType {
+
+    /** Evicts the entry released the longest time ago. */
+    LRU,
+
+    /**
+     * 分段LRU，被命中过的条目受到保护
+     * Segmented LRU: the entries hit since they were cached are protected, and the others are
+     * evicted first.
+     */
+    SEGMENTED_LRU,
+
+    /**
+     * 2Q，只有被驱逐之后很快又被缓存的key才进入主队列
+     * 2Q: only the keys cached again shortly after they were evicted enter the main queue, so the
+     * entries used once are evicted first.
+     */
+    TWO_QUEUE,
+
+    /**
+     * ARC，根据负载自己调整最近和频繁使用的条目所占的比例
+     * Adaptive Replacement Cache: balances the entries used once and those hit again, adapting to
+     * the workload.
+     */
+    ADAPTIVE_REPLACEMENT,
+
+    /**
+     * CLOCK，命中只设置引用位，驱逐时指针扫过所有条目
+     * CLOCK: a hit only sets a reference bit, and a hand sweeps the entries at eviction time,
+     * giving a second chance to those referenced. Close to LRU, with hits that write no links.
+     */
+    CLOCK,
+
+    /**
+     * CLOCK-Pro，在CLOCK的基础上区分冷热条目，只驱逐冷条目
+     * CLOCK-Pro: CLOCK with hot and cold entries, where only the cold ones are evicted and the
+     * share of each adapts to the workload, so that scans do not flush the hot entries.
+     */
+    CLOCK_PRO,
+
+    /**
+     * GreedyDual-Size-Frequency，按照 命中次数 * 重新获取的代价 / 大小 保留条目
+     * GreedyDual-Size-Frequency: keeps the entries that save the most recompute time per byte,
+     * weighing the cost hint given to cache() and the hits against the size of the value, while
+     * aging out the entries left unused.
+     */
+    GREEDY_DUAL,
+
+    /**
+     * 采样LRU，驱逐随机采样的几个条目中最旧的一个，不维护链表
+     * Sampled LRU: evicts the oldest of a few entries sampled at random, as Redis does. Keeps no
+     * list in order, for less memory per entry and no link writes, at a slightly lower hit ratio.
+     */
+    SAMPLED_LRU;
+
+    /** Creates a new instance of the policy, for a single cache. */
+    <K, V> EvictionPolicy<K, V> newPolicy() {
+        switch (this) {
+            case SEGMENTED_LRU:
+                return new SegmentedLruEvictionPolicy<K, V>();
+            case TWO_QUEUE:
+                return new TwoQueueEvictionPolicy<K, V>();
+            case ADAPTIVE_REPLACEMENT:
+                return new AdaptiveReplacementEvictionPolicy<K, V>();
+            case CLOCK:
+                return new ClockEvictionPolicy<K, V>();
+            case CLOCK_PRO:
+                return new ClockProEvictionPolicy<K, V>();
+            case GREEDY_DUAL:
+                return new GreedyDualEvictionPolicy<K, V>();
+            case SAMPLED_LRU:
+                return new SampledLruEvictionPolicy<K, V>();
+            default:
+                return new LruEvictionPolicy<K, V>();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.administrator.mymemorycache.core;
+
+/**
+ * 决定每个条目的过期时间，条目被缓存的时候调用
+ * Interface used to specify how long each entry of a {@link CountingMemoryCache} may stay in the
+ * cache. It is called once, when the entry is cached, while holding the cache lock.
+ *
+ * <p> An expired entry is removed from the cache. If clients still use it, it becomes an orphan,
+ * and its value is closed once the last client closes its reference.
+ */
+public interface ExpiryPolicy<K, V> {
+
+    // 表示永不过期
+    long NO_EXPIRY = Long.MAX_VALUE;
+
+    /**
+     * 从被缓存开始算起的存活时间
+     * Returns how long the entry may stay in the cache after it was cached, in milliseconds, or
+     * {@link #NO_EXPIRY}.
+     */
+    long getExpireAfterWriteMs(K key, V value);
+
+    /**
+     * 从最后一次被访问开始算起的存活时间
+     * Returns how long the entry may stay in the cache after it was last accessed, in
+     * milliseconds, or {@link #NO_EXPIRY}.
+     */
+    long getExpireAfterAccessMs(K key, V value);
+}
@@ -0,0 +1,142 @@
+package com.example.administrator.mymemorycache.core;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：一个估计key访问频率的Count-Min Sketch。每个计数器只有4位，16个计数器挤在一个long中，
+ * 每个key通过4个不同的hash函数对应4个计数器，估计值取其中的最小值，所以只会高估不会低估。
+ * 每记录一定次数的访问之后，所有计数器减半，这样很久以前流行的key的频率会慢慢衰减。
+ *
+ * A Count-Min sketch estimating how often the keys are accessed, used by the TinyLFU admission
+ * policy of {@link CountingMemoryCache}. Each key maps to four 4-bit counters, sixteen of which
+ * are packed in a long; the estimate is the minimum of the four, so it may overestimate but never
+ * underestimates.
+ *
+ * <p> Once the number of recorded accesses reaches ten times the capacity, all the counters are
+ * halved ("aging"), so that keys that were popular a long time ago fade away.
+ *
+ * <p> The sketch is not thread safe: {@link CountingMemoryCache} only uses it under its lock.
+ */
+@NotThreadSafe
+final class FrequencySketch<E> {
+
+    // 每个hash函数使用的种子
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L,
+    };
+    // 减半之后清除每个计数器从高一位计数器移进来的最高位
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    private static final int MIN_CAPACITY = 16;
+    // 最多16K个long，也就是128KB。分段缓存的每个分段都有自己的计数器，而图片缓存很少有这么多条目
+    // At most 16K longs, that is 128KB: every segment of a segmented cache has its own sketch, and
+    // image caches rarely hold that many entries.
+    private static final int MAX_CAPACITY = 1 << 14;
+
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    /**
+     * @param capacity the expected number of distinct keys worth tracking, usually the number of
+     *                 entries the eviction queue can hold
+     */
+    FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * 如果容量变大了，就重新分配计数器，之前记录的频率会丢失
+     * Grows the sketch if the given capacity is larger than the current one. The recorded
+     * frequencies are lost when the sketch grows.
+     */
+    void ensureCapacity(int capacity) {
+        int maximum = Math.min(Math.max(capacity, MIN_CAPACITY), MAX_CAPACITY);
+        if (mTable != null && mTable.length >= maximum) {
+            return;
+        }
+        int length = 1;
+        while (length < maximum) {
+            length <<= 1;
+        }
+        mTable = new long[length];
+        mTableMask = length - 1;
+        mSampleSize = 10 * maximum;
+        mSize = 0;
+    }
+
+    /**
+     * 返回估计的访问频率，最大为15
+     * Returns the estimated number of accesses of the element, at most 15.
+     */
+    int frequency(E e) {
+        int hash = spread(e.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = hashAt(hash, i);
+            int count = (int) ((mTable[indexOf(h)] >>> offsetOf(h)) & MAX_COUNT);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问，访问次数达到阈值时所有计数器减半
+     * Records an access of the element, aging all the counters when the sample size is reached.
+     */
+    void increment(E e) {
+        int hash = spread(e.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = hashAt(hash, i);
+            added |= incrementAt(indexOf(h), offsetOf(h));
+        }
+        if (added && ++mSize >= mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = (long) MAX_COUNT << offset;
+        if ((mTable[index] & mask) != mask) {
+            mTable[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** Halves every counter. */
+    private void reset() {
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize >>>= 1;
+    }
+
+    private int indexOf(long h) {
+        return (int) h & mTableMask;
+    }
+
+    /** Returns the bit offset of one of the 16 counters of a table slot. */
+    private static int offsetOf(long h) {
+        return ((int) (h >>> 48) & 15) << 2;
+    }
+
+    private static long hashAt(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h + (h >>> 32);
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 17);
+        h *= 0xed5ad4bb;
+        h ^= (h >>> 11);
+        h *= 0xac4c1b51;
+        h ^= (h >>> 15);
+        return h;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.administrator.mymemorycache.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 最近被驱逐的key，按照驱逐的顺序排列，不持有值。2Q、ARC和CLOCK-Pro用它判断一个没有命中的key是不是刚刚被驱逐过。
+ * The keys of recently evicted entries, in eviction order, without their values. Used by the 2Q,
+ * ARC and CLOCK-Pro policies to tell whether a key that misses was evicted shortly before.
+ */
+@NotThreadSafe
+final class GhostList<K> {
+
+    private final LinkedHashSet<K> mKeys = new LinkedHashSet<>();
+
+    int size() {
+        return mKeys.size();
+    }
+
+    /** Adds the key as the most recent one, then drops the oldest keys beyond the capacity. */
+    void add(K key, int capacity) {
+        mKeys.remove(key);
+        mKeys.add(key);
+        trimTo(capacity);
+    }
+
+    /** @return whether the key was in the list */
+    boolean remove(K key) {
+        return mKeys.remove(key);
+    }
+
+    /** Drops the oldest keys until at most the given number is left. */
+    void trimTo(int capacity) {
+        Iterator<K> iterator = mKeys.iterator();
+        for (int size = mKeys.size(); size > Math.max(capacity, 0); size--) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：GreedyDual-Size-Frequency。每个条目的优先级是 L + 命中次数 * 代价 / 大小，驱逐优先级最低的条目，
+ * 然后把L提高到被驱逐的条目的优先级。所以重新获取很贵的小条目会留得更久，而很久没有被释放过的条目，
+ * 优先级停留在旧的L上，最终也会被驱逐。
+ *
+ * GreedyDual-Size-Frequency: the priority of an entry is L + frequency * cost / size, where the
+ * cost is the hint given to {@link CountingMemoryCache#cache} and the frequency counts the hits
+ * since the entry was cached. The entry with the lowest priority is evicted, and L is raised to
+ * its priority. The small entries costly to recompute thus stay the longest, while an entry left
+ * unused keeps the priority it had against an old L, and ages out eventually.
+ *
+ * <p> The priority is computed when the entry enters the eviction queue, that is when its last
+ * client releases it. The eviction queue is a binary min-heap, and every entry keeps its index in
+ * it, so that an entry acquired again is removed in logarithmic time. The priorities are kept in
+ * an array parallel to the heap rather than in the entries, which only the caches using this
+ * policy would need.
+ */
+@NotThreadSafe
+final class GreedyDualEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // 命中次数的上限，避免很久以前的热门条目永远留在缓存中
+    // Caps the frequency, so that entries popular long ago do not stay forever.
+    private static final int MAX_FREQUENCY = 255;
+
+    private Entry<K, V>[] mHeap;
+    // mHeap[i]的优先级
+    // The priority of mHeap[i].
+    private double[] mPriorities = new double[INITIAL_CAPACITY];
+    private int mCount;
+    private long mSizeInBytes;
+    // 通货膨胀值L，最后一个被驱逐的条目的优先级
+    // The inflation value L: the priority of the last entry evicted.
+    private double mInflation;
+    // 最后一次selectVictim()选出的条目和它的优先级，它被驱逐时用来提高L
+    // The entry last returned by selectVictim() and its priority, which L is raised to once the
+    // entry is evicted.
+    @Nullable
+    private Entry<K, V> mVictim;
+    private double mVictimPriority;
+
+    GreedyDualEvictionPolicy() {
+        // 不能创建泛型数组，这个数组只保存Entry<K, V>，而且不会离开这个类，所以转换是安全的
+        // Generic arrays cannot be created; the array only ever holds Entry<K, V> and never
+        // leaves this class, so the cast is safe. Arrays.copyOf keeps the component type.
+        @SuppressWarnings("unchecked")
+        Entry<K, V>[] heap = (Entry<K, V>[]) new Entry<?, ?>[INITIAL_CAPACITY];
+        mHeap = heap;
+    }
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return true;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        entry.policyState = 1;
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.policyState = oldEntry.policyState;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+        if (entry.policyState < MAX_FREQUENCY) {
+            entry.policyState++;
+        }
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        Preconditions.checkState(entry.policyIndex < 0);
+        double priority = mInflation
+                + entry.policyState * (double) entry.cost / Math.max(1, entry.sizeInBytes);
+        if (mCount == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mCount * 2);
+            mPriorities = Arrays.copyOf(mPriorities, mCount * 2);
+        }
+        mCount++;
+        mSizeInBytes += entry.sizeInBytes;
+        siftUp(mCount - 1, entry, priority);
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        int index = entry.policyIndex;
+        if (index < 0 || index >= mCount || mHeap[index] != entry) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        return mCount > 0 ? mHeap[0] : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        if (mCount == 0) {
+            return null;
+        }
+        Entry<K, V> victim = mHeap[0];
+        mVictim = victim;
+        mVictimPriority = mPriorities[0];
+        removeAt(0);
+        return victim;
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        if (entry == mVictim) {
+            mInflation = Math.max(mInflation, mVictimPriority);
+            mVictim = null;
+        }
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            Entry<K, V> entry = mHeap[i];
+            if (predicate == null || predicate.apply(entry.key)) {
+                entry.policyIndex = -1;
+                mSizeInBytes -= entry.sizeInBytes;
+                oldEntries.add(entry);
+            } else {
+                mPriorities[count] = mPriorities[i];
+                mHeap[count++] = entry;
+            }
+        }
+        Arrays.fill(mHeap, count, mCount, null);
+        mCount = count;
+        // 剩下的条目重新建堆
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(i, mHeap[i], mPriorities[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            mHeap[i].policyIndex = i;
+        }
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    private void removeAt(int index) {
+        Entry<K, V> entry = mHeap[index];
+        entry.policyIndex = -1;
+        mCount--;
+        mSizeInBytes -= entry.sizeInBytes;
+        Entry<K, V> last = mHeap[mCount];
+        double lastPriority = mPriorities[mCount];
+        mHeap[mCount] = null;
+        if (index < mCount) {
+            siftDown(index, last, lastPriority);
+            if (mHeap[index] == last) {
+                siftUp(index, last, lastPriority);
+            }
+        }
+    }
+
+    /** Moves the entry up from the given index, then stores it where it belongs. */
+    private void siftUp(int index, Entry<K, V> entry, double priority) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priority >= mPriorities[parent]) {
+                break;
+            }
+            place(index, mHeap[parent], mPriorities[parent]);
+            index = parent;
+        }
+        place(index, entry, priority);
+    }
+
+    /** Moves the entry down from the given index, then stores it where it belongs. */
+    private void siftDown(int index, Entry<K, V> entry, double priority) {
+        int half = mCount >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < mCount && mPriorities[right] < mPriorities[child]) {
+                child = right;
+            }
+            if (priority <= mPriorities[child]) {
+                break;
+            }
+            place(index, mHeap[child], mPriorities[child]);
+            index = child;
+        }
+        place(index, entry, priority);
+    }
+
+    private void place(int index, Entry<K, V> entry, double priority) {
+        mHeap[index] = entry;
+        mPriorities[index] = priority;
+        entry.policyIndex = index;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 最近最少使用：条目按照最后一个客户端释放它的顺序排列，最先释放的最先被驱逐
+ * Least recently used: the entries are evicted in the order their last client released them.
+ */
+@NotThreadSafe
+final class LruEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private final EntryQueue<K, V> mQueue = new EntryQueue<>();
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return false;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        mQueue.addLast(entry);
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return mQueue.remove(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        return mQueue.peekFirst();
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        return mQueue.pollFirst();
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        return mQueue.removeAll(predicate);
+    }
+
+    @Override
+    public int getCount() {
+        return mQueue.getCount();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mQueue.getSizeInBytes();
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：bitmap、编码后的数据和我们自己的数据模型各有一个缓存，各自固定的配置会让一个缓存满了而另一个几乎是空的。
+ * 这里所有缓存共享一个总预算，每个缓存通过自己的{@link Share}读取配置，仲裁者根据每个缓存最近的命中情况重新分配预算：
+ * 给每个缓存设置了命中率估计器时，按照多给一块内存能多得到的命中次数分配，否则按照最近未命中的次数乘以命中率成比例分配。
+ * 份额每次只移动一步，变小的缓存由仲裁者让它重新读取配置并驱逐放不下的条目。
+ *
+ * Shares one byte budget between several caches, such as the caches of bitmaps, of encoded bytes
+ * and of parsed models, so that one of them is not full while another sits mostly empty.
+ *
+ * <p> Every cache reads its params from its own {@link Share}, whose maxCacheSize and
+ * maxEvictionQueueSize are capped by the bytes allotted to it. {@link #rebalance} redistributes
+ * the budget, chunk by chunk, to the caches with the most to gain from it. When every share has a
+ * {@link MissRatioCurveEstimator}, the gain of a chunk is the number of hits it would have bought
+ * over the last period, read from the estimated hit ratio curve. Otherwise the budget is split in
+ * proportion to the recent misses of each cache, weighed by its hit ratio, so that a cache going
+ * through one-off keys, which would miss at any size, does not take the budget. Every share keeps
+ * a minimum, and never gets more than the params of its own supplier allow.
+ *
+ * <p> The allotments move towards their target one step per rebalance, and the arbiter has the
+ * caches whose allotment changed refresh their params, so it is the one that makes a cache evict
+ * to leave room to another. The arbiter has no thread of its own: call {@link #rebalance}
+ * periodically.
+ */
+@ThreadSafe
+public class MemoryBudgetArbiter {
+
+    // 预算被分成这么多块，每次分配一块
+    private static final int CHUNK_COUNT = 64;
+    // 每次重新分配时，一个份额最多移动的块数
+    private static final int MAX_STEP_CHUNKS = 8;
+    // 每个份额至少保留的预算百分比
+    private static final int MIN_SHARE_PERCENTAGE = 5;
+
+    /**
+     * 一个缓存在总预算中的份额，作为这个缓存的配置提供者
+     * The share of the budget of one cache, which the cache reads its params from.
+     */
+    @ThreadSafe
+    public static final class Share implements Supplier<MemoryCacheParams> {
+
+        private final MemoryBudgetArbiter mArbiter;
+        private final Supplier<MemoryCacheParams> mMaxParamsSupplier;
+        @Nullable
+        private final MissRatioCurveEstimator<?> mEstimator;
+
+        private volatile long mAllottedSize;
+
+        // 以下字段只在持有仲裁者的锁时访问
+        @GuardedBy("mArbiter")
+        @Nullable
+        private Member mMember;
+        @GuardedBy("mArbiter")
+        private long mLastHitCount;
+        @GuardedBy("mArbiter")
+        private long mLastMissCount;
+        // 最近的访问和未命中次数，每次重新分配时减半再加上新的次数
+        @GuardedBy("mArbiter")
+        private double mRecentAccesses;
+        @GuardedBy("mArbiter")
+        private double mRecentMisses;
+        @GuardedBy("mArbiter")
+        private long mTargetSize;
+
+        private Share(
+                MemoryBudgetArbiter arbiter,
+                Supplier<MemoryCacheParams> maxParamsSupplier,
+                @Nullable MissRatioCurveEstimator<?> estimator) {
+            mArbiter = arbiter;
+            mMaxParamsSupplier = maxParamsSupplier;
+            mEstimator = estimator;
+        }
+
+        /**
+         * 返回被分配的大小限制后的配置
+         * Returns the params of the max params supplier, with the byte budgets capped by the size
+         * allotted to this share.
+         */
+        @Override
+        public MemoryCacheParams get() {
+            long allottedSize = mAllottedSize;
+            MemoryCacheParams params = mMaxParamsSupplier.get();
+            return new MemoryCacheParams(
+                    Math.min(params.maxCacheSize, allottedSize),
+                    params.maxCacheEntries,
+                    Math.min(params.maxEvictionQueueSize, allottedSize),
+                    params.maxEvictionQueueEntries,
+                    params.maxCacheEntrySize);
+        }
+
+        /** The number of bytes currently allotted to this share. */
+        public long getAllottedSize() {
+            return mAllottedSize;
+        }
+
+        /**
+         * 将缓存和这个份额关联起来，仲裁者通过它读取命中次数并让它刷新配置
+         * Attaches the cache that reads its params from this share, so that the arbiter can read
+         * its hits and misses, and have it refresh its params.
+         */
+        public void attach(final CountingMemoryCache<?, ?> cache) {
+            Preconditions.checkNotNull(cache);
+            attach(new Member() {
+                @Override
+                long getHitCount() {
+                    return cache.getHitCount();
+                }
+
+                @Override
+                long getMissCount() {
+                    return cache.getMissCount();
+                }
+
+                @Override
+                void refresh() {
+                    cache.refreshCacheParams();
+                }
+            });
+        }
+
+        /** @see #attach(CountingMemoryCache) */
+        public void attach(final SegmentedCountingMemoryCache<?, ?> cache) {
+            Preconditions.checkNotNull(cache);
+            attach(new Member() {
+                @Override
+                long getHitCount() {
+                    return cache.getHitCount();
+                }
+
+                @Override
+                long getMissCount() {
+                    return cache.getMissCount();
+                }
+
+                @Override
+                void refresh() {
+                    cache.refreshCacheParams();
+                }
+            });
+        }
+
+        private void attach(Member member) {
+            synchronized (mArbiter) {
+                Preconditions.checkState(mMember == null);
+                mMember = member;
+                mLastHitCount = member.getHitCount();
+                mLastMissCount = member.getMissCount();
+            }
+        }
+
+        /**
+         * 多给这个份额一块内存能多得到的命中次数
+         * The hits one more chunk on top of the given size would have bought recently.
+         */
+        @GuardedBy("mArbiter")
+        private double getGain(long size, long chunkSize, int chunks, boolean useEstimator) {
+            if (useEstimator) {
+                return (mEstimator.getHitRatio(size + chunkSize) - mEstimator.getHitRatio(size))
+                        * mRecentAccesses;
+            }
+            // 按未命中次数乘以命中率成比例分配：第k块的收益是它除以k
+            // Splits the budget in proportion to the misses weighed by the hit ratio: the k-th
+            // chunk gains that weight / k.
+            if (mRecentAccesses == 0) {
+                return 0;
+            }
+            double hitRatio = (mRecentAccesses - mRecentMisses) / mRecentAccesses;
+            return mRecentMisses * hitRatio / (chunks + 1);
+        }
+    }
+
+    /** A cache attached to a share. */
+    private abstract static class Member {
+        abstract long getHitCount();
+
+        abstract long getMissCount();
+
+        abstract void refresh();
+    }
+
+    private final long mTotalBudget;
+
+    @GuardedBy("this")
+    private final ArrayList<Share> mShares = new ArrayList<>();
+
+    /**
+     * @param totalBudget the number of bytes shared by all the caches
+     */
+    public MemoryBudgetArbiter(long totalBudget) {
+        Preconditions.checkArgument(totalBudget > 0);
+        mTotalBudget = totalBudget;
+    }
+
+    /**
+     * 新建一个份额，所有份额重新平分预算
+     * Creates the share of a new cache. The budget is split evenly between all the shares until
+     * the next rebalance.
+     *
+     * @param maxParamsSupplier supplies the params of the cache at its largest
+     */
+    public Share newShare(Supplier<MemoryCacheParams> maxParamsSupplier) {
+        return newShare(maxParamsSupplier, null);
+    }
+
+    /**
+     * @param maxParamsSupplier supplies the params of the cache at its largest
+     * @param estimator estimates the hit ratio curve of the cache, which must record its accesses
+     * to it; the gains are only read from the estimators when every share has one
+     * @see #newShare(Supplier)
+     */
+    public Share newShare(
+            Supplier<MemoryCacheParams> maxParamsSupplier,
+            @Nullable MissRatioCurveEstimator<?> estimator) {
+        Preconditions.checkNotNull(maxParamsSupplier);
+        Share share = new Share(this, maxParamsSupplier, estimator);
+        ArrayList<Member> refreshed;
+        synchronized (this) {
+            mShares.add(share);
+            long evenSize = mTotalBudget / mShares.size();
+            for (int i = 0; i < mShares.size(); i++) {
+                mShares.get(i).mAllottedSize = evenSize;
+            }
+            refreshed = getMembers();
+        }
+        refresh(refreshed);
+        return share;
+    }
+
+    /** The number of bytes shared by all the caches. */
+    public long getTotalBudget() {
+        return mTotalBudget;
+    }
+
+    /**
+     * 根据上一次之后的命中情况重新分配预算，份额变小的缓存会驱逐放不下的条目
+     * Redistributes the budget from the hits and misses since the last rebalance. The caches
+     * whose share shrinks evict what no longer fits before this method returns, unless they have
+     * a maintenance executor.
+     */
+    public void rebalance() {
+        ArrayList<Member> refreshed = new ArrayList<>();
+        synchronized (this) {
+            int count = mShares.size();
+            if (count == 0) {
+                return;
+            }
+            boolean useEstimators = true;
+            for (int i = 0; i < count; i++) {
+                Share share = mShares.get(i);
+                useEstimators &= share.mEstimator != null;
+                Member member = share.mMember;
+                if (member == null) {
+                    continue;
+                }
+                long hitCount = member.getHitCount();
+                long missCount = member.getMissCount();
+                long hits = hitCount - share.mLastHitCount;
+                long misses = missCount - share.mLastMissCount;
+                share.mLastHitCount = hitCount;
+                share.mLastMissCount = missCount;
+                share.mRecentAccesses = share.mRecentAccesses / 2 + hits + misses;
+                share.mRecentMisses = share.mRecentMisses / 2 + misses;
+            }
+            computeTargets(useEstimators);
+            long maxStep = mTotalBudget / CHUNK_COUNT * MAX_STEP_CHUNKS;
+            for (int i = 0; i < count; i++) {
+                Share share = mShares.get(i);
+                long allottedSize = share.mAllottedSize;
+                long newSize = Math.max(
+                        allottedSize - maxStep,
+                        Math.min(allottedSize + maxStep, share.mTargetSize));
+                if (newSize != allottedSize) {
+                    share.mAllottedSize = newSize;
+                    if (share.mMember != null) {
+                        refreshed.add(share.mMember);
+                    }
+                }
+            }
+        }
+        refresh(refreshed);
+    }
+
+    /**
+     * 从每个份额的最小值开始，每次把一块预算分给收益最大的份额，直到分完或者所有份额都到了上限
+     * Starting from the minimum of every share, hands out the budget chunk by chunk, each to the
+     * share that gains the most from it, until the budget runs out or every share is at its
+     * maximum.
+     */
+    @GuardedBy("this")
+    private void computeTargets(boolean useEstimators) {
+        int count = mShares.size();
+        long minSize = Math.min(
+                mTotalBudget * MIN_SHARE_PERCENTAGE / 100,
+                mTotalBudget / count);
+        long chunkSize = Math.max(1, mTotalBudget / CHUNK_COUNT);
+        long[] maxSizes = new long[count];
+        int[] chunks = new int[count];
+        long remaining = mTotalBudget;
+        for (int i = 0; i < count; i++) {
+            Share share = mShares.get(i);
+            maxSizes[i] = Math.max(minSize, share.mMaxParamsSupplier.get().maxCacheSize);
+            share.mTargetSize = minSize;
+            remaining -= minSize;
+        }
+        while (remaining > 0) {
+            int best = -1;
+            double bestGain = 0;
+            for (int i = 0; i < count; i++) {
+                Share share = mShares.get(i);
+                if (share.mTargetSize >= maxSizes[i]) {
+                    continue;
+                }
+                double gain =
+                        share.getGain(share.mTargetSize, chunkSize, chunks[i], useEstimators);
+                // 收益相同时给块数最少的份额，所以没有访问时预算被平分
+                // Ties go to the share with the fewest chunks, so that idle caches split evenly.
+                if (best < 0
+                        || gain > bestGain
+                        || (gain == bestGain && chunks[i] < chunks[best])) {
+                    best = i;
+                    bestGain = gain;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            Share share = mShares.get(best);
+            long size = Math.min(
+                    Math.min(chunkSize, remaining),
+                    maxSizes[best] - share.mTargetSize);
+            share.mTargetSize += size;
+            chunks[best]++;
+            remaining -= size;
+        }
+    }
+
+    @GuardedBy("this")
+    private ArrayList<Member> getMembers() {
+        ArrayList<Member> members = new ArrayList<>();
+        for (int i = 0; i < mShares.size(); i++) {
+            if (mShares.get(i).mMember != null) {
+                members.add(mShares.get(i).mMember);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * 让缓存刷新配置，缓存会调用CloseableReference#close，所以不能在持有锁时调用
+     * Has the caches refresh their params. A cache closes the values it evicts, so this must not
+     * be called while holding the <code>this</code> lock.
+     */
+    private static void refresh(ArrayList<Member> members) {
+        for (int i = 0; i < members.size(); i++) {
+            members.get(i).refresh();
+        }
+    }
+}
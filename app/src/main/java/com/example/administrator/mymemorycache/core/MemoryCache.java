@@ -9,6 +9,8 @@ import android.support.annotation.Nullable;
 import com.android.internal.util.Predicate;
 import com.example.administrator.mymemorycache.reference.CloseableReference;
 
+import java.util.Map;
+
 /**
  * 内存缓存接口
  * @param <K> the key type
@@ -43,6 +45,50 @@ public interface MemoryCache<K, V> {
     @Nullable
     CloseableReference<V> get(K key);
 
+    /**
+     * 批量缓存键值对，和对每一对调用cache()的效果相同，但是只需要获取一次锁
+     * Caches all the given key-value pairs, as if {@link #cache} was called for each of them, but
+     * at the cost of a single call.
+     * 返回的Map中只包含缓存成功的key，客户端应该关闭返回的所有引用
+     * <p> The returned map only contains the keys whose value was cached. The client should close
+     * all the returned references when they are not required anymore, and remains responsible for
+     * the references it passed in.
+     *
+     * @param values the key-value pairs to cache
+     * @return the new references to be used, by key
+     */
+    Map<K, CloseableReference<V>> cacheAll(Map<K, CloseableReference<V>> values);
+
+    /**
+     * 批量获取内存缓存条目，只需要获取一次锁
+     * Gets the items with the given keys, at the cost of a single call.
+     * 返回的Map中只包含命中的key，客户端应该关闭返回的所有引用
+     * <p> The returned map only contains the keys that were found. The client should close all the
+     * returned references when they are not required anymore.
+     *
+     * @param keys the keys to look up
+     * @return references to the cached values, by key
+     */
+    Map<K, CloseableReference<V>> getAll(Iterable<K> keys);
+
+    /**
+     * 删除给定key的缓存条目
+     * Removes the item with the given key from the cache.
+     *
+     * @param key the key of the item to remove
+     * @return true if the item was found and removed
+     */
+    boolean remove(K key);
+
+    /**
+     * 删除给定key的缓存
+     * Removes the items with the given keys from the cache, at the cost of a single call.
+     *
+     * @param keys the keys of the items to remove
+     * @return number of the items removed from the cache
+     */
+    int removeKeys(Iterable<K> keys);
+
     /**
      * 删除所有能够和传入Predicate匹配的cache key的缓存
      * Removes all the items from the cache whose keys match the specified predicate.
@@ -60,4 +106,13 @@ public interface MemoryCache<K, V> {
      * @return true if the predicate was found in the cache, false otherwise
      */
     public boolean contains(Predicate<K> predicate);
+
+    /**
+     * 查询给定key的缓存条目是否存在，不算作一次访问
+     * Finds if an item with the given key is cached, without counting as an access.
+     *
+     * @param key the key to look up
+     * @return true if an item with the given key was found in the cache
+     */
+    boolean containsKey(K key);
 }
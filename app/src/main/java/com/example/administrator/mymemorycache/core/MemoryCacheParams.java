@@ -9,9 +9,11 @@ package com.example.administrator.mymemorycache.core;
  */
 public class MemoryCacheParams {
 
-    public final int maxCacheSize;
+    // 字节数的约束使用long，这样在大内存的JVM上缓存可以超过2GB
+    // The byte budgets are longs, so that a cache can hold more than 2 GB on a large heap.
+    public final long maxCacheSize;
     public final int maxCacheEntries;
-    public final int maxEvictionQueueSize;
+    public final long maxEvictionQueueSize;
     public final int maxEvictionQueueEntries;
     public final int maxCacheEntrySize;
 
@@ -27,9 +29,9 @@ public class MemoryCacheParams {
      * @param maxCacheEntrySize The maximum size of a single cache entry.
      */
     public MemoryCacheParams(
-            int maxCacheSize,
+            long maxCacheSize,
             int maxCacheEntries,
-            int maxEvictionQueueSize,
+            long maxEvictionQueueSize,
             int maxEvictionQueueEntries,
             int maxCacheEntrySize) {
         this.maxCacheSize = maxCacheSize;
@@ -0,0 +1,277 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：SHARDS。根据key的hash值只采样一小部分key，对这些key模拟一个没有大小限制的LRU缓存（只记录key和大小，不持有值），
+ * 记录每次访问的重用距离，也就是上一次访问这个key之后访问过的不同key的总大小。重用距离不超过S的访问，
+ * 在大小为S的LRU缓存中就会命中，所以重用距离的分布给出了不同缓存大小下的命中率。因为采样是按key进行的，
+ * 采样率为R时，采样出来的距离除以R就是完整访问序列中的距离。
+ *
+ * Estimates the hit ratio an LRU cache would get at a range of sizes, from the accesses recorded
+ * by a {@link CountingMemoryCache}, so that one can tell whether a bigger cache would buy hits.
+ *
+ * <p> This is SHARDS: only the keys whose hash falls under a threshold are sampled, and a ghost
+ * LRU cache of unbounded size, keeping the keys and sizes but no value, replays their accesses.
+ * The reuse distance of an access is the total size of the distinct keys accessed since the
+ * previous access to the same key, plus its own; the access would hit in any LRU cache at least
+ * that large. Since the sampling is by key, the distance in the sample divided by the sampling
+ * rate estimates the distance in the full stream. The first access to a key is a miss at any
+ * size.
+ *
+ * <p> At most a fixed number of keys is tracked: beyond that, the threshold is lowered to drop
+ * the keys with the highest hash, and the later accesses weigh more to make up for the lower
+ * rate. An access only takes the lock of the estimator when its key is sampled.
+ */
+@ThreadSafe
+public class MissRatioCurveEstimator<K> {
+
+    private static final double DEFAULT_SAMPLING_RATE = 0.1;
+    private static final int DEFAULT_MAX_SAMPLED_KEYS = 4096;
+    private static final int BUCKET_COUNT = 256;
+    // 采样阈值的精度，hash值的低24位和阈值比较
+    private static final int THRESHOLD_MODULUS = 1 << 24;
+
+    /** A sampled key, with its last access in the ghost cache. */
+    private static final class SampledKey<K> {
+        final K key;
+        final int hash;
+        int size;
+        int time;
+
+        SampledKey(K key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    private final long mMaxCacheSize;
+    private final long mBucketWidth;
+    private final int mMaxSampledKeys;
+
+    // 不加锁读取，只在持有锁时降低
+    private volatile int mThreshold;
+
+    @GuardedBy("this")
+    private final HashMap<K, SampledKey<K>> mSampledKeys = new HashMap<>();
+    // hash值最大的key在堆顶，降低阈值时先丢弃它们
+    @GuardedBy("this")
+    private final PriorityQueue<SampledKey<K>> mKeysByHash;
+    // 以访问时间为下标的树状数组，保存每个key最后一次访问时的大小，用来求重用距离
+    @GuardedBy("this")
+    private long[] mSizesByTime;
+    @GuardedBy("this")
+    private int mTime;
+    // 每个桶中的访问次数，按采样率加权，最后一个桶是超过mMaxCacheSize的距离和第一次访问
+    @GuardedBy("this")
+    private final double[] mBuckets = new double[BUCKET_COUNT + 1];
+    @GuardedBy("this")
+    private double mAccessCount;
+
+    /**
+     * @param maxCacheSize the largest cache size the hit ratio is estimated for, in bytes
+     */
+    public MissRatioCurveEstimator(long maxCacheSize) {
+        this(maxCacheSize, DEFAULT_SAMPLING_RATE, DEFAULT_MAX_SAMPLED_KEYS);
+    }
+
+    /**
+     * @param maxCacheSize the largest cache size the hit ratio is estimated for, in bytes
+     * @param samplingRate the initial share of the keys sampled, between 0 and 1
+     * @param maxSampledKeys the number of keys beyond which the sampling rate is lowered
+     */
+    public MissRatioCurveEstimator(long maxCacheSize, double samplingRate, int maxSampledKeys) {
+        Preconditions.checkArgument(maxCacheSize > 0);
+        Preconditions.checkArgument(samplingRate > 0 && samplingRate <= 1);
+        Preconditions.checkArgument(maxSampledKeys > 0);
+        mMaxCacheSize = maxCacheSize;
+        mBucketWidth = (maxCacheSize + BUCKET_COUNT - 1) / BUCKET_COUNT;
+        mMaxSampledKeys = maxSampledKeys;
+        mThreshold = (int) Math.ceil(samplingRate * THRESHOLD_MODULUS);
+        mKeysByHash = new PriorityQueue<>(
+                maxSampledKeys + 1,
+                new Comparator<SampledKey<K>>() {
+                    @Override
+                    public int compare(SampledKey<K> key1, SampledKey<K> key2) {
+                        return key1.hash > key2.hash ? -1 : (key1.hash == key2.hash ? 0 : 1);
+                    }
+                });
+        mSizesByTime = new long[4 * maxSampledKeys + 1];
+    }
+
+    /**
+     * 记录一次对key的访问，没有被采样的key直接返回，不获取锁
+     * Records an access to the key, whose value has the given size. Returns right away, without
+     * taking the lock, unless the key is sampled.
+     */
+    public void recordAccess(K key, int sizeInBytes) {
+        int hash = hash(key.hashCode());
+        if (hash < mThreshold) {
+            recordSampledAccess(key, hash, sizeInBytes);
+        }
+    }
+
+    /**
+     * 打乱hash值的各位，只保留低24位。先加上一个常数，否则hashCode为0的key总是被采样
+     * Spreads the bits of the hash code, keeping the low 24 bits. The constant added first keeps
+     * a hash code of 0, common among small integer keys, from always being sampled.
+     */
+    private static int hash(int h) {
+        h += 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & (THRESHOLD_MODULUS - 1);
+    }
+
+    private synchronized void recordSampledAccess(K key, int hash, int sizeInBytes) {
+        if (hash >= mThreshold) {
+            return;
+        }
+        double samplingRate = (double) mThreshold / THRESHOLD_MODULUS;
+        double weight = 1 / samplingRate;
+        mAccessCount += weight;
+        if (mTime == mSizesByTime.length - 1) {
+            compactTimes();
+        }
+        SampledKey<K> sampledKey = mSampledKeys.get(key);
+        if (sampledKey == null) {
+            mBuckets[BUCKET_COUNT] += weight;
+            sampledKey = new SampledKey<>(key, hash);
+            mSampledKeys.put(key, sampledKey);
+            mKeysByHash.add(sampledKey);
+        } else {
+            // 缓存要同时放得下这期间访问过的key和它自己
+            long distance =
+                    (long) (sumSizesAfter(sampledKey.time) / samplingRate) + sizeInBytes;
+            // 第b个桶放距离在(b * width, (b + 1) * width]中的访问，大小为(b + 1) * width的缓存能命中它们
+            // Bucket b holds the distances in (b * width, (b + 1) * width], all of which a cache
+            // of (b + 1) * width bytes hits: a distance equal to the cache size is a hit.
+            int bucket = (int) Math.min(BUCKET_COUNT, Math.max(distance - 1, 0) / mBucketWidth);
+            mBuckets[bucket] += weight;
+            addSize(sampledKey.time, -sampledKey.size);
+        }
+        sampledKey.time = ++mTime;
+        sampledKey.size = sizeInBytes;
+        addSize(sampledKey.time, sizeInBytes);
+        if (mSampledKeys.size() > mMaxSampledKeys) {
+            lowerThreshold();
+        }
+    }
+
+    /** Drops the keys with the highest hash, and lowers the threshold below them. */
+    @GuardedBy("this")
+    private void lowerThreshold() {
+        SampledKey<K> dropped = mKeysByHash.peek();
+        int threshold = dropped.hash;
+        while (!mKeysByHash.isEmpty() && mKeysByHash.peek().hash >= threshold) {
+            dropped = mKeysByHash.poll();
+            mSampledKeys.remove(dropped.key);
+            addSize(dropped.time, -dropped.size);
+        }
+        mThreshold = threshold;
+    }
+
+    /**
+     * 访问时间用完时，按照最后一次访问的顺序重新编号
+     * Numbers the last accesses again from 1, in order, once the times run out.
+     */
+    @GuardedBy("this")
+    private void compactTimes() {
+        ArrayList<SampledKey<K>> keys = new ArrayList<>(mSampledKeys.values());
+        Collections.sort(keys, new Comparator<SampledKey<K>>() {
+            @Override
+            public int compare(SampledKey<K> key1, SampledKey<K> key2) {
+                return key1.time < key2.time ? -1 : (key1.time == key2.time ? 0 : 1);
+            }
+        });
+        Arrays.fill(mSizesByTime, 0);
+        mTime = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            SampledKey<K> key = keys.get(i);
+            key.time = ++mTime;
+            addSize(key.time, key.size);
+        }
+    }
+
+    @GuardedBy("this")
+    private void addSize(int time, long size) {
+        for (int i = time; i < mSizesByTime.length; i += i & -i) {
+            mSizesByTime[i] += size;
+        }
+    }
+
+    /** The total size of the keys last accessed after the given time. */
+    @GuardedBy("this")
+    private long sumSizesAfter(int time) {
+        return sumSizesUpTo(mTime) - sumSizesUpTo(time);
+    }
+
+    @GuardedBy("this")
+    private long sumSizesUpTo(int time) {
+        long sum = 0;
+        for (int i = time; i > 0; i -= i & -i) {
+            sum += mSizesByTime[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 估计大小为cacheSizeInBytes的LRU缓存的命中率，还没有记录到访问时返回0
+     * Estimates the hit ratio of an LRU cache of the given size, up to the maximum size given at
+     * construction. The estimate is 0 until an access is recorded.
+     */
+    public synchronized double getHitRatio(long cacheSizeInBytes) {
+        if (mAccessCount == 0) {
+            return 0;
+        }
+        long size = Math.min(cacheSizeInBytes, mMaxCacheSize);
+        int fullBuckets = (int) Math.min(BUCKET_COUNT, size / mBucketWidth);
+        double hits = 0;
+        for (int i = 0; i < fullBuckets; i++) {
+            hits += mBuckets[i];
+        }
+        return hits / mAccessCount;
+    }
+
+    /**
+     * 一次估计多个缓存大小的命中率
+     * Estimates the hit ratio at each of the given cache sizes.
+     *
+     * @see #getHitRatio(long)
+     */
+    public double[] getHitRatios(long[] cacheSizesInBytes) {
+        double[] hitRatios = new double[cacheSizesInBytes.length];
+        for (int i = 0; i < cacheSizesInBytes.length; i++) {
+            hitRatios[i] = getHitRatio(cacheSizesInBytes[i]);
+        }
+        return hitRatios;
+    }
+
+    /** The number of keys currently sampled. */
+    public synchronized int getSampledKeyCount() {
+        return mSampledKeys.size();
+    }
+
+    /** Forgets all the accesses recorded so far, keeping the current sampling rate. */
+    public synchronized void reset() {
+        mSampledKeys.clear();
+        mKeysByHash.clear();
+        Arrays.fill(mSizesByTime, 0);
+        Arrays.fill(mBuckets, 0);
+        mTime = 0;
+        mAccessCount = 0;
+    }
+}
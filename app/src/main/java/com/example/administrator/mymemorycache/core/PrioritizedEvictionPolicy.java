@@ -0,0 +1,197 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+import com.example.administrator.mymemorycache.util.Preconditions;
+import com.example.administrator.mymemorycache.util.Priority;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：每个优先级有自己的待销毁队列，由各自的驱逐策略排序。驱逐时先驱逐LOW的条目，再驱逐MEDIUM的，最后才是HIGH的，
+ * 所以大量后台预取的图片不会把屏幕上的图片挤出缓存。每个优先级还可以保留一部分缓存预算：
+ * 一个优先级的条目总大小没有超过它保留的份额时，先驱逐其他超过了份额的优先级，这样预取的图片也不会被全部驱逐。
+ *
+ * Gives every {@link Priority} level its own eviction queue, ordered by its own eviction policy.
+ * The LOW entries are evicted before the MEDIUM ones, and those before the HIGH ones, so that a
+ * burst of background prefetches cannot flush the images on screen.
+ *
+ * <p> Every level may also reserve a share of the cache budget. While the entries of a level,
+ * whether in use or not, take no more than its share, the levels over their share are evicted
+ * first; the levels are drained in priority order again once they all are within their share.
+ */
+@NotThreadSafe
+final class PrioritizedEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final ArrayList<EvictionPolicy<K, V>> mLevels;
+    // 每个优先级保留的份额，是maxCacheSize的比例
+    private final double[] mReservedShares;
+    // 每个优先级的条目的总大小，包括正在被使用的条目
+    private final long[] mCachedSizes = new long[PRIORITIES.length];
+    private final boolean mRecordsAccesses;
+
+    private long mMaxCacheSize;
+
+    /**
+     * @param levels the eviction policy of every level, in the order of {@link Priority}
+     * @param reservedShares the share of maxCacheSize reserved for every level
+     */
+    PrioritizedEvictionPolicy(ArrayList<EvictionPolicy<K, V>> levels, double[] reservedShares) {
+        Preconditions.checkArgument(levels.size() == PRIORITIES.length);
+        Preconditions.checkArgument(reservedShares.length == PRIORITIES.length);
+        mLevels = levels;
+        mReservedShares = reservedShares;
+        boolean recordsAccesses = false;
+        for (int i = 0; i < levels.size(); i++) {
+            recordsAccesses |= levels.get(i).recordsAccesses();
+        }
+        mRecordsAccesses = recordsAccesses;
+    }
+
+    /**
+     * 将每个优先级保留的百分比转换成每个分段的maxCacheSize的比例
+     * Converts the percentages reserved by priority to the shares of maxCacheSize reserved in
+     * each of the given number of segments, since every segment checks its own levels.
+     */
+    static double[] toReservedShares(Map<Priority, Integer> reservedPercentages, int segmentCount) {
+        double[] reservedShares = new double[PRIORITIES.length];
+        int total = 0;
+        for (Map.Entry<Priority, Integer> entry : reservedPercentages.entrySet()) {
+            int percentage = entry.getValue();
+            Preconditions.checkArgument(percentage >= 0);
+            total += percentage;
+            reservedShares[entry.getKey().ordinal()] = percentage / 100.0 / segmentCount;
+        }
+        Preconditions.checkArgument(total <= 100);
+        return reservedShares;
+    }
+
+    private EvictionPolicy<K, V> levelOf(Entry<K, V> entry) {
+        return mLevels.get(entry.priority.ordinal());
+    }
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+        mMaxCacheSize = params.maxCacheSize;
+        for (int i = 0; i < mLevels.size(); i++) {
+            mLevels.get(i).setParams(params);
+        }
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return mRecordsAccesses;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        mCachedSizes[entry.priority.ordinal()] += entry.sizeInBytes;
+        levelOf(entry).onAdmitted(entry);
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        mCachedSizes[newEntry.priority.ordinal()] += newEntry.sizeInBytes;
+        levelOf(newEntry).onReplaced(oldEntry, newEntry);
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+        levelOf(entry).onAccess(entry);
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        levelOf(entry).onExclusive(entry);
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return levelOf(entry).removeExclusive(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        EvictionPolicy<K, V> level = getVictimLevel();
+        return level != null ? level.peekVictim() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        EvictionPolicy<K, V> level = getVictimLevel();
+        return level != null ? level.selectVictim() : null;
+    }
+
+    /**
+     * 先找超过了保留份额的最低优先级，都没有超过时找有条目的最低优先级
+     * The lowest level over its reserved share, or else the lowest level with an entry to evict.
+     */
+    @Nullable
+    private EvictionPolicy<K, V> getVictimLevel() {
+        for (int i = 0; i < mLevels.size(); i++) {
+            if (mLevels.get(i).getCount() > 0
+                    && mCachedSizes[i] > (long) (mMaxCacheSize * mReservedShares[i])) {
+                return mLevels.get(i);
+            }
+        }
+        for (int i = 0; i < mLevels.size(); i++) {
+            if (mLevels.get(i).getCount() > 0) {
+                return mLevels.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        levelOf(entry).onEvicted(entry);
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+        mCachedSizes[entry.priority.ordinal()] -= entry.sizeInBytes;
+        levelOf(entry).onRemoved(entry);
+    }
+
+    @Override
+    public void onWithinConstraints() {
+        for (int i = 0; i < mLevels.size(); i++) {
+            mLevels.get(i).onWithinConstraints();
+        }
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        for (int i = 0; i < mLevels.size(); i++) {
+            oldEntries.addAll(mLevels.get(i).removeAll(predicate));
+        }
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        int count = 0;
+        for (int i = 0; i < mLevels.size(); i++) {
+            count += mLevels.get(i).getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 0;
+        for (int i = 0; i < mLevels.size(); i++) {
+            size += mLevels.get(i).getSizeInBytes();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 我的理解：条目被缓存超过一定时间之后，下一次命中时在后台重新加载它的值，加载完成之前仍然返回旧的值，
+ * 加载完成后新值替换旧值，仍在使用旧值的客户端不受影响。
+ * Describes how {@link CountingMemoryCache} refreshes its entries ahead of time: once an entry
+ * is older than {@link #getRefreshAfterWriteMs()}, the next hit reloads it in the background.
+ * The hits keep returning the current value until the reload replaces it, and the clients of the
+ * old value keep it until they close their references.
+ */
+public class RefreshPolicy<K, V> {
+
+    private final long mRefreshAfterWriteMs;
+    private final CountingMemoryCache.ValueLoader<K, V> mLoader;
+    private final Executor mExecutor;
+
+    /**
+     * @param refreshAfterWriteMs how long after being cached an entry is refreshed on a hit
+     * @param loader loads the new values
+     * @param executor runs the loader, never on the thread of the hit
+     */
+    public RefreshPolicy(
+            long refreshAfterWriteMs,
+            CountingMemoryCache.ValueLoader<K, V> loader,
+            Executor executor) {
+        Preconditions.checkArgument(refreshAfterWriteMs >= 0);
+        mRefreshAfterWriteMs = refreshAfterWriteMs;
+        mLoader = Preconditions.checkNotNull(loader);
+        mExecutor = Preconditions.checkNotNull(executor);
+    }
+
+    public long getRefreshAfterWriteMs() {
+        return mRefreshAfterWriteMs;
+    }
+
+    public CountingMemoryCache.ValueLoader<K, V> getLoader() {
+        return mLoader;
+    }
+
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：采样LRU，和Redis的做法一样。待销毁的条目放在一个紧凑的数组中，每个条目记录进入队列时的时间戳，
+ * 驱逐时随机取K个条目，驱逐其中最旧的一个。不需要维护链表，每个条目只占数组中的一个位置，
+ * 代价是被驱逐的不一定是最旧的条目，命中率比LRU略低。
+ *
+ * Sampled LRU, as done by Redis: the unused entries are kept in a compact array, each stamped
+ * with the tick at which it entered the eviction queue, and the victim is the oldest of a few
+ * entries sampled at random. No list is kept in order, so no link is written on any path and
+ * each entry only takes a slot of the array, at the cost of a victim that is not always the
+ * oldest entry, and of a slightly lower hit ratio.
+ *
+ * <p> An entry leaving the queue is replaced by the last one of the array, so both adding and
+ * removing an entry take constant time. The stamp is kept in {@link Entry#policyState}, and is
+ * compared so that it may wrap around.
+ */
+@NotThreadSafe
+final class SampledLruEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // 每次驱逐采样的条目数，Redis默认也是5
+    // The number of entries sampled per eviction, the default of Redis as well.
+    private static final int SAMPLES = 5;
+
+    private Entry<K, V>[] mSlots;
+    private int mCount;
+    private long mSizeInBytes;
+    private int mTick;
+    // xorshift随机数的状态，比Random便宜，而且不需要同步
+    private int mSeed = 0x2545F491;
+    // peekVictim()选出的被驱逐者，下一次selectVictim()返回同一个条目
+    @Nullable
+    private Entry<K, V> mPeekedVictim;
+
+    SampledLruEvictionPolicy() {
+        // 不能创建泛型数组，这个数组只保存Entry<K, V>，而且不会离开这个类，所以转换是安全的
+        // Generic arrays cannot be created; the array only ever holds Entry<K, V> and never
+        // leaves this class, so the cast is safe. Arrays.copyOf keeps the component type.
+        @SuppressWarnings("unchecked")
+        Entry<K, V>[] slots = (Entry<K, V>[]) new Entry<?, ?>[INITIAL_CAPACITY];
+        mSlots = slots;
+    }
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return false;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        Preconditions.checkState(entry.policyIndex < 0);
+        if (mCount == mSlots.length) {
+            mSlots = Arrays.copyOf(mSlots, mCount * 2);
+        }
+        entry.policyState = mTick++;
+        entry.policyIndex = mCount;
+        mSlots[mCount++] = entry;
+        mSizeInBytes += entry.sizeInBytes;
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        int index = entry.policyIndex;
+        if (index < 0 || index >= mCount || mSlots[index] != entry) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    private void removeAt(int index) {
+        Entry<K, V> entry = mSlots[index];
+        entry.policyIndex = -1;
+        mSizeInBytes -= entry.sizeInBytes;
+        mCount--;
+        if (index < mCount) {
+            Entry<K, V> last = mSlots[mCount];
+            mSlots[index] = last;
+            last.policyIndex = index;
+        }
+        mSlots[mCount] = null;
+        if (entry == mPeekedVictim) {
+            mPeekedVictim = null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        if (mPeekedVictim == null && mCount > 0) {
+            mPeekedVictim = sample();
+        }
+        return mPeekedVictim;
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        Entry<K, V> victim = peekVictim();
+        if (victim != null) {
+            removeAt(victim.policyIndex);
+        }
+        return victim;
+    }
+
+    /** Returns the oldest of the entries sampled, all of them if there are only a few. */
+    private Entry<K, V> sample() {
+        if (mCount <= SAMPLES) {
+            Entry<K, V> oldest = mSlots[0];
+            for (int i = 1; i < mCount; i++) {
+                oldest = older(oldest, mSlots[i]);
+            }
+            return oldest;
+        }
+        Entry<K, V> oldest = mSlots[nextIndex()];
+        for (int i = 1; i < SAMPLES; i++) {
+            oldest = older(oldest, mSlots[nextIndex()]);
+        }
+        return oldest;
+    }
+
+    private static <K, V> Entry<K, V> older(Entry<K, V> entry1, Entry<K, V> entry2) {
+        return entry2.policyState - entry1.policyState < 0 ? entry2 : entry1;
+    }
+
+    private int nextIndex() {
+        int x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mSeed = x;
+        return (int) (((x & 0xFFFFFFFFL) * mCount) >>> 32);
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+        for (int i = mCount - 1; i >= 0; i--) {
+            Entry<K, V> entry = mSlots[i];
+            if (predicate == null || predicate.apply(entry.key)) {
+                removeAt(i);
+                oldEntries.add(entry);
+            }
+        }
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mSizeInBytes;
+    }
+}
@@ -0,0 +1,566 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.trimmable.MemoryTrimType;
+import com.example.administrator.mymemorycache.trimmable.MemoryTrimmable;
+import com.example.administrator.mymemorycache.util.Preconditions;
+import com.example.administrator.mymemorycache.util.Priority;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：CountingMemoryCache的所有操作都在同一个锁上串行执行，解码线程和UI线程一多就会在这个锁上排队。
+ * 这里将缓存分成多个独立的CountingMemoryCache分段，每个key根据hash值只落在一个分段中，所以不同分段上的操作
+ * 不会互相竞争。所有分段共享一个SharedCacheBudget，于是MemoryCacheParams中的约束依然是针对整个缓存的，
+ * 而不是每个分段各自分到一份：一个分段可以使用全部的预算，只要其他分段没有在用。
+ *
+ * A {@link MemoryCache} that spreads its entries over several independent
+ * {@link CountingMemoryCache} segments chosen by key hash, so that operations on different
+ * segments do not contend on the same lock.
+ *
+ * <p> All the segments share a single {@link SharedCacheBudget}, so the constraints of
+ * {@link MemoryCacheParams} apply to the cache as a whole. When the total is over budget, the
+ * segment being written to evicts first, and the remaining overflow is evicted from the other
+ * segments in round-robin order.
+ */
+@ThreadSafe
+public class SegmentedCountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimmable {
+
+    private static final int MAX_SEGMENT_COUNT = 64;
+
+    private final CountingMemoryCache<K, V>[] mSegments;
+    private final int mSegmentMask;
+
+    // 客户端释放条目之后，释放的分段驱逐完自己的条目，总和仍然超出约束时由其他分段驱逐
+    // When a client releases an entry, the releasing segment evicts first and the other segments
+    // evict whatever the total is still over by.
+    private final SharedCacheBudget mSharedBudget = new SharedCacheBudget(new Runnable() {
+        @Override
+        public void run() {
+            maybeEvictEntries();
+        }
+    });
+
+    // 内存大小的约束条件的提供器
+    private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+
+    // 所有分段使用的约束条件，分段通过mSegmentParamsSupplier读取
+    private volatile MemoryCacheParams mMemoryCacheParams;
+
+    //上一次检查缓存信息的时间，volatile是为了在不需要更新时不用获取锁
+    private volatile long mLastCacheParamsCheck;
+
+    // 下一次从哪个分段开始驱逐
+    private final AtomicInteger mNextEvictionSegment = new AtomicInteger();
+
+    private final Supplier<MemoryCacheParams> mSegmentParamsSupplier =
+            new Supplier<MemoryCacheParams>() {
+                @Override
+                public MemoryCacheParams get() {
+                    return mMemoryCacheParams;
+                }
+            };
+
+    /**
+     * 使用和CPU核数相同的分段数
+     * Creates a cache with one segment per available processor.
+     */
+    public SegmentedCountingMemoryCache(
+            ValueDescriptor<V> valueDescriptor,
+            CountingMemoryCache.CacheTrimStrategy cacheTrimStrategy,
+            Supplier<MemoryCacheParams> memoryCacheParamsSupplier) {
+        this(
+                valueDescriptor,
+                cacheTrimStrategy,
+                memoryCacheParamsSupplier,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param segmentCount the number of segments, rounded up to the next power of two
+     */
+    public SegmentedCountingMemoryCache(
+            ValueDescriptor<V> valueDescriptor,
+            CountingMemoryCache.CacheTrimStrategy cacheTrimStrategy,
+            Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+            int segmentCount) {
+        this(
+                new CountingMemoryCache.Builder<K, V>(
+                        valueDescriptor,
+                        cacheTrimStrategy,
+                        memoryCacheParamsSupplier),
+                segmentCount);
+    }
+
+    /**
+     * 每个分段使用builder中的选项，但是有自己的驱逐策略实例、频率估计和时间轮，因为一个key只会落在一个分段中。
+     * 每个分段按照自己的条目检查每个优先级保留的份额，所以每个分段保留的是份额除以分段数
+     * Every segment gets the options of the builder, with its own instance of the eviction
+     * policy, frequency sketch and timer wheel, since a key only ever maps to one segment. Every
+     * segment checks the reserved shares against its own entries, so each segment reserves its
+     * part of every share, divided evenly between the segments.
+     *
+     * @param segmentCount the number of segments, rounded up to the next power of two
+     * @see CountingMemoryCache.Builder#buildSegmented
+     */
+    SegmentedCountingMemoryCache(
+            CountingMemoryCache.Builder<K, V> builder,
+            int segmentCount) {
+        Preconditions.checkArgument(segmentCount > 0);
+        mMemoryCacheParamsSupplier = builder.mMemoryCacheParamsSupplier;
+        mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        mLastCacheParamsCheck = SystemClock.uptimeMillis();
+
+        int size = 1;
+        while (size < Math.min(segmentCount, MAX_SEGMENT_COUNT)) {
+            size <<= 1;
+        }
+        // 不能创建泛型数组，这个数组只保存CountingMemoryCache<K, V>，而且不会离开这个类，所以转换是安全的
+        // Generic arrays cannot be created; the array only ever holds CountingMemoryCache<K, V>
+        // and never leaves this class, so the cast is safe.
+        @SuppressWarnings("unchecked")
+        CountingMemoryCache<K, V>[] segments =
+                (CountingMemoryCache<K, V>[]) new CountingMemoryCache<?, ?>[size];
+        mSegments = segments;
+        mSegmentMask = size - 1;
+        // 分段从mSegmentParamsSupplier读取约束条件，这样所有分段看到的都是这里更新的同一份约束
+        // The segments read the params through mSegmentParamsSupplier, so that they all see the
+        // params updated here.
+        CountingMemoryCache.Builder<K, V> segmentBuilder =
+                new CountingMemoryCache.Builder<K, V>(
+                        builder.mValueDescriptor,
+                        builder.mCacheTrimStrategy,
+                        mSegmentParamsSupplier)
+                        .setMaintenanceExecutor(builder.mMaintenanceExecutor)
+                        .setTinyLfuAdmission(builder.mUseTinyLfuAdmission)
+                        .setExpiryPolicy(builder.mExpiryPolicy)
+                        .setRefreshPolicy(builder.mRefreshPolicy)
+                        .setEvictionPolicyType(builder.mEvictionPolicyType)
+                        .setUriIndexEnabled(builder.mUriIndexEnabled);
+        double[] reservedShares = builder.getReservedShares(size);
+        for (int i = 0; i < size; i++) {
+            mSegments[i] = new CountingMemoryCache<>(segmentBuilder, reservedShares, mSharedBudget);
+        }
+    }
+
+    /**
+     * 根据key的hash值选择分段，先打散hash值，避免低位分布不均匀的hashCode()都落在同一个分段
+     * Returns the segment owning the given key. The hash is spread first, since only its low bits
+     * are used to pick the segment.
+     */
+    @VisibleForTesting
+    CountingMemoryCache<K, V> segmentFor(K key) {
+        return mSegments[segmentIndexFor(key)];
+    }
+
+    private int segmentIndexFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & mSegmentMask;
+    }
+
+    /** Splits the keys by the segment owning them. A segment with no key gets null. */
+    private ArrayList<ArrayList<K>> groupBySegment(Iterable<K> keys) {
+        ArrayList<ArrayList<K>> keysBySegment = new ArrayList<>(mSegments.length);
+        for (int i = 0; i < mSegments.length; i++) {
+            keysBySegment.add(null);
+        }
+        for (K key : keys) {
+            int index = segmentIndexFor(Preconditions.checkNotNull(key));
+            ArrayList<K> segmentKeys = keysBySegment.get(index);
+            if (segmentKeys == null) {
+                segmentKeys = new ArrayList<>();
+                keysBySegment.set(index, segmentKeys);
+            }
+            segmentKeys.add(key);
+        }
+        return keysBySegment;
+    }
+
+    /**
+     * 所有分段共享同一个估计器，所以它估计的是整个缓存的命中率
+     * All the segments record to the same estimator, which thus sees the accesses to the whole
+     * cache.
+     *
+     * @see CountingMemoryCache#setMissRatioCurveEstimator
+     */
+    public void setMissRatioCurveEstimator(@Nullable MissRatioCurveEstimator<K> estimator) {
+        for (int i = 0; i < mSegments.length; i++) {
+            mSegments[i].setMissRatioCurveEstimator(estimator);
+        }
+    }
+
+    @VisibleForTesting
+    int getSegmentCount() {
+        return mSegments.length;
+    }
+
+    @Override
+    public CloseableReference<V> cache(K key, CloseableReference<V> valueRef) {
+        return cache(key, valueRef, null);
+    }
+
+    /**
+     * @see CountingMemoryCache#cache(Object, CloseableReference,
+     * CountingMemoryCache.EntryStateObserver)
+     */
+    public CloseableReference<V> cache(
+            K key,
+            CloseableReference<V> valueRef,
+            CountingMemoryCache.EntryStateObserver<K> observer) {
+        return cache(key, valueRef, observer, CountingMemoryCache.DEFAULT_COST);
+    }
+
+    /**
+     * @see CountingMemoryCache#cache(Object, CloseableReference,
+     * CountingMemoryCache.EntryStateObserver, int)
+     */
+    public CloseableReference<V> cache(
+            K key,
+            CloseableReference<V> valueRef,
+            @Nullable CountingMemoryCache.EntryStateObserver<K> observer,
+            int cost) {
+        return cache(key, valueRef, observer, cost, CountingMemoryCache.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * @see CountingMemoryCache#cache(Object, CloseableReference,
+     * CountingMemoryCache.EntryStateObserver, int, Priority)
+     */
+    public CloseableReference<V> cache(
+            K key,
+            CloseableReference<V> valueRef,
+            @Nullable CountingMemoryCache.EntryStateObserver<K> observer,
+            int cost,
+            Priority priority) {
+        Preconditions.checkNotNull(key);
+        maybeUpdateCacheParams();
+        CloseableReference<V> clientRef =
+                segmentFor(key).cache(key, valueRef, observer, cost, priority);
+        maybeEvictEntries();
+        return clientRef;
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<V> get(K key) {
+        Preconditions.checkNotNull(key);
+        maybeUpdateCacheParams();
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * 每个分段只获取一次锁，所有分段都插入完成之后只检查一次总的约束
+     * Takes the lock of each segment involved once, and checks the total constraints once at the
+     * end.
+     */
+    @Override
+    public Map<K, CloseableReference<V>> cacheAll(Map<K, CloseableReference<V>> values) {
+        Preconditions.checkNotNull(values);
+        maybeUpdateCacheParams();
+        ArrayList<Map<K, CloseableReference<V>>> valuesBySegment =
+                new ArrayList<>(mSegments.length);
+        for (int i = 0; i < mSegments.length; i++) {
+            valuesBySegment.add(null);
+        }
+        for (Map.Entry<K, CloseableReference<V>> value : values.entrySet()) {
+            int index = segmentIndexFor(Preconditions.checkNotNull(value.getKey()));
+            Map<K, CloseableReference<V>> segmentValues = valuesBySegment.get(index);
+            if (segmentValues == null) {
+                segmentValues = new HashMap<>();
+                valuesBySegment.set(index, segmentValues);
+            }
+            segmentValues.put(value.getKey(), value.getValue());
+        }
+        Map<K, CloseableReference<V>> clientRefs = new HashMap<>();
+        for (int i = 0; i < mSegments.length; i++) {
+            if (valuesBySegment.get(i) != null) {
+                clientRefs.putAll(mSegments[i].cacheAll(valuesBySegment.get(i)));
+            }
+        }
+        maybeEvictEntries();
+        return clientRefs;
+    }
+
+    /** Takes the lock of each segment involved once. */
+    @Override
+    public Map<K, CloseableReference<V>> getAll(Iterable<K> keys) {
+        Preconditions.checkNotNull(keys);
+        maybeUpdateCacheParams();
+        ArrayList<ArrayList<K>> keysBySegment = groupBySegment(keys);
+        Map<K, CloseableReference<V>> clientRefs = new HashMap<>();
+        for (int i = 0; i < mSegments.length; i++) {
+            if (keysBySegment.get(i) != null) {
+                clientRefs.putAll(mSegments[i].getAll(keysBySegment.get(i)));
+            }
+        }
+        return clientRefs;
+    }
+
+    /**
+     * @see CountingMemoryCache#getOrCompute(Object, CountingMemoryCache.ValueLoader)
+     */
+    @Nullable
+    public CloseableReference<V> getOrCompute(
+            K key,
+            CountingMemoryCache.ValueLoader<K, V> loader)
+            throws InterruptedException, ExecutionException {
+        Preconditions.checkNotNull(key);
+        maybeUpdateCacheParams();
+        CloseableReference<V> clientRef = segmentFor(key).getOrCompute(key, loader);
+        maybeEvictEntries();
+        return clientRef;
+    }
+
+    /**
+     * @see CountingMemoryCache#reuse(Object)
+     */
+    @Nullable
+    public CloseableReference<V> reuse(K key) {
+        Preconditions.checkNotNull(key);
+        return segmentFor(key).reuse(key);
+    }
+
+    @Override
+    public int removeAll(Predicate<K> predicate) {
+        int removed = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            removed += segment.removeAll(predicate);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * 同一个URI的key可能落在任何分段中，所以每个分段都要查找自己的条目
+     * The keys of a URI may fall in any segment, so every segment looks for the URI among its own
+     * entries, through its URI index if enabled.
+     *
+     * @see CountingMemoryCache#removeAllWithUri
+     */
+    public int removeAllWithUri(Uri uri) {
+        int removed = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            removed += segment.removeAllWithUri(uri);
+        }
+        return removed;
+    }
+
+    /** Takes the lock of each segment involved once. */
+    @Override
+    public int removeKeys(Iterable<K> keys) {
+        Preconditions.checkNotNull(keys);
+        ArrayList<ArrayList<K>> keysBySegment = groupBySegment(keys);
+        int removed = 0;
+        for (int i = 0; i < mSegments.length; i++) {
+            if (keysBySegment.get(i) != null) {
+                removed += mSegments[i].removeKeys(keysBySegment.get(i));
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean contains(Predicate<K> predicate) {
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            if (segment.contains(predicate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    /** @see CountingMemoryCache#containsUri */
+    public boolean containsUri(Uri uri) {
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            if (segment.containsUri(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 清空条目
+     * Removes all the items from the cache. */
+    public void clear() {
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 设置每个分段的分片驱逐
+     * Has every segment evict in slices.
+     *
+     * @see CountingMemoryCache#setTrimSlice
+     */
+    public void setTrimSlice(int maxEntries, long maxDurationUs) {
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            segment.setTrimSlice(maxEntries, maxDurationUs);
+        }
+    }
+
+    /**
+     * 每个分段按照相同的比率削减
+     * Trims every segment by the ratio of the given trim type. */
+    @Override
+    public void trim(MemoryTrimType trimType) {
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            segment.trim(trimType);
+        }
+    }
+
+    /**
+     * 根据给定的时间去修改更新缓存配置，分段的配置也会跟着改变
+     * Updates the cache params (constraints) if enough time has passed since the last update.
+     * The lock is only taken when an update is due, so that this cache has no lock of its own on
+     * the hot path.
+     */
+    private void maybeUpdateCacheParams() {
+        if (!isCacheParamsCheckDue()) {
+            return;
+        }
+        synchronized (this) {
+            if (!isCacheParamsCheckDue()) {
+                return;
+            }
+            mLastCacheParamsCheck = SystemClock.uptimeMillis();
+            mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        }
+    }
+
+    /**
+     * 立即重新读取缓存配置，然后让每个分段读取新的配置并驱逐放不下的条目
+     * Reads the cache params again right away, then has every segment pick them up and evict what
+     * no longer fits.
+     *
+     * @see CountingMemoryCache#refreshCacheParams
+     */
+    public void refreshCacheParams() {
+        synchronized (this) {
+            mLastCacheParamsCheck = SystemClock.uptimeMillis();
+            mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+        }
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            segment.refreshCacheParams();
+        }
+        maybeEvictEntries();
+    }
+
+    private boolean isCacheParamsCheckDue() {
+        return mLastCacheParamsCheck + CountingMemoryCache.PARAMS_INTERCHECK_INTERVAL_MS <=
+                SystemClock.uptimeMillis();
+    }
+
+    /**
+     * 写入的分段已经尽力驱逐了自己的条目，如果总和仍然超出约束，就轮流让其他分段驱逐
+     * The segment written to has already evicted what it could. If the total is still over the
+     * constraints, the other segments evict their exclusively owned items in turn.
+     */
+    private void maybeEvictEntries() {
+        MemoryCacheParams params = mMemoryCacheParams;
+        if (!mSharedBudget.isOverBudget(params)) {
+            return;
+        }
+        int start = mNextEvictionSegment.getAndIncrement();
+        for (int i = 0; i < mSegments.length && mSharedBudget.isOverBudget(params); i++) {
+            mSegments[(start + i) & mSegmentMask].maybeEvictEntries();
+        }
+    }
+
+    /** Gets the total number of all currently cached items. */
+    public int getCount() {
+        int count = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            count += segment.getCount();
+        }
+        return count;
+    }
+
+    /** Gets the total size in bytes of all currently cached items. */
+    public long getSizeInBytes() {
+        long size = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            size += segment.getSizeInBytes();
+        }
+        return size;
+    }
+
+    /** Gets the number of the cached items that are used by at least one client. */
+    public int getInUseCount() {
+        int count = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            count += segment.getInUseCount();
+        }
+        return count;
+    }
+
+    /** Gets the total size in bytes of the cached items that are used by at least one client. */
+    public long getInUseSizeInBytes() {
+        long size = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            size += segment.getInUseSizeInBytes();
+        }
+        return size;
+    }
+
+    /** Gets the number of the exclusively owned items. */
+    public int getEvictionQueueCount() {
+        int count = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            count += segment.getEvictionQueueCount();
+        }
+        return count;
+    }
+
+    /** Gets the total size in bytes of the exclusively owned items. */
+    public long getEvictionQueueSizeInBytes() {
+        long size = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            size += segment.getEvictionQueueSizeInBytes();
+        }
+        return size;
+    }
+
+    /** Gets the number of lookups by get() and getAll() that found their item. */
+    public long getHitCount() {
+        long count = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            count += segment.getHitCount();
+        }
+        return count;
+    }
+
+    /** Gets the number of lookups by get() and getAll() that did not find their item. */
+    public long getMissCount() {
+        long count = 0;
+        for (CountingMemoryCache<K, V> segment : mSegments) {
+            count += segment.getMissCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：分段LRU。新条目先进入试用段，被再次命中过的条目进入保护段，驱逐时先驱逐试用段中的条目。
+ * 保护段最多占待销毁队列的80%，超出的部分降级回试用段，所以一次扫描只会冲掉试用段，不会冲掉反复使用的条目。
+ *
+ * Segmented LRU: the entries enter a probationary segment, and move to a protected segment once
+ * they are hit again. The probationary segment is evicted first, so a scan through many one-off
+ * keys only flushes it, not the entries that are used repeatedly.
+ *
+ * <p> The protected segment holds at most 80% of the eviction queue, by count and by size; its
+ * oldest entries are demoted back to the probationary segment beyond that.
+ */
+@NotThreadSafe
+final class SegmentedLruEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 条目在哪个段中
+    private static final int PROBATION = 0;
+    private static final int PROTECTED = 1;
+
+    // 保护段占待销毁队列的百分比
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    private final EntryQueue<K, V> mProbation = new EntryQueue<>();
+    private final EntryQueue<K, V> mProtected = new EntryQueue<>();
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return true;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        entry.policyState = PROBATION;
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.policyState = oldEntry.policyState;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+        entry.policyState = PROTECTED;
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        if (entry.policyState != PROTECTED) {
+            mProbation.addLast(entry);
+            return;
+        }
+        mProtected.addLast(entry);
+        while (isProtectedOverflowing()) {
+            Entry<K, V> demoted = mProtected.pollFirst();
+            demoted.policyState = PROBATION;
+            mProbation.addLast(demoted);
+        }
+    }
+
+    private boolean isProtectedOverflowing() {
+        return mProtected.getCount() * 100L > getCount() * (long) PROTECTED_PERCENTAGE
+                || mProtected.getSizeInBytes() > getSizeInBytes() * (PROTECTED_PERCENTAGE / 100.0);
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return mProbation.remove(entry) || mProtected.remove(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        return mProbation.getCount() > 0 ? mProbation.peekFirst() : mProtected.peekFirst();
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        return mProbation.getCount() > 0 ? mProbation.pollFirst() : mProtected.pollFirst();
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = mProbation.removeAll(predicate);
+        oldEntries.addAll(mProtected.removeAll(predicate));
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mProbation.getCount() + mProtected.getCount();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mProbation.getSizeInBytes() + mProtected.getSizeInBytes();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.administrator.mymemorycache.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 多个CountingMemoryCache共享的计数器，每个cache在自己的锁中修改完条目之后，将数量和大小的变化量发布到这里，
+ * 这样就能在不获取其他cache的锁的情况下知道所有cache加起来用了多少内存。
+ * Counters shared by several {@link CountingMemoryCache} instances. Each cache publishes the
+ * deltas of its own counters here, so that the total usage can be read without taking the lock
+ * of any other cache.
+ *
+ * <p> The values are updated independently of each other, so a reader may observe a state that
+ * is slightly stale. This is fine for admission and eviction decisions.
+ */
+@ThreadSafe
+class SharedCacheBudget {
+
+    private final AtomicInteger mCount = new AtomicInteger();
+    private final AtomicLong mSizeInBytes = new AtomicLong();
+    private final AtomicInteger mEvictionQueueCount = new AtomicInteger();
+    private final AtomicLong mEvictionQueueSizeInBytes = new AtomicLong();
+
+    // 一个cache自己驱逐完之后总和仍然超出约束时调用，让其他cache也驱逐
+    // Run when a cache has evicted what it could on its own and the total may still be over the
+    // constraints, so that the other caches evict too.
+    @Nullable
+    private final Runnable mOverBudgetCallback;
+
+    /**
+     * @param overBudgetCallback run by {@link #onEntryReleased}, which checks the total against
+     *     the constraints itself, or null
+     */
+    SharedCacheBudget(@Nullable Runnable overBudgetCallback) {
+        mOverBudgetCallback = overBudgetCallback;
+    }
+
+    /** Applies the deltas published by one of the caches. */
+    void update(
+            int countDelta,
+            long sizeDelta,
+            int evictionQueueCountDelta,
+            long evictionQueueSizeDelta) {
+        if (countDelta != 0) {
+            mCount.addAndGet(countDelta);
+        }
+        if (sizeDelta != 0) {
+            mSizeInBytes.addAndGet(sizeDelta);
+        }
+        if (evictionQueueCountDelta != 0) {
+            mEvictionQueueCount.addAndGet(evictionQueueCountDelta);
+        }
+        if (evictionQueueSizeDelta != 0) {
+            mEvictionQueueSizeInBytes.addAndGet(evictionQueueSizeDelta);
+        }
+    }
+
+    int getInUseCount() {
+        return mCount.get() - mEvictionQueueCount.get();
+    }
+
+    long getInUseSizeInBytes() {
+        return mSizeInBytes.get() - mEvictionQueueSizeInBytes.get();
+    }
+
+    /**
+     * 返回待销毁队列中超出限制的条目数量
+     * Returns how many exclusively owned entries have to go to meet the constraints.
+     */
+    int getEvictionQueueCountOverflow(MemoryCacheParams params) {
+        int maxCount = Math.min(
+                params.maxEvictionQueueEntries,
+                params.maxCacheEntries - getInUseCount());
+        return mEvictionQueueCount.get() - Math.max(maxCount, 0);
+    }
+
+    /**
+     * 返回待销毁队列中超出限制的字节数
+     * Returns how many bytes of exclusively owned entries have to go to meet the constraints.
+     */
+    long getEvictionQueueSizeOverflow(MemoryCacheParams params) {
+        long maxSize = Math.min(
+                params.maxEvictionQueueSize,
+                params.maxCacheSize - getInUseSizeInBytes());
+        return mEvictionQueueSizeInBytes.get() - Math.max(maxSize, 0);
+    }
+
+    boolean isOverBudget(MemoryCacheParams params) {
+        return getEvictionQueueCountOverflow(params) > 0
+                || getEvictionQueueSizeOverflow(params) > 0;
+    }
+
+    /**
+     * 一个cache中的条目被客户端释放之后调用。释放可能让条目变成待销毁的，这个cache会自己驱逐，
+     * 但是超出的部分可能在其他cache中，比如释放的cache中没有别的待销毁条目了
+     * Called by a cache once a client released one of its entries and the cache evicted what it
+     * could. Releasing may push the total over the constraints in a way only the other caches can
+     * make up for, for instance when the releasing cache has nothing else to evict.
+     *
+     * <p> Must not be called while holding the lock of any cache.
+     */
+    void onEntryReleased() {
+        if (mOverBudgetCallback != null) {
+            mOverBudgetCallback.run();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+/**
+ * {@link ExpiryPolicy}的实现者，所有条目使用相同的过期时间
+ * {@link ExpiryPolicy} implementation giving the same durations to all the entries.
+ */
+public class SimpleExpiryPolicy<K, V> implements ExpiryPolicy<K, V> {
+
+    private final long mExpireAfterWriteMs;
+    private final long mExpireAfterAccessMs;
+
+    /**
+     * @param expireAfterWriteMs the time to live of the entries, or {@link #NO_EXPIRY}
+     * @param expireAfterAccessMs the idle timeout of the entries, or {@link #NO_EXPIRY}
+     */
+    public SimpleExpiryPolicy(long expireAfterWriteMs, long expireAfterAccessMs) {
+        Preconditions.checkArgument(expireAfterWriteMs >= 0);
+        Preconditions.checkArgument(expireAfterAccessMs >= 0);
+        mExpireAfterWriteMs = expireAfterWriteMs;
+        mExpireAfterAccessMs = expireAfterAccessMs;
+    }
+
+    @Override
+    public long getExpireAfterWriteMs(K key, V value) {
+        return mExpireAfterWriteMs;
+    }
+
+    @Override
+    public long getExpireAfterAccessMs(K key, V value) {
+        return mExpireAfterAccessMs;
+    }
+}
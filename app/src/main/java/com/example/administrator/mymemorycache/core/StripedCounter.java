@@ -0,0 +1,52 @@
+package com.example.administrator.mymemorycache.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：命中和未命中的次数在不持有锁的get()中增加，如果所有线程都对同一个AtomicLong做CAS，
+ * 这个计数器本身就会成为竞争点。这里和StripedReadBuffer一样按线程分成多个条带，每个线程只增加自己的条带，
+ * 读取时把所有条带加起来。
+ *
+ * A counter incremented on the lock-free read path. As with {@link StripedReadBuffer}, a thread
+ * picks its stripe by its id, so concurrent threads rarely increment the same cell; the stripes
+ * are spaced apart so that they do not share a cache line. Reading sums the stripes, and may miss
+ * the increments made meanwhile.
+ */
+@ThreadSafe
+final class StripedCounter {
+
+    private static final int MAX_STRIPES = 16;
+    // 相邻条带之间间隔的long的个数，让每个条带独占一个缓存行
+    private static final int SPACING = 8;
+
+    private final AtomicLongArray mCells;
+    private final int mStripeMask;
+
+    StripedCounter() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int count = 1;
+        while (count < Math.min(processors, MAX_STRIPES)) {
+            count <<= 1;
+        }
+        mCells = new AtomicLongArray(count * SPACING);
+        mStripeMask = count - 1;
+    }
+
+    /** Adds one to the stripe of the calling thread. */
+    void increment() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        mCells.incrementAndGet(((h >>> 16) & mStripeMask) * SPACING);
+    }
+
+    /** Returns the sum of the stripes. */
+    long get() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += SPACING) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+}
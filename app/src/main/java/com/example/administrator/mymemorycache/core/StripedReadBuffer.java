@@ -0,0 +1,119 @@
+package com.example.administrator.mymemorycache.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：读操作不再获取cache的锁，而是把需要在锁中处理的事件写进这个缓冲区，等到下一次持有锁的时候批量处理。
+ * 缓冲区按线程分成多个条带，每个条带是一个固定大小的环形数组，写入只需要一次CAS，不同线程基本不会写同一个条带。
+ * 这个缓冲区是有损的：条带满了或者CAS失败的时候事件直接被丢弃，所以消费者必须能够容忍事件丢失。
+ *
+ * A lossy, striped, multiple-producer buffer used to record events on the read path without
+ * taking a lock. Each stripe is a small ring buffer; a thread picks its stripe by its id, so
+ * producers rarely write to the same stripe.
+ *
+ * <p> When a stripe is full, or when the producer loses the race for a slot, the event is
+ * dropped. Consumers must therefore tolerate missing events.
+ *
+ * <p> {@link #drainTo} must be called by a single consumer at a time, typically while holding
+ * the lock that guards the structures the events are applied to.
+ */
+@ThreadSafe
+final class StripedReadBuffer<E> {
+
+    /** The result of {@link #offer}. */
+    enum OfferResult {
+        /** The event was recorded. */
+        SUCCESS,
+        /** The event was recorded and the stripe is full enough to be worth draining. */
+        DRAIN_RECOMMENDED,
+        /** The event was dropped. */
+        DROPPED,
+    }
+
+    private static final int MAX_STRIPES = 16;
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private final Stripe<E>[] mStripes;
+    private final int mStripeMask;
+
+    StripedReadBuffer() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int count = 1;
+        while (count < Math.min(processors, MAX_STRIPES)) {
+            count <<= 1;
+        }
+        // 不能创建泛型数组，这个数组只保存Stripe<E>，而且不会离开这个类，所以转换是安全的
+        // Generic arrays cannot be created; the array only ever holds Stripe<E> and never leaves
+        // this class, so the cast is safe.
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] stripes = (Stripe<E>[]) new Stripe<?>[count];
+        mStripes = stripes;
+        for (int i = 0; i < count; i++) {
+            mStripes[i] = new Stripe<>();
+        }
+        mStripeMask = count - 1;
+    }
+
+    /** Records the event in the stripe of the calling thread. */
+    OfferResult offer(E e) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return mStripes[(h >>> 16) & mStripeMask].offer(e);
+    }
+
+    /**
+     * 将所有的事件按写入顺序取出，放入out中
+     * Moves all the recorded events to the given list, stripe by stripe.
+     */
+    void drainTo(ArrayList<E> out) {
+        for (Stripe<E> stripe : mStripes) {
+            stripe.drainTo(out);
+        }
+    }
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> mBuffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        private final AtomicLong mWriteCounter = new AtomicLong();
+        // Only written by the consumer.
+        private volatile long mReadCounter;
+
+        OfferResult offer(E e) {
+            long head = mReadCounter;
+            long tail = mWriteCounter.get();
+            long size = tail - head;
+            if (size >= BUFFER_SIZE) {
+                return OfferResult.DROPPED;
+            }
+            if (!mWriteCounter.compareAndSet(tail, tail + 1)) {
+                return OfferResult.DROPPED;
+            }
+            mBuffer.lazySet((int) (tail & BUFFER_MASK), e);
+            return (size + 1 >= DRAIN_THRESHOLD)
+                    ? OfferResult.DRAIN_RECOMMENDED
+                    : OfferResult.SUCCESS;
+        }
+
+        void drainTo(ArrayList<E> out) {
+            long head = mReadCounter;
+            long tail = mWriteCounter.get();
+            while (head < tail) {
+                int index = (int) (head & BUFFER_MASK);
+                E e = mBuffer.get(index);
+                if (e == null) {
+                    // The producer claimed the slot but has not published the event yet.
+                    break;
+                }
+                mBuffer.lazySet(index, null);
+                out.add(e);
+                head++;
+            }
+            mReadCounter = head;
+        }
+    }
+}
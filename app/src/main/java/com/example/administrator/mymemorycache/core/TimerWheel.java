@@ -0,0 +1,139 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.TimedEntry;
+
+import java.util.ArrayList;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：一个分层的时间轮，用来找出已经到期的条目而不用扫描所有的条目。
+ * 时间轮分为好几层，第一层每个桶代表约1秒，第二层约1分钟，第三层约1小时，第四层约37小时，最后一层放更远的条目。
+ * 条目按照到期时间放进对应层的桶中，桶是用条目自身的指针串起来的双向链表，所以加入和删除都是O(1)的。
+ * 时间前进的时候只处理经过了的桶：到期的条目被取出，还没到期的（比如放在较高层的条目）重新放入更低的层。
+ *
+ * A hierarchical timer wheel finding the entries whose time has come without scanning all of
+ * them. Each level of the wheel is an array of buckets spanning a power of two milliseconds:
+ * about a second, a minute, an hour and 37 hours, plus one last bucket for the later times.
+ *
+ * <p> Each bucket is a doubly-linked list threaded through the entries themselves, so scheduling
+ * and descheduling are O(1). When the time advances, only the buckets passed over are visited:
+ * the entries that are due are returned, and the others are moved to a finer level, so that every
+ * entry is visited a bounded number of times.
+ *
+ * <p> The wheel is not thread safe: {@link CountingMemoryCache} only uses it under its lock.
+ */
+@NotThreadSafe
+final class TimerWheel<K, V> {
+
+    // 每一层的桶的数量
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    // 每一层一个桶代表的时间，2^10毫秒，2^16毫秒，等等
+    private static final int[] SHIFT = {10, 16, 22, 27, 29};
+    // 条目的timerSlot中层号的位置，低位是桶号
+    // Where the level sits in the timerSlot of an entry, above the bucket.
+    private static final int LEVEL_SHIFT = 8;
+    private static final int BUCKET_MASK = (1 << LEVEL_SHIFT) - 1;
+
+    private final TimedEntry<K, V>[][] mWheel;
+    private long mTime;
+
+    TimerWheel(long time) {
+        // 不能创建泛型数组，这些数组只保存TimedEntry<K, V>，而且不会离开这个类，所以转换是安全的
+        // Generic arrays cannot be created; the arrays only ever hold TimedEntry<K, V> and never
+        // leave this class, so the cast is safe.
+        @SuppressWarnings("unchecked")
+        TimedEntry<K, V>[][] wheel =
+                (TimedEntry<K, V>[][]) new TimedEntry<?, ?>[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            @SuppressWarnings("unchecked")
+            TimedEntry<K, V>[] buckets = (TimedEntry<K, V>[]) new TimedEntry<?, ?>[BUCKETS[i]];
+            wheel[i] = buckets;
+        }
+        mWheel = wheel;
+        mTime = time;
+    }
+
+    /** Schedules the entry at the given time, moving it if it was already scheduled. */
+    void schedule(TimedEntry<K, V> entry, long time) {
+        if (entry.timerSlot >= 0) {
+            deschedule(entry);
+        }
+        entry.timerTime = time;
+        long duration = time - mTime;
+        int level = 0;
+        while (level < BUCKETS.length - 1 && duration >= 1L << SHIFT[level + 1]) {
+            level++;
+        }
+        int bucket = (int) ((time >>> SHIFT[level]) & (BUCKETS[level] - 1));
+        TimedEntry<K, V> head = mWheel[level][bucket];
+        entry.timerPrev = null;
+        entry.timerNext = head;
+        if (head != null) {
+            head.timerPrev = entry;
+        }
+        mWheel[level][bucket] = entry;
+        entry.timerSlot = (level << LEVEL_SHIFT) | bucket;
+    }
+
+    /** Removes the entry from the wheel, if it is scheduled. */
+    void deschedule(TimedEntry<K, V> entry) {
+        if (entry.timerSlot < 0) {
+            return;
+        }
+        if (entry.timerPrev != null) {
+            entry.timerPrev.timerNext = entry.timerNext;
+        } else {
+            mWheel[entry.timerSlot >>> LEVEL_SHIFT][entry.timerSlot & BUCKET_MASK] =
+                    entry.timerNext;
+        }
+        if (entry.timerNext != null) {
+            entry.timerNext.timerPrev = entry.timerPrev;
+        }
+        entry.timerPrev = null;
+        entry.timerNext = null;
+        entry.timerSlot = -1;
+    }
+
+    /**
+     * 将时间前进到time，到期的条目被取出放入expired中
+     * Advances the wheel to the given time. The entries scheduled at or before it are removed
+     * from the wheel and added to <code>expired</code>.
+     */
+    void advance(long time, ArrayList<TimedEntry<K, V>> expired) {
+        long previousTime = mTime;
+        if (time <= previousTime) {
+            return;
+        }
+        mTime = time;
+        for (int level = 0; level < BUCKETS.length; level++) {
+            long previousTicks = previousTime >>> SHIFT[level];
+            long currentTicks = time >>> SHIFT[level];
+            if (currentTicks == previousTicks && level > 0) {
+                break;
+            }
+            int buckets = (int) Math.min(currentTicks - previousTicks + 1, BUCKETS[level]);
+            for (int i = 0; i < buckets; i++) {
+                int bucket = (int) ((previousTicks + i) & (BUCKETS[level] - 1));
+                expireBucket(level, bucket, expired);
+            }
+        }
+    }
+
+    private void expireBucket(int level, int bucket, ArrayList<TimedEntry<K, V>> expired) {
+        TimedEntry<K, V> entry = mWheel[level][bucket];
+        mWheel[level][bucket] = null;
+        while (entry != null) {
+            TimedEntry<K, V> next = entry.timerNext;
+            entry.timerPrev = null;
+            entry.timerNext = null;
+            entry.timerSlot = -1;
+            if (entry.timerTime <= mTime) {
+                expired.add(entry);
+            } else {
+                schedule(entry, entry.timerTime);
+            }
+            entry = next;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：在另一个驱逐策略前面加上TinyLFU准入过滤。新的待销毁条目先进入一个小的LRU窗口，
+ * 窗口用完它的份额之后，窗口中最旧的条目作为候选者和被包装的策略选出的被驱逐者比较访问频率，
+ * 频率更高的进入被包装的策略，另一个被驱逐。
+ *
+ * Puts TinyLFU admission in front of another eviction policy. New exclusively owned entries
+ * enter a small LRU window first, so that bursts of accesses to a new key can build up its
+ * frequency. Once the window has used up its share, its oldest entry is a candidate for
+ * admission to the wrapped policy: it is compared with the victim of that policy, and only the
+ * one estimated to be accessed more often is kept.
+ *
+ * <p> Every hit and every insertion is recorded in a {@link FrequencySketch}.
+ */
+@NotThreadSafe
+final class TinyLfuEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 窗口占待销毁队列约束的百分比
+    // The share of the eviction queue constraints given to the window, in percent.
+    private static final int WINDOW_PERCENTAGE = 1;
+    // 只知道待销毁队列的字节数时，假定每个条目至少这么大来估计条目数
+    // The smallest entry assumed when the eviction queue is only bounded in bytes, to estimate
+    // how many entries it can hold.
+    private static final int ASSUMED_MIN_ENTRY_SIZE = 1024;
+
+    private final EvictionPolicy<K, V> mDelegate;
+    private final EntryQueue<K, V> mWindow = new EntryQueue<>();
+
+    @Nullable
+    private FrequencySketch<K> mFrequencySketch;
+    private MemoryCacheParams mParams;
+
+    TinyLfuEvictionPolicy(EvictionPolicy<K, V> delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+        mParams = params;
+        int capacity = getSketchCapacity(params);
+        if (mFrequencySketch == null) {
+            mFrequencySketch = new FrequencySketch<>(capacity);
+        } else {
+            mFrequencySketch.ensureCapacity(capacity);
+        }
+        mDelegate.setParams(params);
+    }
+
+    /**
+     * 计数器按待销毁队列能容纳的条目数分配，编码缓存的maxCacheEntries通常是Integer.MAX_VALUE，不能用它
+     * The number of keys the sketch tracks: the entries the eviction queue can hold, by count or,
+     * when the count is unbounded, by bytes assuming a smallest entry. maxCacheEntries alone will
+     * not do, as it is usually Integer.MAX_VALUE for the caches of encoded images.
+     */
+    private static int getSketchCapacity(MemoryCacheParams params) {
+        int capacity = Math.min(params.maxCacheEntries, params.maxEvictionQueueEntries);
+        if (capacity == Integer.MAX_VALUE) {
+            capacity = (int) Math.min(
+                    Integer.MAX_VALUE,
+                    params.maxEvictionQueueSize / ASSUMED_MIN_ENTRY_SIZE);
+        }
+        return capacity;
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return true;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        // 缓存一个新值通常意味着之前没有命中，也算作一次访问
+        mFrequencySketch.increment(entry.key);
+        mDelegate.onAdmitted(entry);
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.admitted = oldEntry.admitted;
+        mDelegate.onReplaced(oldEntry, newEntry);
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+        mFrequencySketch.increment(entry.key);
+        mDelegate.onAccess(entry);
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        if (entry.admitted) {
+            mDelegate.onExclusive(entry);
+        } else {
+            mWindow.addLast(entry);
+        }
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return mWindow.remove(entry) || mDelegate.removeExclusive(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        if (mWindow.getCount() == 0) {
+            return mDelegate.peekVictim();
+        }
+        if (mDelegate.getCount() == 0) {
+            return mWindow.peekFirst();
+        }
+        Entry<K, V> victim = mDelegate.peekVictim();
+        if (!isWindowFull()) {
+            return victim;
+        }
+        Entry<K, V> candidate = mWindow.peekFirst();
+        return admits(candidate, victim) ? victim : candidate;
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        if (mWindow.getCount() == 0) {
+            return mDelegate.selectVictim();
+        }
+        if (mDelegate.getCount() == 0) {
+            return mWindow.pollFirst();
+        }
+        if (!isWindowFull()) {
+            return mDelegate.selectVictim();
+        }
+        Entry<K, V> candidate = mWindow.pollFirst();
+        if (!admits(candidate, mDelegate.peekVictim())) {
+            return candidate;
+        }
+        Entry<K, V> victim = mDelegate.selectVictim();
+        candidate.admitted = true;
+        mDelegate.onExclusive(candidate);
+        return victim;
+    }
+
+    /** The candidate wins only if it is estimated to be accessed strictly more often. */
+    private boolean admits(Entry<K, V> candidate, Entry<K, V> victim) {
+        return mFrequencySketch.frequency(candidate.key) > mFrequencySketch.frequency(victim.key);
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        // 被拒绝的候选者从来没有进入过被包装的策略
+        // A rejected candidate never entered the wrapped policy.
+        if (entry.admitted) {
+            mDelegate.onEvicted(entry);
+        }
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+        mDelegate.onRemoved(entry);
+    }
+
+    /**
+     * 没有需要驱逐的条目时，超出窗口份额的条目不需要比较就直接进入被包装的策略
+     * While nothing has to be evicted, the entries over the share of the window are admitted to
+     * the wrapped policy without a contest.
+     */
+    @Override
+    public void onWithinConstraints() {
+        while (mWindow.getCount() > 0 && isWindowOverflowing()) {
+            Entry<K, V> entry = mWindow.pollFirst();
+            entry.admitted = true;
+            mDelegate.onExclusive(entry);
+        }
+        mDelegate.onWithinConstraints();
+    }
+
+    // 字节数的限制不算窗口中的第一个条目，所以窗口至少能容纳一个条目，即使待销毁队列小于100个字节
+    // The byte limit does not count the first entry of the window, so that the window holds at
+    // least one entry, even when 1% of the eviction queue is smaller than any entry.
+    private boolean isWindowOverflowing() {
+        return mWindow.getCount() > getMaxWindowCount()
+                || (mWindow.getCount() > 1 && mWindow.getSizeInBytes() > getMaxWindowSize());
+    }
+
+    private boolean isWindowFull() {
+        return mWindow.getCount() >= getMaxWindowCount()
+                || (mWindow.getCount() > 1 && mWindow.getSizeInBytes() >= getMaxWindowSize());
+    }
+
+    private int getMaxWindowCount() {
+        return Math.max(1, mParams.maxEvictionQueueEntries / 100 * WINDOW_PERCENTAGE);
+    }
+
+    private long getMaxWindowSize() {
+        return mParams.maxEvictionQueueSize / 100 * WINDOW_PERCENTAGE;
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = mDelegate.removeAll(predicate);
+        oldEntries.addAll(mWindow.removeAll(predicate));
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mWindow.getCount() + mDelegate.getCount();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mWindow.getSizeInBytes() + mDelegate.getSizeInBytes();
+    }
+}
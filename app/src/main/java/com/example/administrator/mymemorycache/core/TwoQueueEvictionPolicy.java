@@ -0,0 +1,134 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.android.internal.util.Predicate;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 我的理解：2Q。新条目进入一个先进先出的队列A1in，只有在被驱逐之后又很快被重新缓存的key（记录在A1out中），
+ * 才会进入主LRU队列Am。所以只用了一次的条目在A1in中就被驱逐了，不会挤掉Am中的条目。
+ *
+ * 2Q: new entries enter a FIFO queue, A1in. When A1in holds more than its share, its oldest
+ * entry is evicted and its key remembered in A1out. A key cached again while it is in A1out has
+ * proven to be reused, so its entry goes to the main LRU queue, Am. Keys used once are thus
+ * evicted from A1in without displacing the entries of Am.
+ *
+ * <p> A1in holds 25% of the eviction queue, by count and by size, and A1out remembers as many
+ * keys as half the number of entries the queue holds.
+ */
+@NotThreadSafe
+final class TwoQueueEvictionPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    // 条目在哪个队列中
+    private static final int IN = 0;
+    private static final int MAIN = 1;
+
+    // A1in占待销毁队列的百分比
+    private static final int IN_PERCENTAGE = 25;
+    // A1out能记住的key的数量，占待销毁队列条目数的百分比
+    private static final int OUT_PERCENTAGE = 50;
+    private static final int MIN_OUT_CAPACITY = 16;
+
+    private final EntryQueue<K, V> mIn = new EntryQueue<>();
+    private final EntryQueue<K, V> mMain = new EntryQueue<>();
+    private final GhostList<K> mOut = new GhostList<>();
+
+    private int mMaxCacheEntries = Integer.MAX_VALUE;
+
+    @Override
+    public void setParams(MemoryCacheParams params) {
+        mMaxCacheEntries = params.maxCacheEntries;
+    }
+
+    @Override
+    public boolean recordsAccesses() {
+        return false;
+    }
+
+    @Override
+    public void onAdmitted(Entry<K, V> entry) {
+        entry.policyState = mOut.remove(entry.key) ? MAIN : IN;
+    }
+
+    @Override
+    public void onReplaced(Entry<K, V> oldEntry, Entry<K, V> newEntry) {
+        newEntry.policyState = oldEntry.policyState;
+    }
+
+    @Override
+    public void onAccess(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onExclusive(Entry<K, V> entry) {
+        if (entry.policyState == MAIN) {
+            mMain.addLast(entry);
+        } else {
+            mIn.addLast(entry);
+        }
+    }
+
+    @Override
+    public boolean removeExclusive(Entry<K, V> entry) {
+        return mIn.remove(entry) || mMain.remove(entry);
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> peekVictim() {
+        return isInOverflowing() ? mIn.peekFirst() : mMain.peekFirst();
+    }
+
+    @Nullable
+    @Override
+    public Entry<K, V> selectVictim() {
+        return isInOverflowing() ? mIn.pollFirst() : mMain.pollFirst();
+    }
+
+    /** Whether the victim is taken from A1in. */
+    private boolean isInOverflowing() {
+        if (mIn.getCount() == 0) {
+            return false;
+        }
+        return mMain.getCount() == 0
+                || mIn.getCount() * 100L > getCount() * (long) IN_PERCENTAGE
+                || mIn.getSizeInBytes() > getSizeInBytes() * (IN_PERCENTAGE / 100.0);
+    }
+
+    @Override
+    public void onEvicted(Entry<K, V> entry) {
+        if (entry.policyState == IN) {
+            int capacity = Math.min(mMaxCacheEntries, Math.max(MIN_OUT_CAPACITY, getCount()));
+            mOut.add(entry.key, (int) (capacity * (long) OUT_PERCENTAGE / 100));
+        }
+    }
+
+    @Override
+    public void onRemoved(Entry<K, V> entry) {
+    }
+
+    @Override
+    public void onWithinConstraints() {
+    }
+
+    @Override
+    public ArrayList<Entry<K, V>> removeAll(@Nullable Predicate<K> predicate) {
+        ArrayList<Entry<K, V>> oldEntries = mIn.removeAll(predicate);
+        oldEntries.addAll(mMain.removeAll(predicate));
+        return oldEntries;
+    }
+
+    @Override
+    public int getCount() {
+        return mIn.getCount() + mMain.getCount();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return mIn.getSizeInBytes() + mMain.getSizeInBytes();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.net.Uri;
+
+import com.example.administrator.mymemorycache.cacheKey.CacheKey;
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.Entry;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * 我的理解：CountingMemoryCache中键为CacheKey的条目按照URI建立的索引。通常一个URI只有一个条目，
+ * 所以这时map中直接保存这个条目，只有同一个URI有多个条目（比如不同的缩放选项）时才保存一个数组，
+ * 这样条目本身不需要为这个索引增加任何字段。
+ *
+ * The entries of a {@link CountingMemoryCache} whose key is a CacheKey, by URI string. A URI
+ * usually has a single entry, which the map then holds directly; only the URIs with several
+ * entries, such as several resize options, get an array. The entries themselves thus carry no
+ * field for this index.
+ *
+ * <p> {@link CountingMemoryCache} only modifies the index under its lock. {@link #containsUri}
+ * needs no lock: the map is concurrent, and its values are replaced rather than modified, so a
+ * reader sees either the entries before a change or those after it.
+ */
+final class UriIndex<K, V> {
+
+    // 值是一个Entry或者一个Entry[]，数组不会被修改，每次变化都换成一个新的数组
+    // The values are either an Entry or an Entry[]. An array is never modified: every change
+    // puts a new one.
+    private final ConcurrentHashMap<String, Object> mEntries = new ConcurrentHashMap<>();
+
+    void add(String uriString, Entry<K, V> entry) {
+        Object value = mEntries.get(uriString);
+        if (value == null) {
+            mEntries.put(uriString, entry);
+        } else if (value instanceof Entry) {
+            mEntries.put(uriString, new Entry<?, ?>[] {(Entry<?, ?>) value, entry});
+        } else {
+            Entry<?, ?>[] entries = (Entry<?, ?>[]) value;
+            Entry<?, ?>[] newEntries = new Entry<?, ?>[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = entry;
+            mEntries.put(uriString, newEntries);
+        }
+    }
+
+    void remove(String uriString, Entry<K, V> entry) {
+        Object value = mEntries.get(uriString);
+        if (value == entry) {
+            mEntries.remove(uriString);
+        } else if (value instanceof Entry<?, ?>[]) {
+            Entry<?, ?>[] entries = (Entry<?, ?>[]) value;
+            int index = indexOf(entries, entry);
+            if (index < 0) {
+                return;
+            }
+            if (entries.length == 2) {
+                mEntries.put(uriString, entries[1 - index]);
+                return;
+            }
+            Entry<?, ?>[] newEntries = new Entry<?, ?>[entries.length - 1];
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, newEntries.length - index);
+            mEntries.put(uriString, newEntries);
+        }
+    }
+
+    /**
+     * 返回给定URI的所有条目，返回的是一个副本，调用者可以在遍历时删除条目
+     * Returns the entries of the given URI. The list is a copy, so that the caller may remove
+     * entries while going through it.
+     */
+    ArrayList<Entry<K, V>> get(String uriString) {
+        ArrayList<Entry<K, V>> result = new ArrayList<>();
+        addEntries(mEntries.get(uriString), result);
+        return result;
+    }
+
+    /**
+     * 查找是否有由给定URI构建的条目，不需要持有锁，只检查这个URI下的条目
+     * Returns whether an entry indexed under the URI has a key built from it. May be called
+     * without the cache lock, and only looks at the entries indexed under the URI.
+     */
+    boolean containsUri(Uri uri) {
+        Object value = mEntries.get(uri.toString());
+        if (value instanceof Entry) {
+            return ((CacheKey) ((Entry<?, ?>) value).key).containsUri(uri);
+        }
+        if (value != null) {
+            for (Entry<?, ?> entry : (Entry<?, ?>[]) value) {
+                if (((CacheKey) entry.key).containsUri(uri)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    // 索引中只有add()放入的Entry<K, V>，所以转换是安全的
+    // The index only holds the Entry<K, V> put by add(), so the casts are safe.
+    @SuppressWarnings("unchecked")
+    private void addEntries(@Nullable Object value, ArrayList<Entry<K, V>> result) {
+        if (value instanceof Entry) {
+            result.add((Entry<K, V>) value);
+        } else if (value != null) {
+            for (Entry<?, ?> entry : (Entry<?, ?>[]) value) {
+                result.add((Entry<K, V>) entry);
+            }
+        }
+    }
+
+    private static int indexOf(Entry<?, ?>[] entries, Entry<?, ?> entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
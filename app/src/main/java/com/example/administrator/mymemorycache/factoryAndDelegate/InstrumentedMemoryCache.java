@@ -4,6 +4,8 @@ import com.android.internal.util.Predicate;
 import com.example.administrator.mymemorycache.core.MemoryCache;
 import com.example.administrator.mymemorycache.reference.CloseableReference;
 
+import java.util.Map;
+
 /**
  * Created by heshixiyang on 2017/3/26.
  */
@@ -11,9 +13,9 @@ import com.example.administrator.mymemorycache.reference.CloseableReference;
 public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
 
     private final MemoryCache<K, V> mDelegate;
-    private final MemoryCacheTracker mTracker;
+    private final MemoryCacheTracker<K> mTracker;
 
-    public InstrumentedMemoryCache(MemoryCache<K, V> delegate, MemoryCacheTracker tracker) {
+    public InstrumentedMemoryCache(MemoryCache<K, V> delegate, MemoryCacheTracker<K> tracker) {
         mDelegate = delegate;
         mTracker = tracker;
     }
@@ -35,6 +37,37 @@ public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
         return mDelegate.cache(key, value);
     }
 
+    @Override
+    public Map<K, CloseableReference<V>> cacheAll(Map<K, CloseableReference<V>> values) {
+        for (int i = 0; i < values.size(); i++) {
+            mTracker.onCachePut();
+        }
+        return mDelegate.cacheAll(values);
+    }
+
+    @Override
+    public Map<K, CloseableReference<V>> getAll(Iterable<K> keys) {
+        Map<K, CloseableReference<V>> result = mDelegate.getAll(keys);
+        for (K key : keys) {
+            if (result.containsKey(key)) {
+                mTracker.onCacheHit(key);
+            } else {
+                mTracker.onCacheMiss();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean remove(K key) {
+        return mDelegate.remove(key);
+    }
+
+    @Override
+    public int removeKeys(Iterable<K> keys) {
+        return mDelegate.removeKeys(keys);
+    }
+
     @Override
     public int removeAll(Predicate<K> predicate) {
         return mDelegate.removeAll(predicate);
@@ -45,6 +78,11 @@ public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
         return mDelegate.contains(predicate);
     }
 
+    @Override
+    public boolean containsKey(K key) {
+        return mDelegate.containsKey(key);
+    }
+
     public MemoryCache<K, V> getDelegate() {
         return mDelegate;
     }
@@ -16,6 +16,7 @@ import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -25,6 +26,27 @@ import javax.annotation.concurrent.GuardedBy;
  * 创建一个对象然后共享被克隆的CloseableReference的SharedReference。这样一来基于同一个SharedReference的CloseableReference们
  * 就表示一个Value有多少个引用被指向。当调用CloseableReference的close()的时候表示一个指向Value的引用关闭了，一旦所有指向该Value
  * 的CloseableReference都关闭，就表示这个Value资源应该被释放了。
+ *
+ * 每次绘制bitmap都会调用get()，每个view都会clone()一次，所以这些方法都不获取锁：是否已经关闭保存在一个volatile字段中，
+ * close()用CAS保证只关闭一次。
+ * get(), clone() and isValid() run on every draw and for every view, so none of them takes a
+ * lock: the closed flag is a volatile field, and close() flips it with CAS so that the shared
+ * reference is only released once per reference.
+ *
+ * 缓存每次命中都要创建一个CloseableReference，除了对象本身还有ResourceReleaser、SharedReference和终结器或者PhantomReference，
+ * 所以有了租约：ofLease()创建的引用没有SharedReference，只保存值和它的所有者，关闭时把值还给所有者，克隆时向所有者再要一次。
+ * 和其他引用一样，不使用终结器时每个租约还有一个Destructor，并且要加入当前线程的分片，这样没有关闭的租约才能被回收，
+ * 所以一个租约是两个对象，而不是四个。
+ * The cache creates a reference on every hit, which along with the reference itself used to
+ * cost a ResourceReleaser, a SharedReference and a finalizer or a PhantomReference. A lease, made
+ * by {@link #ofLease}, has no shared reference: it holds the value and its {@link LeaseOwner},
+ * hands the value back to the owner when closed, and asks the owner for another hold when
+ * cloned.
+ *
+ * <p> Like any other reference, a lease still needs a way to be reclaimed if it is not closed:
+ * without finalizers it has its own {@link Destructor}, which joins and leaves the shard of its
+ * thread. A lease is thus two objects rather than four, about 96 bytes per cache hit on a 64-bit
+ * JVM with compressed pointers, instead of about 200.
  */
 public abstract class CloseableReference<T> implements Cloneable, Closeable {
 
@@ -46,14 +68,26 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
     private static volatile @Nullable
     UnclosedReferenceListener sUnclosedReferenceListener;
 
+    // 每多少个引用中抽样一个记录调用栈，1表示全部记录
+    private static volatile int sTraceSampleRate = 1;
+
     protected @Nullable Throwable mRelevantTrace;
 
-    @GuardedBy("this")
-    protected boolean mIsClosed = false;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<CloseableReference> CLOSED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(CloseableReference.class, "mClosed");
+
+    // 0表示没有关闭，1表示已经关闭
+    private volatile int mClosed;
 
+    // 租约没有SharedReference，为null
+    // Null for leases, which override every method using it.
     protected final SharedReference<T> mSharedReference;
 
-    private static volatile boolean sUseFinalizers = true;
+    // 默认不使用终结器，而是由Destructor回收没有关闭的引用，终结器会拖慢对象的分配和回收
+    // Off by default: the references not closed are reclaimed by their Destructor, as finalizers
+    // slow down both allocation and collection.
+    private static volatile boolean sUseFinalizers = false;
 
     /**
      * 调用者必须保证sharedReference的引用数量不会降到0以下，这样该引用在运行期才是有效的。
@@ -62,12 +96,18 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
     private CloseableReference(SharedReference<T> sharedReference) {
         mSharedReference = Preconditions.checkNotNull(sharedReference);
         sharedReference.addReference();
-        mRelevantTrace = getTraceOrNull();
+        mRelevantTrace = getTraceOrNull(this);
     }
     //这个构造器只由两个of()方法调用
     private CloseableReference(T t, ResourceReleaser<T> resourceReleaser) {
         mSharedReference = new SharedReference<T>(t, resourceReleaser);
-        mRelevantTrace = getTraceOrNull();
+        mRelevantTrace = getTraceOrNull(this);
+    }
+
+    //这个构造器只由租约调用
+    private CloseableReference() {
+        mSharedReference = null;
+        mRelevantTrace = getTraceOrNull(this);
     }
 
     /**
@@ -94,6 +134,34 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
         }
     }
 
+    /**
+     * 创建一个租约，调用者必须已经为它向所有者持有了一次值，关闭时调用所有者的release()
+     * Creates a lease on a value the caller has already taken a hold on from its owner. Closing
+     * the lease calls {@link LeaseOwner#release} once, and cloning it calls
+     * {@link LeaseOwner#reacquire} for the clone.
+     *
+     * <p> Like the other references, a lease that is garbage collected without being closed is
+     * handed back to its owner by its finalizer or by its Destructor.
+     */
+    public static @Nullable <T> CloseableReference<T> ofLease(
+            @Nullable T t,
+            LeaseOwner<T> owner) {
+        if (t == null) {
+            return null;
+        } else {
+            return makeLease(t, owner);
+        }
+    }
+
+    //ofLease()和租约克隆的实现方法
+    private static <T> CloseableReference<T> makeLease(T t, LeaseOwner<T> owner) {
+        if (sUseFinalizers) {
+            return new LeaseWithFinalizer<T>(t, owner);
+        } else {
+            return new LeaseWithDestructor<T>(t, owner);
+        }
+    }
+
     //of()的实现方法
     private static <T> CloseableReference<T> makeCloseableReference(
             @Nullable T t,
@@ -110,11 +178,8 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
      */
     @Override
     public void close() {
-        synchronized (this) {
-            if (mIsClosed) {
-                return;
-            }
-            mIsClosed = true;
+        if (!CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+            return;
         }
 
         mSharedReference.deleteReference();
@@ -123,8 +188,8 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
     /**
      * 如果没有关闭，返回Value
      */
-    public synchronized T get() {
-        Preconditions.checkState(!mIsClosed);
+    public T get() {
+        Preconditions.checkState(mClosed == 0);
         return mSharedReference.get();
     }
 
@@ -132,17 +197,23 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
      * 基于相同的SharedReference返回一个新的CloseableReference，SharedReference中的引用计数加一
      */
     @Override
-    public synchronized CloseableReference<T> clone() {
-        mRelevantTrace = getTraceOrNull();
+    public CloseableReference<T> clone() {
+        recaptureTrace();
         Preconditions.checkState(isValid());
         return makeCloseableReference();
     }
 
     //同上不过可能会返回null
-    public synchronized CloseableReference<T> cloneOrNull() {
-        mRelevantTrace = getTraceOrNull();
+    public CloseableReference<T> cloneOrNull() {
+        recaptureTrace();
         if (isValid()) {
-            return makeCloseableReference();
+            try {
+                return makeCloseableReference();
+            } catch (SharedReference.NullReferenceException e) {
+                // 另一个线程刚刚关闭了这个引用，而且它是最后一个引用
+                // Another thread has just closed this reference, and it was the last one.
+                return null;
+            }
         }
         return null;
     }
@@ -158,8 +229,8 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
     /**
      * 判断该closable-reference 是否已经关闭
      */
-    public synchronized boolean isValid() {
-        return !mIsClosed;
+    public boolean isValid() {
+        return mClosed == 0;
     }
 
     public static boolean isUnclosedTrackingEnabled() {
@@ -171,17 +242,32 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
     }
 
     /**
-     * 返回SharedReference，只有在测试的时候用
+     * 克隆时把调用栈更新为克隆的位置，没有被抽样的引用保持不变
+     * Moves the trace to the clone site, unless this reference is not sampled.
+     */
+    void recaptureTrace() {
+        Throwable trace = getTraceOrNull(this);
+        if (trace != null) {
+            setUnclosedRelevantTrance(trace);
+        }
+    }
+
+    /**
+     * 返回SharedReference，只有在测试的时候用。租约没有SharedReference，返回null
+     * Returns the shared reference, for tests only.
+     *
+     * @return null for a lease, which has no shared reference; see {@link #ofLease}
      */
     @VisibleForTesting
-    public synchronized SharedReference<T> getUnderlyingReferenceTestOnly() {
+    @Nullable
+    public SharedReference<T> getUnderlyingReferenceTestOnly() {
         return mSharedReference;
     }
 
     /**
      * debug的时候使用
      */
-    public synchronized int getValueHash() {
+    public int getValueHash() {
         return isValid() ? System.identityHashCode(mSharedReference.get()) : 0;
     }
 
@@ -243,115 +329,362 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
         sUnclosedReferenceListener = unclosedReferenceListener;
     }
 
+    /**
+     * 设置抽样的比例，每sampleRate个引用中只有一个记录创建时的调用栈，默认为1，也就是全部记录。
+     * 记录调用栈需要创建一个Throwable，太慢了不能在线上对每个引用都这么做。
+     * Sets the share of the references that capture the stack of their creation for the
+     * {@link UnclosedReferenceListener}: one in sampleRate, 1 by default, that is all of them.
+     * Capturing a Throwable for every reference is too slow for production; the other references
+     * are still reported when they leak, with a null trace.
+     *
+     * <p> A reference is sampled or not for its whole life, and a sampled reference moves its trace
+     * to the site of its last clone, as it does without sampling.
+     */
+    public static void setUnclosedReferenceSampleRate(int sampleRate) {
+        Preconditions.checkArgument(sampleRate >= 1);
+        sTraceSampleRate = sampleRate;
+    }
+
     public static void setUseFinalizers(boolean useFinalizers) {
         sUseFinalizers = useFinalizers;
     }
 
-    private static @Nullable Throwable getTraceOrNull() {
-        if (sUnclosedReferenceListener != null) {
-            return new Throwable();
+    /**
+     * 如果打开了跟踪，而且这个引用被抽样了，返回当前的调用栈。按引用的identityHashCode抽样，同一个引用每次的结果都一样
+     * Returns the current stack if tracking is on and the reference is sampled. The sampling
+     * hashes the identity of the reference, so a reference gets the same answer every time.
+     */
+    private static @Nullable Throwable getTraceOrNull(CloseableReference<?> ref) {
+        if (sUnclosedReferenceListener == null) {
+            return null;
         }
-        return null;
+        int sampleRate = sTraceSampleRate;
+        if (sampleRate > 1) {
+            int h = System.identityHashCode(ref) * 0x9E3779B9;
+            if (((h ^ (h >>> 16)) & Integer.MAX_VALUE) % sampleRate != 0) {
+                return null;
+            }
+        }
+        return new Throwable();
     }
 
     public interface UnclosedReferenceListener {
-        void onUnclosedReferenceFinalized(CloseableReference<?> ref, Throwable relevantTrace);
+        /**
+         * @param ref the reference, or null if it was reclaimed by its Destructor, in which case it
+         * is gone already
+         * @param relevantTrace the stack of its creation or last clone, or null if it was not
+         * sampled
+         */
+        void onUnclosedReferenceFinalized(
+                @Nullable CloseableReference<?> ref,
+                @Nullable Throwable relevantTrace);
     }
 
-    private static class CloseableReferenceWithoutFinalizer<T> extends CloseableReference<T> {
+    /**
+     * 租约的所有者，比如缓存中的一个条目，它自己记录有几个租约还没有关闭
+     * The owner of the values lent by leases, such as an entry of a cache, which counts the leases
+     * not closed yet.
+     */
+    public interface LeaseOwner<T> {
+        /**
+         * 为克隆再持有一次值，只在还有租约没有关闭时调用
+         * Takes one more hold on the value for the clone of a lease.
+         *
+         * @return false if every lease was closed meanwhile, in which case the value may be gone
+         */
+        boolean reacquire();
+
+        /** Called once for every lease closed, including the clones. */
+        void release(T value);
+    }
 
-        private static class Destructor extends PhantomReference<CloseableReference> {
+    private static class Lease<T> extends CloseableReference<T> {
 
-            @GuardedBy("Destructor.class")
-            private static Destructor sHead;
+        // 关闭之后被置为null
+        private volatile @Nullable T mValue;
+        private final LeaseOwner<T> mOwner;
 
-            private final SharedReference mSharedReference;
+        private Lease(T t, LeaseOwner<T> owner) {
+            super();
+            mValue = Preconditions.checkNotNull(t);
+            mOwner = Preconditions.checkNotNull(owner);
+        }
 
-            @GuardedBy("Destructor.class")
-            private Destructor next;
-            @GuardedBy("Destructor.class")
-            private Destructor previous;
-            @GuardedBy("this")
-            private boolean destroyed;
-
-            public Destructor(
-                    CloseableReference referent,
-                    ReferenceQueue<? super CloseableReference> referenceQueue) {
-                super(referent, referenceQueue);
-                mSharedReference = referent.mSharedReference;
-
-                synchronized (Destructor.class) {
-                    if (sHead != null) {
-                        sHead.next = this;
-                        previous = sHead;
-                    }
-                    sHead = this;
-                }
+        @Override
+        public void close() {
+            if (!CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                return;
             }
+            T value = mValue;
+            mValue = null;
+            release(value);
+        }
 
-            public synchronized boolean isDestroyed() {
-                return destroyed;
+        /** Hands the value back to the owner once the lease is closed. */
+        void release(T value) {
+            mOwner.release(value);
+        }
+
+        @Override
+        public T get() {
+            Preconditions.checkState(isValid());
+            return mValue;
+        }
+
+        @Override
+        public CloseableReference<T> clone() {
+            recaptureTrace();
+            T value = mValue;
+            Preconditions.checkState(isValid() && value != null && mOwner.reacquire());
+            return makeLease(value, mOwner);
+        }
+
+        @Override
+        public CloseableReference<T> cloneOrNull() {
+            recaptureTrace();
+            T value = mValue;
+            if (isValid() && value != null && mOwner.reacquire()) {
+                return makeLease(value, mOwner);
             }
+            return null;
+        }
 
-            public void destroy(boolean correctly) {
-                synchronized (this) {
-                    if (destroyed) {
-                        return;
-                    }
-                    destroyed = true;
-                }
+        @Override
+        public int getValueHash() {
+            T value = mValue;
+            return isValid() && value != null ? System.identityHashCode(value) : 0;
+        }
+    }
 
-                synchronized (Destructor.class) {
-                    if (previous != null) {
-                        previous.next = next;
-                    }
-                    if (next != null) {
-                        next.previous = previous;
-                    } else {
-                        sHead = previous;
-                    }
+    private static class LeaseDestructor<T> extends Destructor {
+
+        private final T mValue;
+        private final LeaseOwner<T> mOwner;
+
+        LeaseDestructor(Lease<T> referent, T value, LeaseOwner<T> owner) {
+            super(referent);
+            mValue = value;
+            mOwner = owner;
+        }
+
+        @Override
+        void release() {
+            mOwner.release(mValue);
+        }
+    }
+
+    private static class LeaseWithDestructor<T> extends Lease<T> {
+
+        private final Destructor mDestructor;
+
+        private LeaseWithDestructor(T t, LeaseOwner<T> owner) {
+            super(t, owner);
+            mDestructor = new LeaseDestructor<T>(this, t, owner);
+        }
+
+        @Override
+        void release(T value) {
+            mDestructor.destroy(true);
+        }
+
+        @Override
+        public void setUnclosedRelevantTrance(Throwable relevantTrance) {
+            super.setUnclosedRelevantTrance(relevantTrance);
+            mDestructor.mRelevantTrace = relevantTrance;
+        }
+    }
+
+    private static class LeaseWithFinalizer<T> extends Lease<T> {
+
+        private LeaseWithFinalizer(T t, LeaseOwner<T> owner) {
+            super(t, owner);
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                if (!isValid()) {
+                    return;
                 }
 
-                if (!correctly) {
-//                    FLog.w(
-//                            TAG,
-//                            "GCed without closing: %x %x (type = %s)",
-//                            System.identityHashCode(this),
-//                            System.identityHashCode(mSharedReference),
-//                            mSharedReference.get().getClass().getSimpleName());
+                UnclosedReferenceListener listener = sUnclosedReferenceListener;
+                if (listener != null) {
+                    listener.onUnclosedReferenceFinalized(this, mRelevantTrace);
                 }
-                mSharedReference.deleteReference();
+
+                close();
+            } finally {
+                super.finalize();
             }
         }
+    }
+
+    /**
+     * 我的理解：不使用终结器时，每个CloseableReference都有一个Destructor，它是指向这个引用的PhantomReference。
+     * 引用被显式关闭时由Destructor释放资源，引用没有关闭就被GC时Destructor进入REF_QUEUE，由回收线程释放资源。
+     * Destructor必须被强引用才会进入队列，所以它们被链在链表中。原来所有的Destructor在同一个链表中，
+     * 创建和关闭都要获取同一个锁，现在按线程分成多个分片，每个分片有自己的锁和链表，
+     * 创建时加入当前线程的分片，关闭时只锁自己所在的分片。回收线程每次从队列中取出一批Destructor。
+     *
+     * The reclaimer of the references that are not closed. Every reference has a Destructor, a
+     * PhantomReference to it that releases the value, either when the reference is closed or, if
+     * the reference is garbage collected without being closed, on the reclaimer thread once the
+     * collector has enqueued it.
+     *
+     * <p> Destructors must stay strongly reachable to be enqueued, so they are linked in lists.
+     * The lists are sharded by thread, each shard with its own lock: a destructor joins the shard
+     * of the creating thread and leaves the shard it joined, so creating and closing references on
+     * different threads rarely contend. The reclaimer thread drains the queue in batches.
+     */
+    private abstract static class Destructor extends PhantomReference<CloseableReference<?>> {
+
+        private static final int MAX_SHARDS = 64;
+        // 回收线程每次从队列中取出的最多Destructor数量
+        private static final int DRAIN_BATCH = 64;
+
+        private static final AtomicIntegerFieldUpdater<Destructor> DESTROYED_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Destructor.class, "destroyed");
 
-        private static final ReferenceQueue<CloseableReference> REF_QUEUE = new ReferenceQueue<>();
+        private static final ReferenceQueue<CloseableReference<?>> REF_QUEUE =
+                new ReferenceQueue<>();
+
+        private static final Shard[] SHARDS;
+        private static final int SHARD_MASK;
 
         static {
-            new Thread(new Runnable() {
+            int processors = Runtime.getRuntime().availableProcessors();
+            int count = 1;
+            while (count < Math.min(processors * 2, MAX_SHARDS)) {
+                count <<= 1;
+            }
+            SHARDS = new Shard[count];
+            for (int i = 0; i < count; i++) {
+                SHARDS[i] = new Shard();
+            }
+            SHARD_MASK = count - 1;
+
+            Thread thread = new Thread(new Runnable() {
                 @Override
                 public void run() {
                     for (;;) {
                         try {
-                            final Destructor ref = (Destructor) REF_QUEUE.remove();
-                            ref.destroy(false);
+                            Destructor ref = (Destructor) REF_QUEUE.remove();
+                            int drained = 0;
+                            do {
+                                ref.destroy(false);
+                            } while (++drained < DRAIN_BATCH
+                                    && (ref = (Destructor) REF_QUEUE.poll()) != null);
                         } catch (InterruptedException e) {
                             // Continue. This thread should never be terminated.
                         }
                     }
                 }
-            }, "CloseableReferenceDestructorThread").start();
+            }, "CloseableReferenceDestructorThread");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /** 一个分片，保存加入它的所有Destructor */
+        private static final class Shard {
+            @GuardedBy("this")
+            private Destructor mHead;
+        }
+
+        private final Shard mShard;
+
+        @GuardedBy("mShard")
+        private Destructor next;
+        @GuardedBy("mShard")
+        private Destructor previous;
+        // 0表示还没有销毁，1表示已经销毁
+        private volatile int destroyed;
+        // 引用的调用栈，引用被回收之后用来报告泄漏
+        // The trace of the reference, to report it once the reference is gone.
+        @Nullable
+        private volatile Throwable mRelevantTrace;
+
+        Destructor(CloseableReference<?> referent) {
+            super(referent, REF_QUEUE);
+            mRelevantTrace = referent.mRelevantTrace;
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            mShard = SHARDS[(h >>> 16) & SHARD_MASK];
+
+            synchronized (mShard) {
+                if (mShard.mHead != null) {
+                    mShard.mHead.next = this;
+                    previous = mShard.mHead;
+                }
+                mShard.mHead = this;
+            }
+        }
+
+        boolean isDestroyed() {
+            return destroyed != 0;
+        }
+
+        void destroy(boolean correctly) {
+            if (!DESTROYED_UPDATER.compareAndSet(this, 0, 1)) {
+                return;
+            }
+
+            synchronized (mShard) {
+                if (previous != null) {
+                    previous.next = next;
+                }
+                if (next != null) {
+                    next.previous = previous;
+                } else {
+                    mShard.mHead = previous;
+                }
+            }
+
+            if (!correctly) {
+                UnclosedReferenceListener listener = sUnclosedReferenceListener;
+                if (listener != null) {
+                    listener.onUnclosedReferenceFinalized(null, mRelevantTrace);
+                } else {
+//                    FLog.w(
+//                            TAG,
+//                            "GCed without closing: %x (type = %s)",
+//                            System.identityHashCode(this),
+//                            getClass().getSimpleName());
+                }
+            }
+            release();
+        }
+
+        /** Releases the value, exactly once. */
+        abstract void release();
+    }
+
+    private static class SharedReferenceDestructor<T> extends Destructor {
+
+        private final SharedReference<T> mSharedReference;
+
+        SharedReferenceDestructor(CloseableReference<T> referent) {
+            super(referent);
+            mSharedReference = referent.mSharedReference;
         }
 
+        @Override
+        void release() {
+            mSharedReference.deleteReference();
+        }
+    }
+
+    private static class CloseableReferenceWithoutFinalizer<T> extends CloseableReference<T> {
+
         private final Destructor mDestructor;
 
         private CloseableReferenceWithoutFinalizer(SharedReference<T> sharedReference) {
             super(sharedReference);
-            mDestructor = new Destructor(this, REF_QUEUE);
+            mDestructor = new SharedReferenceDestructor<T>(this);
         }
 
         private CloseableReferenceWithoutFinalizer(T t, ResourceReleaser<T> resourceReleaser) {
             super(t, resourceReleaser);
-            mDestructor = new Destructor(this, REF_QUEUE);
+            mDestructor = new SharedReferenceDestructor<T>(this);
         }
 
         @Override
@@ -359,6 +692,12 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
             mDestructor.destroy(true);
         }
 
+        @Override
+        public void setUnclosedRelevantTrance(Throwable relevantTrance) {
+            super.setUnclosedRelevantTrance(relevantTrance);
+            mDestructor.mRelevantTrace = relevantTrance;
+        }
+
         @Override
         public boolean isValid() {
             return !mDestructor.isDestroyed();
@@ -378,12 +717,8 @@ public abstract class CloseableReference<T> implements Cloneable, Closeable {
         @Override
         protected void finalize() throws Throwable {
             try {
-                // We put synchronized here so that lint doesn't warn about accessing mIsClosed, which is
-                // guarded by this. Lint isn't aware of finalize semantics.
-                synchronized (this) {
-                    if (mIsClosed) {
-                        return;
-                    }
+                if (!isValid()) {
+                    return;
                 }
 
                 UnclosedReferenceListener listener = sUnclosedReferenceListener;
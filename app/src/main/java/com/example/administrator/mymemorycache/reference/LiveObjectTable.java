@@ -0,0 +1,172 @@
+package com.example.administrator.mymemorycache.reference;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：记录每个存活的对象被几个SharedReference包装，代替原来的 synchronized IdentityHashMap。
+ * 表按对象的identityHashCode分成多个条带，每个条带有自己的锁，所以不同线程创建和释放引用时基本不会竞争同一个锁；
+ * 每个条带是一个开放寻址的哈希表，key和计数分别放在两个数组中，计数不用装箱，增删都不分配内存，只有扩容时才分配。
+ *
+ * Counts the {@link SharedReference} instances wrapping each live object, by identity. The table
+ * is split in stripes by the identity hash of the object, each with its own lock, so that
+ * threads creating and releasing references rarely contend. A stripe is an open-addressing hash
+ * table with the objects and their counts in two parallel arrays: the counts are not boxed, and
+ * nothing is allocated except when a stripe grows.
+ */
+@ThreadSafe
+final class LiveObjectTable {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] mStripes;
+    private final int mStripeMask;
+
+    LiveObjectTable() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int count = 1;
+        while (count < Math.min(processors * 4, MAX_STRIPES)) {
+            count <<= 1;
+        }
+        mStripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            mStripes[i] = new Stripe();
+        }
+        mStripeMask = count - 1;
+    }
+
+    /** Adds one to the count of the object. */
+    void add(Object value) {
+        int hash = spread(System.identityHashCode(value));
+        Stripe stripe = mStripes[hash & mStripeMask];
+        synchronized (stripe) {
+            stripe.add(value, hash >>> 6);
+        }
+    }
+
+    /**
+     * 将对象的计数减一
+     * Removes one from the count of the object.
+     *
+     * @return false if the object was not counted
+     */
+    boolean remove(Object value) {
+        int hash = spread(System.identityHashCode(value));
+        Stripe stripe = mStripes[hash & mStripeMask];
+        synchronized (stripe) {
+            return stripe.remove(value, hash >>> 6);
+        }
+    }
+
+    /** Returns the count of the object, 0 if it is not counted. */
+    int get(Object value) {
+        int hash = spread(System.identityHashCode(value));
+        Stripe stripe = mStripes[hash & mStripeMask];
+        synchronized (stripe) {
+            return stripe.get(value, hash >>> 6);
+        }
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** One stripe: a linear probing table, from which removals shift the later keys back. */
+    private static final class Stripe {
+        @GuardedBy("this")
+        private Object[] mKeys = new Object[INITIAL_STRIPE_CAPACITY];
+        @GuardedBy("this")
+        private int[] mCounts = new int[INITIAL_STRIPE_CAPACITY];
+        @GuardedBy("this")
+        private int mSize;
+
+        void add(Object value, int hash) {
+            int mask = mKeys.length - 1;
+            int i = hash & mask;
+            while (mKeys[i] != null) {
+                if (mKeys[i] == value) {
+                    mCounts[i]++;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            mKeys[i] = value;
+            mCounts[i] = 1;
+            // 装载因子不超过1/2
+            if (++mSize * 2 > mKeys.length) {
+                resize();
+            }
+        }
+
+        boolean remove(Object value, int hash) {
+            int i = indexOf(value, hash);
+            if (i < 0) {
+                return false;
+            }
+            if (--mCounts[i] > 0) {
+                return true;
+            }
+            mSize--;
+            // 把后面属于更早位置的key往前移，这样查找时遇到空位就可以停止
+            // Shifts back the later keys whose slot is at or before the freed one, so that a
+            // lookup can still stop at the first empty slot.
+            int mask = mKeys.length - 1;
+            int free = i;
+            int j = i;
+            for (;;) {
+                j = (j + 1) & mask;
+                Object key = mKeys[j];
+                if (key == null) {
+                    break;
+                }
+                int home = (spread(System.identityHashCode(key)) >>> 6) & mask;
+                if (((j - home) & mask) >= ((j - free) & mask)) {
+                    mKeys[free] = key;
+                    mCounts[free] = mCounts[j];
+                    free = j;
+                }
+            }
+            mKeys[free] = null;
+            mCounts[free] = 0;
+            return true;
+        }
+
+        int get(Object value, int hash) {
+            int i = indexOf(value, hash);
+            return i >= 0 ? mCounts[i] : 0;
+        }
+
+        private int indexOf(Object value, int hash) {
+            int mask = mKeys.length - 1;
+            int i = hash & mask;
+            while (mKeys[i] != null) {
+                if (mKeys[i] == value) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void resize() {
+            Object[] oldKeys = mKeys;
+            int[] oldCounts = mCounts;
+            mKeys = new Object[oldKeys.length * 2];
+            mCounts = new int[oldKeys.length * 2];
+            int mask = mKeys.length - 1;
+            for (int k = 0; k < oldKeys.length; k++) {
+                Object key = oldKeys[k];
+                if (key != null) {
+                    int i = (spread(System.identityHashCode(key)) >>> 6) & mask;
+                    while (mKeys[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    mKeys[i] = key;
+                    mCounts[i] = oldCounts[k];
+                }
+            }
+        }
+    }
+}
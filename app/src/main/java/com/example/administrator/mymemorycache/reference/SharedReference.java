@@ -8,16 +8,13 @@ import android.support.annotation.VisibleForTesting;
 
 import com.example.administrator.mymemorycache.util.Preconditions;
 
-import java.util.IdentityHashMap;
-import java.util.Map;
-
-import javax.annotation.concurrent.GuardedBy;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
 
  * 我的理解：这就是一个包装Value的类，该类只被CloseableReference创建，当使用CloseableReference#of，
  * 创建一个CloseableReference时，会自动创建一个SharedReference对象，此时会传入一个Value，然后将本对象的mRefCount初始化为1，
- * 因为有一个CloseableReference使用了Value。除此之外还会在 static的IdentityHashMap sLiveObjects设置一个Value-int的键值对，
+ * 因为有一个CloseableReference使用了Value。除此之外还会在 static的sLiveObjects中设置一个Value-int的键值对，
  * 以表示该Value对象有几个SharedReference对象使用，因为相同的Value可以用多个SharedReference包装。
  *
  * 当使用CloseableReference#clone或cloneOrNull，创建一个CloseableReference时表示CloseableReference指向的是同一个对象
@@ -32,18 +29,36 @@ import javax.annotation.concurrent.GuardedBy;
  * 关于上面一个问题的解释：拿CountingMemoryCache来说，其在使用of()创建一个CloseableReference的时候，使用的ResourceReleaser是自定义的
  * 那么此时，也可以选择不释放资源，而是等到所有的SharedReference都失效的时候再释放，所以归根到底在使用的时候何时释放资源由ResourceReleaser
  * 决定。
+ *
+ * 引用计数使用CAS修改，get()和isValid()只读取volatile字段，所以这些方法都不需要获取锁。
+ * 只有让引用计数从1变成0的那一次deleteReference()会释放资源，而引用计数为0之后addReference()会失败，
+ * 所以资源只会被释放一次。
+ * The reference count is updated with CAS, and get() and isValid() read volatile fields, so
+ * none of these methods takes a lock. Only the deleteReference() taking the count from 1 to 0
+ * releases the value, and addReference() fails once the count is 0, so the value is released
+ * exactly once.
+ *
+ * 存活对象的记录按对象分成多个条带，每个条带有自己的锁，记录时不分配内存，见{@link LiveObjectTable}。
+ * 这个记录只用于调试，发布版本可以调用setLiveObjectTrackingEnabled(false)把它关掉，这样创建和释放引用都不需要任何锁。
+ * The live objects are tracked in a {@link LiveObjectTable}, which is striped by object and does
+ * not allocate. The tracking only serves debugging: release builds can turn it off with
+ * {@link #setLiveObjectTrackingEnabled}, after which creating and releasing references takes no
+ * lock at all.
  */
 @VisibleForTesting
 public class SharedReference<T> {
-    //这个Map保存所有的存活对象的引用，正如上面说的那样，对于一个存活对象，当第一个包装他的SharedReference
+    //这个表保存所有的存活对象的引用，正如上面说的那样，对于一个存活对象，当第一个包装他的SharedReference
     //失效的时候，这个对象的资源就已经被回收了。
-    @GuardedBy("itself")
-    private static final Map<Object, Integer> sLiveObjects = new IdentityHashMap<>();
+    private static final LiveObjectTable sLiveObjects = new LiveObjectTable();
+    private static volatile boolean sLiveObjectTrackingEnabled = true;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<SharedReference> REF_COUNT_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SharedReference.class, "mRefCount");
 
-    @GuardedBy("this")
-    private T mValue;
-    @GuardedBy("this")
-    private int mRefCount;
+    // 引用计数归零之后被置为null
+    private volatile T mValue;
+    private volatile int mRefCount;
 
     private final ResourceReleaser<T> mResourceReleaser;
 
@@ -59,51 +74,53 @@ public class SharedReference<T> {
         mValue = Preconditions.checkNotNull(value);
         mResourceReleaser = Preconditions.checkNotNull(resourceReleaser);
         mRefCount = 1;
-        addLiveReference(value);
+        if (sLiveObjectTrackingEnabled) {
+            addLiveReference(value);
+        }
+    }
+
+    /**
+     * 打开或关闭存活对象的记录，默认打开。应该在创建任何引用之前调用，关闭时已经记录的对象会留在表中直到被释放
+     * Turns the tracking of live objects on or off; it is on by default. Call this before any
+     * reference is created: the objects tracked when it is turned off stay tracked until their
+     * references are released.
+     */
+    public static void setLiveObjectTrackingEnabled(boolean enabled) {
+        sLiveObjectTrackingEnabled = enabled;
+    }
+
+    public static boolean isLiveObjectTrackingEnabled() {
+        return sLiveObjectTrackingEnabled;
     }
 
     /**
      * 只在构造函数中被调用，所以可以用来表示同一个Value被几个SharedReference包装了
      */
     private static void addLiveReference(Object value) {
-        synchronized (sLiveObjects) {
-            Integer count = sLiveObjects.get(value);
-            if (count == null) {
-                sLiveObjects.put(value, 1);
-            } else {
-                sLiveObjects.put(value, count + 1);
-            }
-        }
+        sLiveObjects.add(value);
     }
 
     /**
      * 这个方法只在deleteReference()中被调用，表示本SharedReference的mRefCount已经归零，然后对sLiveObjects进行操作。
      */
     private static void removeLiveReference(Object value) {
-        synchronized (sLiveObjects) {
-            Integer count = sLiveObjects.get(value);
-            if (count == null) {
-                // Uh oh.
-//                FLog.wtf(
-//                        "SharedReference",
-//                        "No entry in sLiveObjects for value of type %s",
-//                        value.getClass());
-            } else if (count == 1) {
-                sLiveObjects.remove(value);
-            } else {
-                sLiveObjects.put(value, count - 1);
-            }
+        if (!sLiveObjects.remove(value)) {
+            // Uh oh. 也可能是记录在这个对象被包装之后才打开
+//            FLog.wtf(
+//                    "SharedReference",
+//                    "No entry in sLiveObjects for value of type %s",
+//                    value.getClass());
         }
     }
 
-    public synchronized T get() {
+    public T get() {
         return mValue;
     }
 
     /**
      * 判断该SharedReference对象是否可用。只要有一个CloseableReference还存在即为可用
      */
-    public synchronized boolean isValid() {
+    public boolean isValid() {
         return mRefCount > 0;
     }
 
@@ -117,9 +134,16 @@ public class SharedReference<T> {
     /**
      * 又多了一个CloseableReference指向Value，先判断是否可用，然后将引用计数加一
      */
-    public synchronized void addReference() {
-        ensureValid();
-        mRefCount++;
+    public void addReference() {
+        for (;;) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                throw new NullReferenceException();
+            }
+            if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount + 1)) {
+                return;
+            }
+        }
     }
 
     /**
@@ -127,40 +151,41 @@ public class SharedReference<T> {
      */
     public void deleteReference() {
         if (decreaseRefCount() == 0) {
-            T deleted;
-            synchronized (this) {
-                deleted = mValue;
-                mValue = null;
-            }
+            // 只有一个线程能让引用计数归零，所以这里不需要同步
+            // Only one thread takes the count to 0, so nothing else touches the value now.
+            T deleted = mValue;
+            mValue = null;
             mResourceReleaser.release(deleted);
-            removeLiveReference(deleted);
+            if (sLiveObjectTrackingEnabled) {
+                removeLiveReference(deleted);
+            }
         }
     }
 
     /**
      * 将引用计数减一。
      */
-    private synchronized int decreaseRefCount() {
-        ensureValid();
-        Preconditions.checkArgument(mRefCount > 0);
-
-        mRefCount--;
-        return mRefCount;
-    }
-
-    /**
-     * 判断该SharedReference是否可用，不可用就抛出异常
-     */
-    private void ensureValid() {
-        if (!isValid(this)) {
-            throw new NullReferenceException();
+    private int decreaseRefCount() {
+        for (;;) {
+            int refCount = mRefCount;
+            if (refCount <= 0) {
+                throw new NullReferenceException();
+            }
+            if (REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount - 1)) {
+                return refCount - 1;
+            }
         }
     }
 
-    public synchronized int getRefCountTestOnly() {
+    public int getRefCountTestOnly() {
         return mRefCount;
     }
 
+    /** Returns how many references wrap the value, 0 if it is not tracked. */
+    public static int getLiveReferenceCountTestOnly(Object value) {
+        return sLiveObjects.get(value);
+    }
+
     public static class NullReferenceException extends RuntimeException {
         public NullReferenceException() {
             super("Null shared reference");
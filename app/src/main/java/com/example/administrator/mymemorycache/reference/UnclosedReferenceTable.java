@@ -0,0 +1,193 @@
+package com.example.administrator.mymemorycache.reference;
+
+import com.example.administrator.mymemorycache.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 我的理解：一个按调用位置汇总泄漏的UnclosedReferenceListener。配合CloseableReference#setUnclosedReferenceSampleRate()使用，
+ * 只有被抽样的引用带有调用栈，泄漏时取调用栈中第一个不属于本库的几帧作为调用位置，同一个位置的泄漏累加在一起。
+ * 表的大小有上限，满了之后新的位置只计入dropped，所以在线上长时间运行也不会无限增长。没有被抽样的泄漏只计入untraced。
+ * 比如CountingMemoryCache中clientCount一直不归零时，可以用dump()找出是哪里拿了get()返回的引用却没有关闭。
+ *
+ * An {@link CloseableReference.UnclosedReferenceListener} that aggregates the leaks by call
+ * site. Used along with {@link CloseableReference#setUnclosedReferenceSampleRate}, only the sampled
+ * references carry a trace: the call site of a leak is the first few frames of its trace outside
+ * of this library, and the leaks from the same site add up. The table holds a bounded number of
+ * sites; once it is full the leaks from new sites are only counted as dropped, so that it can
+ * run in production for long. The leaks of the references not sampled are counted as untraced.
+ *
+ * <p> For instance, when the client count of an entry of a CountingMemoryCache never drops back
+ * to zero, {@link #dump} tells where the references returned by get() are leaked.
+ */
+@ThreadSafe
+public class UnclosedReferenceTable implements CloseableReference.UnclosedReferenceListener {
+
+    private static final int DEFAULT_MAX_SITES = 64;
+    private static final int DEFAULT_FRAMES_PER_SITE = 4;
+
+    // 本库的根包名，它的子包中的类都不算调用位置，根包本身中的类（比如示例中的Activity）算
+    // The root package of this library. The classes of its subpackages are not call sites, those
+    // of the root package itself, such as the sample activity, are.
+    private static final String LIBRARY_PACKAGE_PREFIX;
+
+    static {
+        String name = CloseableReference.class.getName();
+        String referencePackage = name.substring(0, name.lastIndexOf('.'));
+        LIBRARY_PACKAGE_PREFIX =
+                referencePackage.substring(0, referencePackage.lastIndexOf('.') + 1);
+    }
+
+    /** 一个调用位置和它的泄漏次数 */
+    private static final class Site {
+        final String frames;
+        long count;
+
+        Site(String frames) {
+            this.frames = frames;
+        }
+    }
+
+    private final int mMaxSites;
+    private final int mFramesPerSite;
+
+    @GuardedBy("this")
+    private final HashMap<String, Site> mSites = new HashMap<>();
+    @GuardedBy("this")
+    private long mUntracedCount;
+    @GuardedBy("this")
+    private long mDroppedCount;
+
+    public UnclosedReferenceTable() {
+        this(DEFAULT_MAX_SITES, DEFAULT_FRAMES_PER_SITE);
+    }
+
+    /**
+     * @param maxSites the most call sites the table holds
+     * @param framesPerSite the number of frames telling one call site from another
+     */
+    public UnclosedReferenceTable(int maxSites, int framesPerSite) {
+        Preconditions.checkArgument(maxSites > 0 && framesPerSite > 0);
+        mMaxSites = maxSites;
+        mFramesPerSite = framesPerSite;
+    }
+
+    @Override
+    public void onUnclosedReferenceFinalized(
+            @Nullable CloseableReference<?> ref,
+            @Nullable Throwable relevantTrace) {
+        if (relevantTrace == null) {
+            synchronized (this) {
+                mUntracedCount++;
+            }
+            return;
+        }
+        // 在锁外拼接调用位置，泄漏都在回收线程或者终结器线程中报告，不在创建引用的路径上
+        String frames = getCallSite(relevantTrace.getStackTrace());
+        synchronized (this) {
+            Site site = mSites.get(frames);
+            if (site == null) {
+                if (mSites.size() >= mMaxSites) {
+                    mDroppedCount++;
+                    return;
+                }
+                site = new Site(frames);
+                mSites.put(frames, site);
+            }
+            site.count++;
+        }
+    }
+
+    /**
+     * 返回第一个不属于本库的几帧，如果整个调用栈都在本库中，返回最前面的几帧
+     * Returns the first frames outside of this library, or the first frames if the whole stack
+     * is in the library.
+     */
+    private String getCallSite(StackTraceElement[] stack) {
+        int first = 0;
+        while (first < stack.length && isLibraryFrame(stack[first])) {
+            first++;
+        }
+        if (first == stack.length) {
+            first = 0;
+        }
+        StringBuilder builder = new StringBuilder();
+        int end = Math.min(stack.length, first + mFramesPerSite);
+        for (int i = first; i < end; i++) {
+            if (i > first) {
+                builder.append('\n');
+            }
+            builder.append(stack[i]);
+        }
+        return builder.toString();
+    }
+
+    private static boolean isLibraryFrame(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.startsWith(LIBRARY_PACKAGE_PREFIX)
+                && className.indexOf('.', LIBRARY_PACKAGE_PREFIX.length()) >= 0;
+    }
+
+    /** The number of leaks reported, traced or not, including those of the dropped sites. */
+    public synchronized long getLeakCount() {
+        long count = mUntracedCount + mDroppedCount;
+        for (Site site : mSites.values()) {
+            count += site.count;
+        }
+        return count;
+    }
+
+    /**
+     * 按泄漏次数从多到少列出所有调用位置
+     * Describes the call sites, the most leaking first, along with the counts of the leaks that
+     * were not traced and of those from the sites the table had no room for.
+     */
+    public String dump() {
+        ArrayList<Site> sites;
+        long untracedCount;
+        long droppedCount;
+        synchronized (this) {
+            sites = new ArrayList<>(mSites.size());
+            for (Site site : mSites.values()) {
+                Site copy = new Site(site.frames);
+                copy.count = site.count;
+                sites.add(copy);
+            }
+            untracedCount = mUntracedCount;
+            droppedCount = mDroppedCount;
+        }
+        Collections.sort(sites, new Comparator<Site>() {
+            @Override
+            public int compare(Site lhs, Site rhs) {
+                return lhs.count < rhs.count ? 1 : (lhs.count == rhs.count ? 0 : -1);
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Unclosed references: ")
+                .append(sites.size()).append(" sites, ")
+                .append(untracedCount).append(" untraced, ")
+                .append(droppedCount).append(" dropped\n");
+        for (int i = 0; i < sites.size(); i++) {
+            Site site = sites.get(i);
+            builder.append(site.count).append(" at ")
+                    .append(site.frames.replace("\n", "\n    at "))
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Forgets all the leaks reported so far. */
+    public synchronized void reset() {
+        mSites.clear();
+        mUntracedCount = 0;
+        mDroppedCount = 0;
+    }
+}
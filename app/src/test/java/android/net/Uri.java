@@ -0,0 +1,29 @@
+package android.net;
+
+/**
+ * 单元测试中代替android.jar的Uri，android.jar中的Uri.parse()在测试中只返回null。只保存URI字符串
+ * Stands in for the Uri of android.jar in the unit tests, where Uri.parse() would only return
+ * null. Holds the URI string, and nothing else.
+ */
+public abstract class Uri {
+
+    private Uri() {
+    }
+
+    public static Uri parse(String uriString) {
+        return new StringUri(uriString);
+    }
+
+    private static final class StringUri extends Uri {
+        private final String mUriString;
+
+        StringUri(String uriString) {
+            mUriString = uriString;
+        }
+
+        @Override
+        public String toString() {
+            return mUriString;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * 单元测试中代替android.jar的SystemClock，时间不会自己前进，由测试设置
+ * Stands in for the SystemClock of android.jar in the unit tests. The time does not move by
+ * itself: the tests set it, so that expiry and refresh can be tested without sleeping.
+ */
+public final class SystemClock {
+
+    private static volatile long sUptimeMillis;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return sUptimeMillis;
+    }
+
+    public static void setUptimeMillis(long uptimeMillis) {
+        sUptimeMillis = uptimeMillis;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用给定的剩余空间和GC比例调整比例，检查阈值之间的滞后区和每次只调整一步
+ * Feeds given headrooms and collection shares to the supplier, and checks the hysteresis band
+ * between the thresholds and the single step per sample.
+ */
+public class AdaptiveMemoryCacheParamsSupplierTest {
+
+    private static final float DELTA = 1e-6f;
+
+    private final AdaptiveMemoryCacheParamsSupplier mSupplier =
+            new AdaptiveMemoryCacheParamsSupplier(CacheTestUtil.paramsSupplier(100, 1000), 0.25f);
+
+    @Test
+    public void testScaleHoldsBetweenTheThresholds() {
+        // 剩余空间在15%和35%之间，GC比例在1%和5%之间时不变
+        // The scale holds with a headroom between 15% and 35%, or a GC share between 1% and 5%.
+        assertFalse(mSupplier.adjustScale(0.25f, 0));
+        assertEquals(1, mSupplier.getScale(), DELTA);
+
+        assertTrue(mSupplier.adjustScale(0.10f, 0));
+        assertEquals(0.8f, mSupplier.getScale(), DELTA);
+        assertFalse(mSupplier.adjustScale(0.25f, 0));
+        assertFalse(mSupplier.adjustScale(0.34f, 0));
+        assertEquals(0.8f, mSupplier.getScale(), DELTA);
+
+        assertTrue(mSupplier.adjustScale(0.50f, 0));
+        assertEquals(0.85f, mSupplier.getScale(), DELTA);
+        assertFalse(mSupplier.adjustScale(0.50f, 0.03f));
+        assertEquals(0.85f, mSupplier.getScale(), DELTA);
+
+        // GC太多时即使剩余空间很多也缩小
+        // Too much collection shrinks the scale even with plenty of headroom.
+        assertTrue(mSupplier.adjustScale(0.50f, 0.10f));
+        assertEquals(0.68f, mSupplier.getScale(), DELTA);
+    }
+
+    @Test
+    public void testScaleMovesOneStepPerSample() {
+        float expected = 1;
+        for (int i = 0; i < 6; i++) {
+            assertTrue(mSupplier.adjustScale(0.05f, 0));
+            expected *= 0.8f;
+            assertEquals(expected, mSupplier.getScale(), DELTA);
+        }
+        // 不会低于最小比例
+        // The scale stops at the minimum.
+        assertTrue(mSupplier.adjustScale(0.05f, 0));
+        assertEquals(0.25f, mSupplier.getScale(), DELTA);
+        assertFalse(mSupplier.adjustScale(0.05f, 0));
+
+        for (int i = 1; i <= 15; i++) {
+            assertTrue(mSupplier.adjustScale(0.50f, 0));
+            assertEquals(0.25f + 0.05f * i, mSupplier.getScale(), DELTA);
+        }
+        assertFalse(mSupplier.adjustScale(0.50f, 0));
+        assertEquals(1, mSupplier.getScale(), DELTA);
+    }
+
+    @Test
+    public void testParamsFollowTheScale() {
+        MemoryCacheParams params = mSupplier.get();
+        float scale = mSupplier.getScale();
+        assertEquals((long) (1000 * scale), params.maxCacheSize);
+        assertEquals((long) (1000 * scale), params.maxEvictionQueueSize);
+        assertEquals(100, params.maxCacheEntries);
+        assertEquals(100, params.maxEvictionQueueEntries);
+        assertEquals(1000, params.maxCacheEntrySize);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.reference.ResourceReleaser;
+import com.example.administrator.mymemorycache.trimmable.MemoryTrimType;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试共用的值、参数和释放器，值是byte[]，大小就是数组的长度
+ * The values, params and releasers shared by the tests. The values are byte arrays, whose size
+ * is their length.
+ */
+final class CacheTestUtil {
+
+    static final ValueDescriptor<byte[]> BYTES_DESCRIPTOR = new ValueDescriptor<byte[]>() {
+        @Override
+        public int getSizeInBytes(byte[] value) {
+            return value.length;
+        }
+    };
+
+    static final CountingMemoryCache.CacheTrimStrategy HALF_TRIM_STRATEGY =
+            new CountingMemoryCache.CacheTrimStrategy() {
+                @Override
+                public double getTrimRatio(MemoryTrimType trimType) {
+                    return 0.5;
+                }
+            };
+
+    private CacheTestUtil() {
+    }
+
+    /** Params allowing the given number of entries, in use or not, of any reasonable size. */
+    static Supplier<MemoryCacheParams> paramsSupplier(int maxEntries) {
+        return paramsSupplier(maxEntries, Integer.MAX_VALUE);
+    }
+
+    static Supplier<MemoryCacheParams> paramsSupplier(int maxEntries, int maxSizeInBytes) {
+        final MemoryCacheParams params = new MemoryCacheParams(
+                maxSizeInBytes, maxEntries, maxSizeInBytes, maxEntries, maxSizeInBytes);
+        return new Supplier<MemoryCacheParams>() {
+            @Override
+            public MemoryCacheParams get() {
+                return params;
+            }
+        };
+    }
+
+    static <K> CountingMemoryCache.Builder<K, byte[]> newBuilder(int maxEntries) {
+        return new CountingMemoryCache.Builder<>(
+                BYTES_DESCRIPTOR, HALF_TRIM_STRATEGY, paramsSupplier(maxEntries));
+    }
+
+    /** A releaser counting the values it releases. */
+    static final class CountingReleaser implements ResourceReleaser<byte[]> {
+        final AtomicInteger releaseCount = new AtomicInteger();
+
+        @Override
+        public void release(byte[] value) {
+            releaseCount.incrementAndGet();
+        }
+
+        CloseableReference<byte[]> newValue(int sizeInBytes) {
+            return CloseableReference.of(new byte[sizeInBytes], this);
+        }
+    }
+
+    /** Caches a value of the given size under the key, and closes the client reference. */
+    static <K> void cacheAndRelease(
+            CountingMemoryCache<K, byte[]> cache,
+            K key,
+            CountingReleaser releaser,
+            int sizeInBytes) {
+        CloseableReference<byte[]> valueRef = releaser.newValue(sizeInBytes);
+        CloseableReference.closeSafely(cache.cache(key, valueRef));
+        valueRef.close();
+    }
+
+    /** Gets the key and closes the client reference right away, as an image view would later. */
+    static <K> boolean hit(CountingMemoryCache<K, byte[]> cache, K key) {
+        CloseableReference<byte[]> ref = cache.get(key);
+        CloseableReference.closeSafely(ref);
+        return ref != null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 我的理解：测量命中的吞吐量，每次操作是一次get()和关闭返回的引用。segments为0时是一个CountingMemoryCache，
+ * 否则是有这么多分段的SegmentedCountingMemoryCache，这样可以比较多个线程同时命中时分段的效果。
+ * 加上-prof gc运行可以看到每次命中分配的字节数gc.alloc.rate.norm：租约和它的Destructor一共96字节，
+ * 原来每次命中都创建新的SharedReference时大约200字节。
+ *
+ * Measures the throughput of the hits: an operation is a get() and the close of the reference it
+ * returns. With 0 segments the cache is a plain CountingMemoryCache, otherwise it is a
+ * SegmentedCountingMemoryCache with that many segments, so that the effect of the segments on
+ * concurrent hits shows.
+ *
+ * <p> Run with -prof gc for the bytes allocated per hit, gc.alloc.rate.norm: a hit allocates a
+ * lease and its Destructor, 96 bytes with finalizers off, where wrapping the value in a new
+ * SharedReference on every hit took about 200.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountingMemoryCacheBenchmark {
+
+    private static final int CACHE_ENTRIES = 2048;
+    private static final int HOT_KEYS = 1024;
+
+    @Param({"0", "4"})
+    public int segments;
+
+    private MemoryCache<Integer, byte[]> mCache;
+    // 事先装箱的key，这样测量的是缓存而不是装箱
+    // The keys, boxed up front so that the benchmark measures the cache rather than the boxing.
+    private final Integer[] mKeys = new Integer[HOT_KEYS];
+
+    @Setup
+    public void setUp() {
+        CountingMemoryCache.Builder<Integer, byte[]> builder =
+                CacheTestUtil.newBuilder(CACHE_ENTRIES);
+        mCache = segments == 0 ? builder.build() : builder.buildSegmented(segments);
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        for (int key = 0; key < HOT_KEYS; key++) {
+            mKeys[key] = key;
+            CloseableReference<byte[]> valueRef = releaser.newValue(1);
+            CloseableReference.closeSafely(mCache.cache(mKeys[key], valueRef));
+            valueRef.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean hit() {
+        return getAndClose();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean hitFromFourThreads() {
+        return getAndClose();
+    }
+
+    private boolean getAndClose() {
+        CloseableReference<byte[]> ref =
+                mCache.get(mKeys[ThreadLocalRandom.current().nextInt(HOT_KEYS)]);
+        if (ref == null) {
+            return false;
+        }
+        ref.close();
+        return true;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CountingMemoryCacheBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
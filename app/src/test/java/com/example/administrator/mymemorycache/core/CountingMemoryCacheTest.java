@@ -0,0 +1,780 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.os.SystemClock;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.reference.ResourceReleaser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.cacheAndRelease;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * CountingMemoryCache的测试，包括不持有锁的get()和释放、删除、驱逐之间的竞争
+ * Tests of CountingMemoryCache, including the lock-free get() racing with the releases, removals
+ * and evictions.
+ */
+public class CountingMemoryCacheTest {
+
+    private static final int THREADS = 4;
+    private static final int OPERATIONS_PER_THREAD = 20000;
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(THREADS * 2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        SystemClock.setUptimeMillis(0);
+    }
+
+    @Test
+    public void testGetRacesWithReleaseAndEviction() throws Exception {
+        final TrackingReleaser releaser = new TrackingReleaser();
+        // 比key少的容量，驱逐一直在发生
+        // Fewer entries than keys, so that evictions keep happening.
+        final CountingMemoryCache<Integer, byte[]> cache =
+                CacheTestUtil.<Integer>newBuilder(4).build();
+        final AtomicInteger hitCount = new AtomicInteger();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                Random random = new Random(Thread.currentThread().getId());
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    int key = random.nextInt(8);
+                    int operation = random.nextInt(10);
+                    if (operation < 7) {
+                        CloseableReference<byte[]> ref = cache.get(key);
+                        if (ref != null) {
+                            hitCount.incrementAndGet();
+                            // 持有引用期间值不能被释放
+                            // The value cannot be released while a reference is held.
+                            assertTrue(ref.isValid());
+                            assertFalse(releaser.isReleased(ref.get()));
+                            ref.close();
+                        }
+                    } else if (operation < 9) {
+                        CloseableReference<byte[]> valueRef = releaser.newValue();
+                        CloseableReference<byte[]> clientRef = cache.cache(key, valueRef);
+                        valueRef.close();
+                        if (clientRef != null) {
+                            assertFalse(releaser.isReleased(clientRef.get()));
+                            clientRef.close();
+                        }
+                    } else {
+                        cache.remove(key);
+                    }
+                }
+                return null;
+            }
+        });
+
+        assertEquals(0, cache.getInUseCount());
+        assertTrue(cache.getCount() <= 4);
+        assertEquals(cache.getCount(), cache.getEvictionQueueCount());
+        assertEquals(hitCount.get(), cache.getHitCount());
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(releaser.getCreatedCount(), releaser.getReleasedCount());
+    }
+
+    @Test
+    public void testConcurrentHitsKeepTheEntryInUse() throws Exception {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        final CountingMemoryCache<Integer, byte[]> cache =
+                CacheTestUtil.<Integer>newBuilder(4).build();
+        cacheAndRelease(cache, 1, releaser, 10);
+        final CountDownLatch held = new CountDownLatch(THREADS);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    CloseableReference<byte[]> ref = cache.get(1);
+                    assertNotNull(ref);
+                    held.countDown();
+                    release.await();
+                    ref.close();
+                    return null;
+                }
+            }));
+        }
+        assertTrue(held.await(10, TimeUnit.SECONDS));
+        assertEquals(1, cache.getInUseCount());
+        assertEquals(0, cache.getEvictionQueueCount());
+        release.countDown();
+        for (Future<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, cache.getInUseCount());
+        assertEquals(1, cache.getEvictionQueueCount());
+        assertEquals(0, releaser.releaseCount.get());
+    }
+
+    @Test
+    public void testTinyLfuAdmissionKeepsFrequentEntriesThroughAScan() {
+        assertEquals(0, countHotEntriesAfterScan(false));
+        assertTrue(countHotEntriesAfterScan(true) >= 30);
+    }
+
+    /**
+     * 缓存40个热点条目，每个命中3次，然后扫描1000个只访问一次的条目，返回剩下的热点条目数
+     * Caches 40 hot entries and hits each of them 3 times, then scans 1000 keys seen only once,
+     * and returns how many hot entries are left.
+     */
+    private static int countHotEntriesAfterScan(boolean useTinyLfuAdmission) {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(100)
+                .setTinyLfuAdmission(useTinyLfuAdmission)
+                .build();
+        for (int key = 0; key < 40; key++) {
+            cacheAndRelease(cache, key, releaser, 10);
+            for (int i = 0; i < 3; i++) {
+                CacheTestUtil.hit(cache, key);
+            }
+        }
+        for (int key = 1000; key < 2000; key++) {
+            cacheAndRelease(cache, key, releaser, 10);
+        }
+        int hotEntries = 0;
+        for (int key = 0; key < 40; key++) {
+            if (cache.containsKey(key)) {
+                hotEntries++;
+            }
+        }
+        return hotEntries;
+    }
+
+    @Test
+    public void testBurstOfClosesCollapsesIntoOneMaintenancePass() {
+        ManualExecutor executor = new ManualExecutor();
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        RecordingObserver observer = new RecordingObserver();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(16)
+                .setMaintenanceExecutor(executor)
+                .build();
+        ArrayList<CloseableReference<byte[]>> clientRefs = new ArrayList<>();
+        for (int key = 0; key < 8; key++) {
+            CloseableReference<byte[]> valueRef = releaser.newValue(10);
+            clientRefs.add(cache.cache(key, valueRef, observer));
+            valueRef.close();
+        }
+        executor.runAll();
+
+        // 关闭和通知都不在调用者的线程中执行，而是合并成一次维护任务
+        // Neither the closes nor the notifications run on the calling thread: they collapse
+        // into a single maintenance pass.
+        for (CloseableReference<byte[]> clientRef : clientRefs) {
+            clientRef.close();
+        }
+        cache.clear();
+        assertEquals(1, executor.getPendingCount());
+        assertTrue(observer.mExclusiveKeys.isEmpty());
+        assertEquals(0, releaser.releaseCount.get());
+
+        executor.runAll();
+        assertEquals(8, observer.mExclusiveKeys.size());
+        assertEquals(8, releaser.releaseCount.get());
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testFailingCloseOrObserverDoesNotStopLaterPasses() {
+        ManualExecutor executor = new ManualExecutor();
+        final AtomicInteger releaseCount = new AtomicInteger();
+        // 释放一个字节的值时失败
+        // Fails to release the values of one byte.
+        ResourceReleaser<byte[]> failingReleaser = new ResourceReleaser<byte[]>() {
+            @Override
+            public void release(byte[] value) {
+                releaseCount.incrementAndGet();
+                if (value.length == 1) {
+                    throw new IllegalStateException("recycle failed");
+                }
+            }
+        };
+        RecordingObserver observer = new RecordingObserver() {
+            @Override
+            public void onExclusivityChanged(Integer key, boolean isExclusive) {
+                if (key == 0) {
+                    throw new IllegalStateException("observer failed");
+                }
+                super.onExclusivityChanged(key, isExclusive);
+            }
+        };
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(16)
+                .setMaintenanceExecutor(executor)
+                .build();
+        for (int key = 0; key < 4; key++) {
+            CloseableReference<byte[]> valueRef =
+                    CloseableReference.of(new byte[key + 1], failingReleaser);
+            CloseableReference.closeSafely(cache.cache(key, valueRef, observer));
+            valueRef.close();
+        }
+
+        // 第一个通知失败，后面的通知照样发出，异常在任务结束时抛出
+        // The first notification fails, the others are still sent, and the failure is thrown
+        // once the pass is over.
+        assertEquals(1, executor.getPendingCount());
+        try {
+            executor.runAll();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("observer failed", e.getMessage());
+        }
+        assertEquals(3, observer.mExclusiveKeys.size());
+
+        // 之后的请求依然会安排新的任务，第一个关闭失败不影响其他的关闭
+        // Later requests still schedule a pass, and the first failing close does not hold up
+        // the other ones.
+        cache.clear();
+        assertEquals(1, executor.getPendingCount());
+        try {
+            executor.runAll();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("recycle failed", e.getMessage());
+        }
+        assertEquals(4, releaseCount.get());
+
+        CloseableReference<byte[]> valueRef = CloseableReference.of(new byte[8], failingReleaser);
+        CloseableReference.closeSafely(cache.cache(8, valueRef));
+        valueRef.close();
+        cache.clear();
+        assertEquals(1, executor.getPendingCount());
+        executor.runAll();
+        assertEquals(5, releaseCount.get());
+    }
+
+    @Test
+    public void testGetOrComputeLoadsOnce() throws Exception {
+        final CountingMemoryCache<Integer, byte[]> cache =
+                CacheTestUtil.<Integer>newBuilder(4).build();
+        final CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final CountingMemoryCache.ValueLoader<Integer, byte[]> loader =
+                new CountingMemoryCache.ValueLoader<Integer, byte[]>() {
+                    @Override
+                    public CloseableReference<byte[]> load(Integer key) throws Exception {
+                        loadCount.incrementAndGet();
+                        loading.countDown();
+                        finishLoad.await();
+                        return releaser.newValue(10);
+                    }
+                };
+
+        ArrayList<Future<byte[]>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS * 2; t++) {
+            futures.add(mExecutor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    CloseableReference<byte[]> ref = cache.getOrCompute(1, loader);
+                    try {
+                        return ref.get();
+                    } finally {
+                        ref.close();
+                    }
+                }
+            }));
+        }
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        finishLoad.countDown();
+        byte[] value = futures.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<byte[]> future : futures) {
+            assertSame(value, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getCount());
+        assertEquals(0, cache.getInUseCount());
+        assertEquals(0, releaser.releaseCount.get());
+    }
+
+    @Test
+    public void testGetOrComputeFailureReachesEveryWaiterAndIsNotCached() throws Exception {
+        final CountingMemoryCache<Integer, byte[]> cache =
+                CacheTestUtil.<Integer>newBuilder(4).build();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final CountingMemoryCache.ValueLoader<Integer, byte[]> failingLoader =
+                new CountingMemoryCache.ValueLoader<Integer, byte[]>() {
+                    @Override
+                    public CloseableReference<byte[]> load(Integer key) throws Exception {
+                        loading.countDown();
+                        finishLoad.await();
+                        throw new IllegalStateException("decode failed");
+                    }
+                };
+
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    cache.getOrCompute(1, failingLoader);
+                    return null;
+                }
+            }));
+        }
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        finishLoad.countDown();
+        for (Future<Void> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // 加载的线程和等待的线程都收到一个包装了加载异常的ExecutionException
+                // The loading and the waiting callers all get the failure of the load.
+                assertTrue(e.getCause() instanceof ExecutionException);
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(0, cache.getCount());
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testCacheAllEvictsOnceAndLeavesOutUncacheableValues() {
+        ManualExecutor executor = new ManualExecutor();
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = new CountingMemoryCache.Builder<Integer, byte[]>(
+                CacheTestUtil.BYTES_DESCRIPTOR,
+                CacheTestUtil.HALF_TRIM_STRATEGY,
+                CacheTestUtil.paramsSupplier(4, 100))
+                .setMaintenanceExecutor(executor)
+                .build();
+        for (int key = 0; key < 4; key++) {
+            cacheAndRelease(cache, key, releaser, 10);
+        }
+        executor.runAll();
+
+        // 200字节的值超过了maxCacheEntrySize
+        // The value of 200 bytes is larger than maxCacheEntrySize.
+        Map<Integer, CloseableReference<byte[]>> values = new HashMap<>();
+        values.put(10, releaser.newValue(10));
+        values.put(11, releaser.newValue(10));
+        values.put(12, releaser.newValue(200));
+        Map<Integer, CloseableReference<byte[]>> clientRefs = cache.cacheAll(values);
+        assertEquals(new HashSet<>(Arrays.asList(10, 11)), clientRefs.keySet());
+        assertFalse(cache.containsKey(12));
+        assertEquals(1, executor.getPendingCount());
+        for (CloseableReference<byte[]> valueRef : values.values()) {
+            valueRef.close();
+        }
+
+        // 一次驱逐就回到约束之内
+        // A single eviction pass gets the cache back within its constraints.
+        executor.runAll();
+        assertEquals(4, cache.getCount());
+        assertEquals(2, cache.getInUseCount());
+        assertEquals(3, releaser.releaseCount.get());
+        for (CloseableReference<byte[]> clientRef : clientRefs.values()) {
+            clientRef.close();
+        }
+    }
+
+    @Test
+    public void testGetAllHoldsTheLockOnce() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8).build();
+        for (int key = 0; key < 4; key++) {
+            cacheAndRelease(cache, key, releaser, 10);
+        }
+
+        LockCheckingIterable keys = new LockCheckingIterable(cache, 0, 1, 5, 1);
+        Map<Integer, CloseableReference<byte[]>> clientRefs = cache.getAll(keys);
+        assertTrue(keys.mLockAlwaysHeld);
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), clientRefs.keySet());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        // 命中的条目直接离开待销毁队列
+        // The entries hit leave the eviction queue right away.
+        assertEquals(2, cache.getInUseCount());
+        assertEquals(2, cache.getEvictionQueueCount());
+        for (CloseableReference<byte[]> clientRef : clientRefs.values()) {
+            clientRef.close();
+        }
+        assertEquals(0, cache.getInUseCount());
+    }
+
+    @Test
+    public void testRemoveKeysHoldsTheLockOnce() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8).build();
+        for (int key = 0; key < 4; key++) {
+            cacheAndRelease(cache, key, releaser, 10);
+        }
+
+        LockCheckingIterable keys = new LockCheckingIterable(cache, 0, 1, 5);
+        assertEquals(2, cache.removeKeys(keys));
+        assertTrue(keys.mLockAlwaysHeld);
+        assertEquals(2, cache.getCount());
+        assertEquals(2, releaser.releaseCount.get());
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8)
+                .setExpiryPolicy(new SimpleExpiryPolicy<Integer, byte[]>(
+                        1000, ExpiryPolicy.NO_EXPIRY))
+                .build();
+        cacheAndRelease(cache, 1, releaser, 10);
+        cacheAndRelease(cache, 2, releaser, 10);
+
+        // 访问不会推迟写入之后的过期
+        // Accesses do not push back the expiry after the write.
+        SystemClock.setUptimeMillis(900);
+        assertTrue(CacheTestUtil.hit(cache, 1));
+        SystemClock.setUptimeMillis(1000);
+        assertFalse(CacheTestUtil.hit(cache, 1));
+        assertEquals(1, cache.getHitCount());
+
+        // 没有被访问的条目在下一次驱逐时被回收
+        // The entries not accessed are reclaimed by the next eviction pass.
+        assertEquals(1, cache.getCount());
+        cacheAndRelease(cache, 3, releaser, 10);
+        assertFalse(cache.containsKey(2));
+        assertEquals(1, cache.getCount());
+        assertEquals(2, releaser.releaseCount.get());
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8)
+                .setExpiryPolicy(new SimpleExpiryPolicy<Integer, byte[]>(
+                        ExpiryPolicy.NO_EXPIRY, 1000))
+                .build();
+        cacheAndRelease(cache, 1, releaser, 10);
+        cacheAndRelease(cache, 2, releaser, 10);
+
+        // 每次访问都推迟过期
+        // Every access pushes back the expiry.
+        SystemClock.setUptimeMillis(800);
+        assertTrue(CacheTestUtil.hit(cache, 1));
+        SystemClock.setUptimeMillis(1600);
+        assertTrue(CacheTestUtil.hit(cache, 1));
+        cacheAndRelease(cache, 3, releaser, 10);
+        assertFalse(cache.containsKey(2));
+        assertTrue(cache.containsKey(1));
+
+        SystemClock.setUptimeMillis(2600);
+        assertFalse(CacheTestUtil.hit(cache, 1));
+        assertEquals(2, releaser.releaseCount.get());
+    }
+
+    @Test
+    public void testExpiredEntryInUseStaysOrphanUntilReleased() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8)
+                .setExpiryPolicy(new SimpleExpiryPolicy<Integer, byte[]>(
+                        1000, ExpiryPolicy.NO_EXPIRY))
+                .build();
+        CloseableReference<byte[]> valueRef = releaser.newValue(10);
+        CloseableReference<byte[]> clientRef = cache.cache(1, valueRef);
+        valueRef.close();
+
+        // 过期的条目离开缓存，但是值在客户端关闭引用之前不会被释放
+        // The expired entry leaves the cache, but its value is not released before the client
+        // closes its reference.
+        SystemClock.setUptimeMillis(2000);
+        cacheAndRelease(cache, 2, releaser, 10);
+        assertFalse(cache.containsKey(1));
+        assertEquals(1, cache.getCount());
+        assertEquals(0, cache.getInUseCount());
+        assertTrue(clientRef.isValid());
+        assertEquals(0, releaser.releaseCount.get());
+
+        clientRef.close();
+        assertEquals(1, releaser.releaseCount.get());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void testRefreshAheadServesTheCurrentValueUntilTheReloadSwapsIn() {
+        ManualExecutor refreshExecutor = new ManualExecutor();
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingLoader loader = new CountingLoader(releaser, 20);
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(8)
+                .setRefreshPolicy(new RefreshPolicy<>(1000, loader, refreshExecutor))
+                .build();
+        cacheAndRelease(cache, 1, releaser, 10);
+
+        SystemClock.setUptimeMillis(500);
+        assertEquals(10, getSize(cache, 1));
+        assertEquals(0, refreshExecutor.getPendingCount());
+
+        // 到了刷新时间，命中仍然返回当前的值，同时只有一次后台加载
+        // Once due, the hits keep returning the current value, with a single reload at a time.
+        SystemClock.setUptimeMillis(1000);
+        CloseableReference<byte[]> oldRef = cache.get(1);
+        assertEquals(10, oldRef.get().length);
+        assertEquals(10, getSize(cache, 1));
+        assertEquals(1, refreshExecutor.getPendingCount());
+
+        refreshExecutor.runAll();
+        assertEquals(1, loader.mLoadCount.get());
+        assertEquals(20, getSize(cache, 1));
+        assertEquals(1, cache.getCount());
+        // 旧值的客户端一直持有它，直到关闭引用
+        // The client of the old value keeps it until it closes its reference.
+        assertTrue(oldRef.isValid());
+        assertEquals(0, releaser.releaseCount.get());
+        oldRef.close();
+        assertEquals(1, releaser.releaseCount.get());
+
+        // 新值从替换的时候开始计算刷新时间
+        // The new value is due for a refresh one period after it was swapped in.
+        SystemClock.setUptimeMillis(1500);
+        assertEquals(20, getSize(cache, 1));
+        assertEquals(0, refreshExecutor.getPendingCount());
+    }
+
+    @Test
+    public void testRefreshThatDoesNotSwapWaitsForTheNextPeriod() {
+        ManualExecutor refreshExecutor = new ManualExecutor();
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        // 重新加载的值超过了maxCacheEntrySize，不能替换当前的值
+        // The reloaded value is larger than maxCacheEntrySize, and cannot replace the current one.
+        CountingLoader loader = new CountingLoader(releaser, 200);
+        CountingMemoryCache<Integer, byte[]> cache = new CountingMemoryCache.Builder<Integer, byte[]>(
+                CacheTestUtil.BYTES_DESCRIPTOR,
+                CacheTestUtil.HALF_TRIM_STRATEGY,
+                CacheTestUtil.paramsSupplier(8, 100))
+                .setRefreshPolicy(new RefreshPolicy<>(1000, loader, refreshExecutor))
+                .build();
+        cacheAndRelease(cache, 1, releaser, 10);
+
+        SystemClock.setUptimeMillis(1000);
+        assertEquals(10, getSize(cache, 1));
+        refreshExecutor.runAll();
+        assertEquals(1, loader.mLoadCount.get());
+        assertEquals(10, getSize(cache, 1));
+        // 没有替换时也要推迟刷新时间，否则之后的每次命中都会再加载一次
+        // The refresh time moves on even without a swap, or every later hit would reload.
+        assertEquals(0, refreshExecutor.getPendingCount());
+
+        SystemClock.setUptimeMillis(2000);
+        assertEquals(10, getSize(cache, 1));
+        assertEquals(1, refreshExecutor.getPendingCount());
+        refreshExecutor.runAll();
+        assertEquals(2, loader.mLoadCount.get());
+        // 加载的值都被释放了
+        // The loaded values have all been released.
+        assertEquals(2, releaser.releaseCount.get());
+    }
+
+    /** Returns the size of the value the cache holds for the key. */
+    @Test
+    public void testLeasesShareTheEntry() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(4).build();
+        cacheAndRelease(cache, 1, releaser, 10);
+
+        CloseableReference<byte[]> first = cache.get(1);
+        CloseableReference<byte[]> second = cache.get(1);
+        assertNotNull(first);
+        assertNotNull(second);
+        // 租约没有共享的SharedReference，所有的租约都指向同一个值
+        // Leases have no shared reference, and all point to the same value.
+        assertNull(first.getUnderlyingReferenceTestOnly());
+        assertSame(first.get(), second.get());
+        CloseableReference<byte[]> clone = first.clone();
+        assertEquals(1, cache.getInUseCount());
+
+        first.close();
+        second.close();
+        assertEquals(1, cache.getInUseCount());
+        assertTrue(clone.isValid());
+        clone.close();
+        assertFalse(clone.isValid());
+        assertEquals(0, cache.getInUseCount());
+        assertEquals(1, cache.getEvictionQueueCount());
+
+        // 条目被删除之后，最后一个租约关闭时值被释放
+        // Once the entry is removed, the value is released with its last lease.
+        CloseableReference<byte[]> last = cache.get(1);
+        assertTrue(cache.remove(1));
+        assertEquals(0, releaser.releaseCount.get());
+        last.close();
+        assertEquals(1, releaser.releaseCount.get());
+    }
+
+    private static int getSize(CountingMemoryCache<Integer, byte[]> cache, int key) {
+        CloseableReference<byte[]> ref = cache.get(key);
+        try {
+            return ref.get().length;
+        } finally {
+            ref.close();
+        }
+    }
+
+    private void runConcurrently(Callable<Void> task) throws Exception {
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(mExecutor.submit(task));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Releases values of one byte and remembers them, by identity. */
+    private static class TrackingReleaser implements ResourceReleaser<byte[]> {
+        private final AtomicInteger mCreatedCount = new AtomicInteger();
+        private final Set<byte[]> mReleased =
+                Collections.newSetFromMap(new ConcurrentHashMap<byte[], Boolean>());
+
+        CloseableReference<byte[]> newValue() {
+            mCreatedCount.incrementAndGet();
+            return CloseableReference.of(new byte[1], this);
+        }
+
+        @Override
+        public void release(byte[] value) {
+            assertTrue("released twice", mReleased.add(value));
+        }
+
+        boolean isReleased(byte[] value) {
+            return mReleased.contains(value);
+        }
+
+        int getCreatedCount() {
+            return mCreatedCount.get();
+        }
+
+        int getReleasedCount() {
+            return mReleased.size();
+        }
+    }
+
+    /** Runs the tasks only when asked to, on the calling thread. */
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        int getPendingCount() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /** Remembers the keys that became exclusively owned. */
+    private static class RecordingObserver
+            implements CountingMemoryCache.EntryStateObserver<Integer> {
+        final ArrayList<Integer> mExclusiveKeys = new ArrayList<>();
+
+        @Override
+        public void onExclusivityChanged(Integer key, boolean isExclusive) {
+            if (isExclusive) {
+                mExclusiveKeys.add(key);
+            }
+        }
+    }
+    /** Iterates over the given keys, checking that the cache lock is held at every step. */
+    private static class LockCheckingIterable implements Iterable<Integer> {
+        private final Object mLock;
+        private final List<Integer> mKeys;
+        boolean mLockAlwaysHeld = true;
+
+        LockCheckingIterable(Object lock, Integer... keys) {
+            mLock = lock;
+            mKeys = Arrays.asList(keys);
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            final Iterator<Integer> iterator = mKeys.iterator();
+            return new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    checkLock();
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Integer next() {
+                    checkLock();
+                    return iterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private void checkLock() {
+            mLockAlwaysHeld &= Thread.holdsLock(mLock);
+        }
+    }
+    /** Loads values of a given size, counting the loads. */
+    private static class CountingLoader
+            implements CountingMemoryCache.ValueLoader<Integer, byte[]> {
+        final AtomicInteger mLoadCount = new AtomicInteger();
+        private final CacheTestUtil.CountingReleaser mReleaser;
+        private final int mSizeInBytes;
+
+        CountingLoader(CacheTestUtil.CountingReleaser releaser, int sizeInBytes) {
+            mReleaser = releaser;
+            mSizeInBytes = sizeInBytes;
+        }
+
+        @Override
+        public CloseableReference<byte[]> load(Integer key) {
+            mLoadCount.incrementAndGet();
+            return mReleaser.newValue(mSizeInBytes);
+        }
+    }
+}
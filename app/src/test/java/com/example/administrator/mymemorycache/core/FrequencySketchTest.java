@@ -0,0 +1,43 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * FrequencySketch的计数、饱和和衰减
+ * Tests the counting, saturation and aging of FrequencySketch.
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testFrequencyIsCountedAndSaturates() {
+        FrequencySketch<Integer> sketch = new FrequencySketch<>(16);
+        assertEquals(0, sketch.frequency(1));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(1);
+        }
+        assertEquals(5, sketch.frequency(1));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(1);
+        }
+        assertEquals(15, sketch.frequency(1));
+    }
+
+    @Test
+    public void testAgingHalvesTheCounters() {
+        // 容量16时每记录160次访问减半一次，饱和之后的访问不计入
+        // With a capacity of 16, the counters are halved every 160 recorded accesses; accesses
+        // to a saturated key are not recorded.
+        FrequencySketch<Integer> sketch = new FrequencySketch<>(16);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(1);
+        }
+        for (int key = 100; key < 244; key++) {
+            sketch.increment(key);
+        }
+        assertEquals(15, sketch.frequency(1));
+        sketch.increment(244);
+        assertEquals(7, sketch.frequency(1));
+    }
+}
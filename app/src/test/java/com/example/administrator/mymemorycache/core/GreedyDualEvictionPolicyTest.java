@@ -0,0 +1,98 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.hit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过缓存检查GreedyDual的堆：每次缓存一个代价很高的新条目，被驱逐的应该是剩下的条目中每字节代价最低的那一个
+ * Checks the GreedyDual heap through the cache: every time a new entry costly to recompute is
+ * cached, the entry evicted is the one left with the lowest cost per byte.
+ */
+public class GreedyDualEvictionPolicyTest {
+
+    private static final int CACHE_ENTRIES = 200;
+    private static final int HIGH_COST = 1000000;
+    private static final int HIGH_COST_FIRST_KEY = 10000;
+
+    private CacheTestUtil.CountingReleaser mReleaser;
+    private CountingMemoryCache<Integer, byte[]> mCache;
+
+    @Before
+    public void setUp() {
+        mReleaser = new CacheTestUtil.CountingReleaser();
+        mCache = CacheTestUtil.<Integer>newBuilder(CACHE_ENTRIES)
+                .setEvictionPolicyType(EvictionPolicyType.GREEDY_DUAL)
+                .build();
+    }
+
+    @Test
+    public void testEvictsByCost() {
+        // 代价各不相同，顺序打乱，key就是代价
+        // Distinct costs in a shuffled order; the key is the cost.
+        ArrayList<Integer> costs = new ArrayList<>();
+        for (int cost = 1; cost <= CACHE_ENTRIES; cost++) {
+            costs.add(cost);
+        }
+        Collections.shuffle(costs, new Random(42));
+        for (int cost : costs) {
+            cache(cost, 1, cost);
+        }
+        assertEquals(CACHE_ENTRIES, mCache.getCount());
+
+        for (int cheapest = 1; cheapest <= CACHE_ENTRIES; cheapest++) {
+            assertTrue(mCache.containsKey(cheapest));
+            cache(HIGH_COST_FIRST_KEY + cheapest, 1, HIGH_COST);
+            assertFalse("cost " + cheapest + " kept", mCache.containsKey(cheapest));
+            assertEquals(CACHE_ENTRIES, mCache.getCount());
+        }
+    }
+
+    @Test
+    public void testEvictsByCostPerByte() {
+        // 代价相同时，大的条目先被驱逐
+        // For the same cost, the larger entries go first.
+        for (int key = 0; key < CACHE_ENTRIES; key++) {
+            cache(key, key % 2 == 0 ? 100 : 1, 100);
+        }
+        for (int i = 0; i < CACHE_ENTRIES / 2; i++) {
+            cache(HIGH_COST_FIRST_KEY + i, 1, HIGH_COST);
+        }
+        for (int key = 0; key < CACHE_ENTRIES; key++) {
+            assertEquals("key " + key, key % 2 != 0, mCache.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testHitsRaisePriority() {
+        for (int key = 0; key < CACHE_ENTRIES; key++) {
+            cache(key, 1, 10);
+        }
+        // 命中过的条目的优先级是 L + 2 * 代价 / 大小，比只缓存过一次的条目高
+        // A hit entry ranks at L + 2 * cost / size, above the entries only cached once.
+        assertTrue(hit(mCache, 0));
+        for (int i = 0; i < CACHE_ENTRIES - 1; i++) {
+            cache(HIGH_COST_FIRST_KEY + i, 1, HIGH_COST);
+        }
+        assertTrue(mCache.containsKey(0));
+        for (int key = 1; key < CACHE_ENTRIES; key++) {
+            assertFalse(mCache.containsKey(key));
+        }
+    }
+
+    private void cache(int key, int sizeInBytes, int cost) {
+        CloseableReference<byte[]> valueRef = mReleaser.newValue(sizeInBytes);
+        CloseableReference.closeSafely(mCache.cache(key, valueRef, null, cost));
+        valueRef.close();
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.cacheAndRelease;
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.hit;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 我的理解：用同一份访问序列测量各个驱逐策略的命中率。访问序列是Zipf分布的热门图片，中间夹杂着只访问一次的顺序扫描，
+ * 比如在一个很长的列表中快速滑动。每个测试检查测得的命中率和LRU相比是否合理，失败时的消息中给出两者。
+ *
+ * Measures the hit ratio of the eviction policies on one trace: Zipf distributed requests for
+ * popular images, broken by sequential scans of keys seen once, as when flinging through a long
+ * list. Each test checks the ratio it measured against LRU, and a failure gives both ratios.
+ */
+public class HitRatioTest {
+
+    private static final int CACHE_ENTRIES = 500;
+    private static final int KEYS = 10000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int REQUESTS = 100000;
+    // 每隔多少次请求插入一次扫描，以及每次扫描的长度
+    // A scan is inserted every that many requests, and is that long.
+    private static final int SCAN_INTERVAL = 10000;
+    private static final int SCAN_LENGTH = 2 * CACHE_ENTRIES;
+
+    private static int[] sTrace;
+    private static double sLruHitRatio;
+
+    @BeforeClass
+    public static void setUpTrace() {
+        double[] cumulative = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        int scanKey = KEYS;
+        sTrace = new int[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            if (i % SCAN_INTERVAL < SCAN_LENGTH) {
+                sTrace[i] = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                sTrace[i] = index >= 0 ? index : -index - 1;
+            }
+        }
+        sLruHitRatio = measure(CacheTestUtil.<Integer>newBuilder(CACHE_ENTRIES));
+    }
+
+    @Test
+    public void testSegmentedLru() {
+        assertBeatsLru("SLRU", EvictionPolicyType.SEGMENTED_LRU, false);
+    }
+
+    @Test
+    public void testTwoQueue() {
+        assertBeatsLru("2Q", EvictionPolicyType.TWO_QUEUE, false);
+    }
+
+    @Test
+    public void testAdaptiveReplacement() {
+        assertBeatsLru("ARC", EvictionPolicyType.ADAPTIVE_REPLACEMENT, false);
+    }
+
+    @Test
+    public void testClock() {
+        assertBeatsLru("CLOCK", EvictionPolicyType.CLOCK, false);
+    }
+
+    @Test
+    public void testClockPro() {
+        assertBeatsLru("CLOCK-Pro", EvictionPolicyType.CLOCK_PRO, false);
+    }
+
+    @Test
+    public void testTinyLfu() {
+        assertBeatsLru("TinyLFU", EvictionPolicyType.LRU, true);
+    }
+
+    @Test
+    public void testSampledLru() {
+        // 采样LRU只是LRU的近似，命中率和LRU相差不多就可以
+        // Sampled LRU approximates LRU, so it only has to come close.
+        double hitRatio = measure(CacheTestUtil.<Integer>newBuilder(CACHE_ENTRIES)
+                .setEvictionPolicyType(EvictionPolicyType.SAMPLED_LRU));
+        assertTrue(describe("Sampled LRU", hitRatio), hitRatio >= sLruHitRatio - 0.03);
+    }
+
+    private static void assertBeatsLru(
+            String name,
+            EvictionPolicyType policyType,
+            boolean tinyLfuAdmission) {
+        double hitRatio = measure(CacheTestUtil.<Integer>newBuilder(CACHE_ENTRIES)
+                .setEvictionPolicyType(policyType)
+                .setTinyLfuAdmission(tinyLfuAdmission));
+        assertTrue(describe(name, hitRatio), hitRatio > sLruHitRatio);
+    }
+
+    private static double measure(CountingMemoryCache.Builder<Integer, byte[]> builder) {
+        CountingMemoryCache<Integer, byte[]> cache = builder.build();
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        int hits = 0;
+        for (int key : sTrace) {
+            if (hit(cache, key)) {
+                hits++;
+            } else {
+                cacheAndRelease(cache, key, releaser, 1);
+            }
+        }
+        return (double) hits / sTrace.length;
+    }
+
+    private static String describe(String name, double hitRatio) {
+        return String.format("%s: hit ratio %.1f%%, LRU %.1f%%",
+                name, hitRatio * 100, sLruHitRatio * 100);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.Test;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.cacheAndRelease;
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.hit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 两个缓存共享一个预算，检查空闲时平分、忙的缓存每次多得一步，以及变小的缓存在刷新时驱逐
+ * Shares one budget between two caches, and checks that idle caches split it evenly, that the
+ * busier cache gains one step per rebalance, and that the cache whose share shrinks evicts.
+ */
+public class MemoryBudgetArbiterTest {
+
+    private static final int BUDGET = 6400;
+    // 预算的1/64是一块，每次最多移动8块，每个份额至少保留5%
+    // A chunk is 1/64 of the budget, a share moves by 8 chunks at most and keeps 5% at least.
+    private static final int CHUNK = BUDGET / 64;
+    private static final int STEP = 8 * CHUNK;
+    private static final int MIN_SHARE = BUDGET * 5 / 100;
+
+    private final MemoryBudgetArbiter mArbiter = new MemoryBudgetArbiter(BUDGET);
+    private final CacheTestUtil.CountingReleaser mReleaser = new CacheTestUtil.CountingReleaser();
+
+    @Test
+    public void testIdleCachesSplitEvenly() {
+        MemoryBudgetArbiter.Share first = newShare();
+        assertEquals(BUDGET, first.getAllottedSize());
+        MemoryBudgetArbiter.Share second = newShare();
+        assertEquals(BUDGET / 2, first.getAllottedSize());
+        assertEquals(BUDGET / 2, second.getAllottedSize());
+        first.attach(newCache(first));
+        second.attach(newCache(second));
+
+        // 没有访问时收益都是0，块交替分配，两个份额最多差一块
+        // With no accesses every gain is 0, so the chunks alternate and the shares differ by one
+        // chunk at most.
+        for (int i = 0; i < 3; i++) {
+            mArbiter.rebalance();
+            assertEquals(BUDGET / 2, first.getAllottedSize(), CHUNK);
+            assertEquals(BUDGET / 2, second.getAllottedSize(), CHUNK);
+            assertTrue(first.getAllottedSize() + second.getAllottedSize() <= BUDGET);
+        }
+    }
+
+    @Test
+    public void testBusierCacheGainsOneStepPerRebalance() {
+        MemoryBudgetArbiter.Share busy = newShare();
+        MemoryBudgetArbiter.Share idle = newShare();
+        CountingMemoryCache<Integer, byte[]> busyCache = newCache(busy);
+        busy.attach(busyCache);
+        idle.attach(newCache(idle));
+
+        long busySize = BUDGET / 2;
+        long idleSize = BUDGET / 2;
+        for (int i = 0; i < 6; i++) {
+            access(busyCache, i);
+            mArbiter.rebalance();
+            // 忙的缓存的目标是除了空闲缓存的最小值之外的所有预算，每次只靠近一步
+            // The target of the busy cache is all but the minimum of the idle one, and each
+            // rebalance only moves one step towards it.
+            busySize = Math.min(busySize + STEP, BUDGET - MIN_SHARE);
+            idleSize = Math.max(idleSize - STEP, MIN_SHARE);
+            assertEquals(busySize, busy.getAllottedSize());
+            assertEquals(idleSize, idle.getAllottedSize());
+        }
+        assertEquals(BUDGET - MIN_SHARE, busy.getAllottedSize());
+        assertEquals(MIN_SHARE, idle.getAllottedSize());
+    }
+
+    @Test
+    public void testShrunkCacheEvictsOnRebalance() {
+        MemoryBudgetArbiter.Share busy = newShare();
+        MemoryBudgetArbiter.Share idle = newShare();
+        CountingMemoryCache<Integer, byte[]> busyCache = newCache(busy);
+        CountingMemoryCache<Integer, byte[]> idleCache = newCache(idle);
+        busy.attach(busyCache);
+        idle.attach(idleCache);
+        // 空闲的缓存放满它的一半预算
+        // The idle cache fills its half of the budget.
+        for (int key = 0; key < 16; key++) {
+            cacheAndRelease(idleCache, key, mReleaser, CHUNK * 2);
+        }
+        assertEquals(BUDGET / 2, idleCache.getSizeInBytes());
+
+        for (int i = 0; i < 4; i++) {
+            access(busyCache, i);
+            mArbiter.rebalance();
+            // 仲裁者返回之前，变小的缓存已经驱逐了放不下的条目
+            // The shrunk cache has evicted what no longer fits before the arbiter returns.
+            assertTrue(idleCache.getSizeInBytes() <= idle.getAllottedSize());
+            assertEquals(idleCache.getCount(), idleCache.getEvictionQueueCount());
+        }
+        assertEquals(MIN_SHARE, idle.getAllottedSize());
+        assertEquals(MIN_SHARE / (CHUNK * 2), idleCache.getCount());
+        // 忙的缓存放得下它所有的条目，被释放的都是空闲缓存驱逐的
+        // The busy cache holds all its entries, so every release is an eviction of the idle one.
+        assertEquals(16 - idleCache.getCount(), mReleaser.releaseCount.get());
+    }
+
+    /** A share whose cache could take the whole budget. */
+    private MemoryBudgetArbiter.Share newShare() {
+        return mArbiter.newShare(CacheTestUtil.paramsSupplier(100, BUDGET));
+    }
+
+    private static CountingMemoryCache<Integer, byte[]> newCache(MemoryBudgetArbiter.Share share) {
+        return new CountingMemoryCache.Builder<Integer, byte[]>(
+                CacheTestUtil.BYTES_DESCRIPTOR, CacheTestUtil.HALF_TRIM_STRATEGY, share).build();
+    }
+
+    /**
+     * 缓存一半的key并访问所有的key，命中和未命中各一半，命中率不为0的缓存才会得到预算
+     * Caches half the keys and gets all of them, so that half the gets hit: only a cache with
+     * hits gains from a larger share.
+     */
+    private void access(CountingMemoryCache<Integer, byte[]> cache, int round) {
+        for (int key = 0; key < 4; key++) {
+            cacheAndRelease(cache, round * 8 + key, mReleaser, 1);
+        }
+        for (int key = 0; key < 8; key++) {
+            hit(cache, round * 8 + key);
+        }
+    }
+}
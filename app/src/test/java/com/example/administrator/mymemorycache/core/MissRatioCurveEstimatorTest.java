@@ -0,0 +1,143 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 把估计的命中率和在同一个访问序列上模拟的LRU缓存的命中率比较，所有的值都是1个字节
+ * Compares the estimated hit ratios with those of LRU caches simulated on the same trace. Every
+ * value takes one byte.
+ */
+public class MissRatioCurveEstimatorTest {
+
+    private static final int KEY_SETS = 10;
+    private static final int KEY_SET_OFFSET = 100000;
+
+    @Test
+    public void testLoopHitsOnlyOnceItFits() {
+        MissRatioCurveEstimator<Integer> estimator =
+                new MissRatioCurveEstimator<>(256, 1, 4096);
+        for (int i = 0; i < 100; i++) {
+            estimator.recordAccess(i % 10, 1);
+        }
+        assertEquals(0, estimator.getHitRatio(9), 0);
+        assertEquals(0.9, estimator.getHitRatio(10), 1e-9);
+        assertEquals(0.9, estimator.getHitRatio(256), 1e-9);
+    }
+
+    @Test
+    public void testMatchesLruWhenEveryKeyIsSampled() {
+        int[] trace = newZipfTrace(300, 5000, 1);
+        MissRatioCurveEstimator<Integer> estimator =
+                new MissRatioCurveEstimator<>(256, 1, 4096);
+        for (int key : trace) {
+            estimator.recordAccess(key, 1);
+        }
+        for (int size : new int[] {1, 10, 50, 100, 200, 256}) {
+            assertEquals(
+                    "size " + size,
+                    simulateLru(trace, size),
+                    estimator.getHitRatio(size),
+                    1e-9);
+        }
+    }
+
+    @Test
+    public void testSampledEstimateIsCloseToLru() {
+        int[] trace = newZipfTrace(20000, 200000, 2);
+        for (int size : new int[] {500, 2000, 5000}) {
+            double expected = simulateLru(trace, size);
+            double estimate = estimateOverKeySets(trace, size, 0.1, 4096);
+            assertTrue(
+                    String.format("size %d: estimate %.3f, LRU %.3f", size, estimate, expected),
+                    Math.abs(estimate - expected) < 0.02);
+        }
+    }
+
+    @Test
+    public void testSampledKeysAreBounded() {
+        int[] trace = newZipfTrace(20000, 100000, 3);
+        MissRatioCurveEstimator<Integer> estimator =
+                new MissRatioCurveEstimator<>(5000, 1, 1000);
+        for (int key : trace) {
+            estimator.recordAccess(key, 1);
+        }
+        assertTrue(estimator.getSampledKeyCount() <= 1000);
+        // 降低采样率之后估计仍然接近
+        // The estimate stays close once the sampling rate is lowered.
+        assertEquals(
+                simulateLru(trace, 2000),
+                estimateOverKeySets(trace, 2000, 1, 1000),
+                0.03);
+
+        estimator.reset();
+        assertEquals(0, estimator.getSampledKeyCount());
+        assertEquals(0, estimator.getHitRatio(2000), 0);
+    }
+
+    /**
+     * 采样时估计的方差主要来自最热门的几个key是否被采样，所以用10组不同的key重放同一个序列，返回估计的平均值
+     * With sampling, the variance of the estimate comes mostly from whether the few hottest keys
+     * are sampled. Replays the trace with ten different sets of keys, and returns the mean
+     * estimate.
+     */
+    private static double estimateOverKeySets(
+            int[] trace,
+            int size,
+            double samplingRate,
+            int maxSampledKeys) {
+        double sum = 0;
+        for (int keySet = 0; keySet < KEY_SETS; keySet++) {
+            MissRatioCurveEstimator<Integer> estimator =
+                    new MissRatioCurveEstimator<>(5000, samplingRate, maxSampledKeys);
+            for (int key : trace) {
+                estimator.recordAccess(key + keySet * KEY_SET_OFFSET, 1);
+            }
+            sum += estimator.getHitRatio(size);
+        }
+        return sum / KEY_SETS;
+    }
+
+    private static int[] newZipfTrace(int keys, int length, long seed) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.8);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(seed);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+        return trace;
+    }
+
+    /** Returns the hit ratio of an LRU cache holding the given number of keys. */
+    private static double simulateLru(int[] trace, final int size) {
+        LinkedHashMap<Integer, Boolean> cache =
+                new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                        return size() > size;
+                    }
+                };
+        int hits = 0;
+        for (int key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, true);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.util.Priority;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 通过缓存检查按优先级驱逐的顺序和每个优先级保留的份额。每个值10字节，缓存最多1000字节，也就是100个条目
+ * Checks through the cache the order of eviction by priority, and the shares reserved by the
+ * levels. Every value takes 10 bytes out of 1000, so the cache holds 100 entries.
+ */
+public class PrioritizedEvictionPolicyTest {
+
+    private static final int MAX_SIZE = 1000;
+    private static final int VALUE_SIZE = 10;
+
+    private final CacheTestUtil.CountingReleaser mReleaser = new CacheTestUtil.CountingReleaser();
+
+    @Test
+    public void testLowPriorityDrainsBeforeHigh() {
+        CountingMemoryCache<Integer, byte[]> cache =
+                newCache(new EnumMap<Priority, Integer>(Priority.class));
+        // 先缓存HIGH，LRU本来会先驱逐它们
+        // The HIGH entries are cached first, which LRU alone would evict first.
+        cacheAndRelease(cache, 0, 50, Priority.HIGH);
+        cacheAndRelease(cache, 100, 50, Priority.LOW);
+
+        cacheAndRelease(cache, 200, 30, Priority.MEDIUM);
+        assertEquals(50, countCached(cache, 0, 50));
+        assertEquals(20, countCached(cache, 100, 50));
+
+        // LOW用完之后才轮到MEDIUM
+        // MEDIUM goes once LOW is drained.
+        cacheAndRelease(cache, 300, 30, Priority.HIGH);
+        assertEquals(0, countCached(cache, 100, 50));
+        assertEquals(20, countCached(cache, 200, 30));
+        assertEquals(50, countCached(cache, 0, 50));
+    }
+
+    @Test
+    public void testReservedSharesHoldUnderBursts() {
+        Map<Priority, Integer> reservedPercentages = new EnumMap<>(Priority.class);
+        reservedPercentages.put(Priority.LOW, 20);
+        reservedPercentages.put(Priority.HIGH, 50);
+        CountingMemoryCache<Integer, byte[]> cache = newCache(reservedPercentages);
+        cacheAndRelease(cache, 0, 50, Priority.HIGH);
+
+        // 大量预取不会挤掉屏幕上的图片
+        // A burst of prefetches does not flush the images on screen.
+        cacheAndRelease(cache, 1000, 200, Priority.LOW);
+        assertEquals(50, countCached(cache, 0, 50));
+        assertEquals(50, countCached(cache, 1000, 200));
+
+        // 大量HIGH的条目也不会挤掉LOW保留的20%
+        // Nor does a burst of HIGH entries flush the 20% reserved by LOW.
+        cacheAndRelease(cache, 2000, 200, Priority.HIGH);
+        assertEquals(20, countCached(cache, 1000, 200));
+        assertEquals(80, countCached(cache, 2000, 200));
+        assertEquals(0, countCached(cache, 0, 50));
+        assertEquals(MAX_SIZE, cache.getSizeInBytes());
+    }
+
+    private static CountingMemoryCache<Integer, byte[]> newCache(
+            Map<Priority, Integer> reservedPercentages) {
+        return new CountingMemoryCache.Builder<Integer, byte[]>(
+                CacheTestUtil.BYTES_DESCRIPTOR,
+                CacheTestUtil.HALF_TRIM_STRATEGY,
+                CacheTestUtil.paramsSupplier(Integer.MAX_VALUE, MAX_SIZE))
+                .setReservedPercentages(reservedPercentages)
+                .build();
+    }
+
+    /** Caches and releases the given number of keys from the first one, with the priority. */
+    private void cacheAndRelease(
+            CountingMemoryCache<Integer, byte[]> cache,
+            int firstKey,
+            int count,
+            Priority priority) {
+        for (int key = firstKey; key < firstKey + count; key++) {
+            CloseableReference<byte[]> valueRef = mReleaser.newValue(VALUE_SIZE);
+            CloseableReference.closeSafely(cache.cache(
+                    key, valueRef, null, CountingMemoryCache.DEFAULT_COST, priority));
+            valueRef.close();
+        }
+    }
+
+    private static int countCached(
+            CountingMemoryCache<Integer, byte[]> cache,
+            int firstKey,
+            int count) {
+        int cached = 0;
+        for (int key = firstKey; key < firstKey + count; key++) {
+            if (cache.containsKey(key)) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.administrator.mymemorycache.core;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.cacheAndRelease;
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.hit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一组热点条目被访问几轮，每轮之间夹杂着只访问一次的条目，然后顺序扫描大量只访问一次的条目，比如快速滑过一个很长的列表。
+ * LRU会被扫描冲掉所有的热点条目，抗扫描的策略应该留下大部分热点条目。
+ * A hot set is hit over a few rounds, with keys seen only once in between, then a long scan of
+ * keys seen only once goes through the cache, as a fling through a long list would. The scan
+ * flushes the hot set out of an LRU cache, while the scan resistant policies keep most of it.
+ */
+@RunWith(Parameterized.class)
+public class ScanResistanceTest {
+
+    private static final int CACHE_ENTRIES = 100;
+    private static final int HOT_ENTRIES = 40;
+    // 第一轮之后的冷条目比缓存还多，热点条目要先被驱逐一次再回来，2Q才会把它们放进主队列
+    // More cold keys than the cache holds follow the first round, so that the hot entries are
+    // evicted once and come back, which is what moves them to the main queue of 2Q.
+    private static final int[] COLD_ENTRIES_PER_ROUND = {CACHE_ENTRIES, 50, 50, 50};
+    private static final int SCAN_ENTRIES = 1000;
+    private static final int COLD_FIRST_KEY = 1000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                {"LRU", EvictionPolicyType.LRU, false, false},
+                {"SLRU", EvictionPolicyType.SEGMENTED_LRU, false, true},
+                {"2Q", EvictionPolicyType.TWO_QUEUE, false, true},
+                {"ARC", EvictionPolicyType.ADAPTIVE_REPLACEMENT, false, true},
+                {"CLOCK-Pro", EvictionPolicyType.CLOCK_PRO, false, true},
+                {"TinyLFU", EvictionPolicyType.LRU, true, true},
+        });
+    }
+
+    private final EvictionPolicyType mPolicyType;
+    private final boolean mTinyLfuAdmission;
+    private final boolean mScanResistant;
+
+    public ScanResistanceTest(
+            String name,
+            EvictionPolicyType policyType,
+            boolean tinyLfuAdmission,
+            boolean scanResistant) {
+        mPolicyType = policyType;
+        mTinyLfuAdmission = tinyLfuAdmission;
+        mScanResistant = scanResistant;
+    }
+
+    @Test
+    public void testHotSetSurvivesScan() {
+        CacheTestUtil.CountingReleaser releaser = new CacheTestUtil.CountingReleaser();
+        CountingMemoryCache<Integer, byte[]> cache = CacheTestUtil.<Integer>newBuilder(CACHE_ENTRIES)
+                .setEvictionPolicyType(mPolicyType)
+                .setTinyLfuAdmission(mTinyLfuAdmission)
+                .build();
+
+        int coldKey = COLD_FIRST_KEY;
+        for (int coldEntries : COLD_ENTRIES_PER_ROUND) {
+            for (int key = 0; key < HOT_ENTRIES; key++) {
+                access(cache, key, releaser);
+            }
+            for (int i = 0; i < coldEntries; i++) {
+                access(cache, coldKey++, releaser);
+            }
+        }
+        for (int i = 0; i < SCAN_ENTRIES; i++) {
+            access(cache, coldKey++, releaser);
+        }
+
+        int survivors = 0;
+        for (int key = 0; key < HOT_ENTRIES; key++) {
+            if (cache.containsKey(key)) {
+                survivors++;
+            }
+        }
+        assertTrue(cache.getCount() <= CACHE_ENTRIES);
+        if (mScanResistant) {
+            assertTrue("hot entries left: " + survivors, survivors >= HOT_ENTRIES * 3 / 4);
+        } else {
+            assertEquals(0, survivors);
+        }
+    }
+
+    private static void access(
+            CountingMemoryCache<Integer, byte[]> cache,
+            int key,
+            CacheTestUtil.CountingReleaser releaser) {
+        if (!hit(cache, key)) {
+            cacheAndRelease(cache, key, releaser, 1);
+        }
+    }
+}
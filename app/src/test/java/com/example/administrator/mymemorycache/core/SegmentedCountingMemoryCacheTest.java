@@ -0,0 +1,129 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 所有分段共用一份缓存配置：不管条目落在哪个分段，整个缓存都不能超出限制
+ * The segments share one budget: whatever segment the entries fall in, the cache as a whole
+ * stays within its params.
+ */
+public class SegmentedCountingMemoryCacheTest {
+
+    private static final int SEGMENTS = 4;
+    private static final int MAX_ENTRIES = 16;
+    private static final int MAX_EVICTION_QUEUE_ENTRIES = 8;
+
+    private final CacheTestUtil.CountingReleaser mReleaser = new CacheTestUtil.CountingReleaser();
+
+    private SegmentedCountingMemoryCache<Integer, byte[]> newCache() {
+        final MemoryCacheParams params = new MemoryCacheParams(
+                Integer.MAX_VALUE,
+                MAX_ENTRIES,
+                Integer.MAX_VALUE,
+                MAX_EVICTION_QUEUE_ENTRIES,
+                Integer.MAX_VALUE);
+        return new SegmentedCountingMemoryCache<>(
+                CacheTestUtil.BYTES_DESCRIPTOR,
+                CacheTestUtil.HALF_TRIM_STRATEGY,
+                new Supplier<MemoryCacheParams>() {
+                    @Override
+                    public MemoryCacheParams get() {
+                        return params;
+                    }
+                },
+                SEGMENTS);
+    }
+
+    @Test
+    public void testInUseEntriesAreBoundedAcrossSegments() {
+        SegmentedCountingMemoryCache<Integer, byte[]> cache = newCache();
+        ArrayList<CloseableReference<byte[]>> refs = new ArrayList<>();
+        int cachedCount = 0;
+        for (int key = 0; key < MAX_ENTRIES * 2; key++) {
+            CloseableReference<byte[]> valueRef = mReleaser.newValue(1);
+            CloseableReference<byte[]> clientRef = cache.cache(key, valueRef);
+            valueRef.close();
+            if (clientRef != null) {
+                refs.add(clientRef);
+                cachedCount++;
+            }
+        }
+        assertEquals(MAX_ENTRIES, cachedCount);
+        assertEquals(MAX_ENTRIES, cache.getInUseCount());
+        CloseableReference.closeSafely(refs);
+    }
+
+    @Test
+    public void testReleaseEvictsFromOtherSegments() {
+        SegmentedCountingMemoryCache<Integer, byte[]> cache = newCache();
+        ArrayList<CloseableReference<byte[]>> refs = new ArrayList<>();
+        for (int key = 0; key < MAX_ENTRIES; key++) {
+            CloseableReference<byte[]> valueRef = mReleaser.newValue(1);
+            refs.add(cache.cache(key, valueRef));
+            valueRef.close();
+        }
+        // 每次释放只落在一个分段中，但是整个待销毁队列都不能超出限制
+        // Every release falls in one segment, yet the whole eviction queue stays within bounds.
+        for (CloseableReference<byte[]> ref : refs) {
+            assertNotNull(ref);
+            ref.close();
+            assertTrue(cache.getEvictionQueueCount() <= MAX_EVICTION_QUEUE_ENTRIES);
+        }
+        assertEquals(MAX_EVICTION_QUEUE_ENTRIES, cache.getEvictionQueueCount());
+        assertEquals(MAX_EVICTION_QUEUE_ENTRIES, cache.getCount());
+        assertEquals(MAX_ENTRIES - MAX_EVICTION_QUEUE_ENTRIES, mReleaser.releaseCount.get());
+    }
+
+    @Test
+    public void testConcurrentAccessStaysWithinBudget() throws Exception {
+        final SegmentedCountingMemoryCache<Integer, byte[]> cache = newCache();
+        ExecutorService executor = Executors.newFixedThreadPool(SEGMENTS);
+        try {
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < SEGMENTS; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Random random = new Random(Thread.currentThread().getId());
+                        for (int i = 0; i < 20000; i++) {
+                            int key = random.nextInt(MAX_ENTRIES * 4);
+                            CloseableReference<byte[]> ref = cache.get(key);
+                            if (ref == null) {
+                                CloseableReference<byte[]> valueRef = mReleaser.newValue(1);
+                                ref = cache.cache(key, valueRef);
+                                valueRef.close();
+                            }
+                            CloseableReference.closeSafely(ref);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, cache.getInUseCount());
+        assertTrue(cache.getCount() <= MAX_EVICTION_QUEUE_ENTRIES);
+        cache.clear();
+        assertEquals(0, cache.getCount());
+    }
+}
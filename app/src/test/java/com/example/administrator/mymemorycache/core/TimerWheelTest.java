@@ -0,0 +1,120 @@
+package com.example.administrator.mymemorycache.core;
+
+import com.example.administrator.mymemorycache.core.CountingMemoryCache.TimedEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TimerWheel的调度、取消和逐层下放
+ * Tests the scheduling, descheduling and cascading of TimerWheel.
+ */
+public class TimerWheelTest {
+
+    private final CacheTestUtil.CountingReleaser mReleaser = new CacheTestUtil.CountingReleaser();
+
+    @Test
+    public void testReturnsTheDueEntries() {
+        TimerWheel<Integer, byte[]> wheel = new TimerWheel<>(0);
+        TimedEntry<Integer, byte[]> first = newEntry(1);
+        TimedEntry<Integer, byte[]> second = newEntry(2);
+        wheel.schedule(first, 500);
+        wheel.schedule(second, 1500);
+
+        ArrayList<TimedEntry<Integer, byte[]>> expired = new ArrayList<>();
+        wheel.advance(499, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(1000, expired);
+        assertEquals(Collections.singletonList(first), expired);
+        assertEquals(-1, first.timerSlot);
+        expired.clear();
+        wheel.advance(1500, expired);
+        assertEquals(Collections.singletonList(second), expired);
+    }
+
+    @Test
+    public void testDescheduledEntriesDoNotExpire() {
+        TimerWheel<Integer, byte[]> wheel = new TimerWheel<>(0);
+        TimedEntry<Integer, byte[]> first = newEntry(1);
+        TimedEntry<Integer, byte[]> second = newEntry(2);
+        TimedEntry<Integer, byte[]> third = newEntry(3);
+        wheel.schedule(first, 500);
+        wheel.schedule(second, 500);
+        wheel.schedule(third, 500);
+        wheel.deschedule(second);
+        // 重新调度会移动条目
+        // Scheduling again moves the entry.
+        wheel.schedule(third, 5000);
+
+        ArrayList<TimedEntry<Integer, byte[]>> expired = new ArrayList<>();
+        wheel.advance(1000, expired);
+        assertEquals(Collections.singletonList(first), expired);
+        assertEquals(-1, second.timerSlot);
+        expired.clear();
+        wheel.advance(5000, expired);
+        assertEquals(Collections.singletonList(third), expired);
+    }
+
+    @Test
+    public void testCascadesFromTheUpperLevels() {
+        // 每一层一个，最后一个超过了所有的层，放在最后一个桶中
+        // One entry per level, the last one beyond all of them, in the last bucket.
+        long[] times = {700, 100000, 10000000, 200000000, 1000000000};
+        TimerWheel<Integer, byte[]> wheel = new TimerWheel<>(0);
+        ArrayList<TimedEntry<Integer, byte[]>> entries = new ArrayList<>();
+        for (int i = 0; i < times.length; i++) {
+            TimedEntry<Integer, byte[]> entry = newEntry(i);
+            wheel.schedule(entry, times[i]);
+            assertEquals(i, entry.timerSlot >>> 8);
+            entries.add(entry);
+        }
+
+        // 以不规则的步长前进，每个条目都要恰好在经过它的时间的那一步到期
+        // Advances by odd steps: every entry must expire in exactly the step that passes its
+        // time, neither earlier nor later.
+        ArrayList<TimedEntry<Integer, byte[]>> expired = new ArrayList<>();
+        long[] expiredAt = new long[times.length];
+        long step = 9973;
+        for (long time = step; time < times[times.length - 1] + step; time += step) {
+            wheel.advance(time, expired);
+            for (TimedEntry<Integer, byte[]> entry : expired) {
+                expiredAt[entry.key] = time;
+            }
+            expired.clear();
+        }
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(expiredAt[i] >= times[i]);
+            assertTrue(expiredAt[i] - step < times[i]);
+        }
+
+        // 下放过的条目不会被返回两次
+        // The cascaded entries are not returned twice.
+        wheel.advance(times[times.length - 1] * 2, expired);
+        assertEquals(Collections.<TimedEntry<Integer, byte[]>>emptyList(), expired);
+        assertEquals(Arrays.asList(-1, -1, -1, -1, -1), slotsOf(entries));
+    }
+
+    private TimedEntry<Integer, byte[]> newEntry(int key) {
+        return new TimedEntry<>(
+                key,
+                mReleaser.newValue(1),
+                null,
+                1,
+                CountingMemoryCache.DEFAULT_COST,
+                CountingMemoryCache.DEFAULT_PRIORITY);
+    }
+
+    private static ArrayList<Integer> slotsOf(ArrayList<TimedEntry<Integer, byte[]>> entries) {
+        ArrayList<Integer> slots = new ArrayList<>();
+        for (TimedEntry<Integer, byte[]> entry : entries) {
+            slots.add(entry.timerSlot);
+        }
+        return slots;
+    }
+}
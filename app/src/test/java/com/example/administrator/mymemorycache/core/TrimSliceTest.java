@@ -0,0 +1,271 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.os.SystemClock;
+
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+import com.example.administrator.mymemorycache.reference.ResourceReleaser;
+import com.example.administrator.mymemorycache.trimmable.MemoryTrimType;
+import com.example.administrator.mymemorycache.util.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 我的理解：分片驱逐在片与片之间释放锁并关闭上一片的条目。释放器在每次关闭时从另一个线程读取缓存的条目数，
+ * 能读到说明锁已经被释放，读到的条目数相同的关闭属于同一片。
+ *
+ * Tests the trims and eviction passes sliced by {@link CountingMemoryCache#setTrimSlice}. On
+ * every close, the releaser reads the count of the cache from another thread: that it gets one
+ * shows the lock is free, and the closes that read the same count belong to one slice.
+ */
+public class TrimSliceTest {
+
+    private static final int ENTRIES = 20;
+    private static final int ENTRY_SIZE = 10;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final MutableParamsSupplier mParamsSupplier = new MutableParamsSupplier();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        SystemClock.setUptimeMillis(0);
+    }
+
+    @Test
+    public void testLockIsFreeBetweenSlices() {
+        SliceRecorder recorder = new SliceRecorder();
+        CountingMemoryCache<Integer, byte[]> cache = newFilledCache(recorder, null);
+        cache.setTrimSlice(3, Long.MAX_VALUE);
+
+        cache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+        // 每次关闭都在锁外，另一个线程能在片与片之间读到条目数
+        // Every close runs outside the lock, and another thread reads the count between slices.
+        assertEquals(ENTRIES / 2, recorder.mCounts.size());
+        assertEquals(Arrays.asList(17, 14, 11, 10), recorder.getSliceCounts());
+    }
+
+    @Test
+    public void testEverySliceKeepsToItsBudget() {
+        SliceRecorder recorder = new SliceRecorder();
+        CountingMemoryCache<Integer, byte[]> cache = newFilledCache(recorder, null);
+        cache.setTrimSlice(4, Long.MAX_VALUE);
+        cache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+        assertEquals(Arrays.asList(4, 4, 2), recorder.getSliceSizes());
+
+        // 时间预算只有1微秒时，每一片至少删除一个条目，删除这么多条目需要不止一片
+        // With a 1us budget, every slice removes at least one item, and this many items take
+        // more than one slice.
+        SliceRecorder timedRecorder = new SliceRecorder();
+        CountingMemoryCache<Integer, byte[]> timedCache =
+                newCache(timedRecorder, 1000, null);
+        for (int key = 0; key < 1000; key++) {
+            cacheAndRelease(timedCache, timedRecorder, key);
+        }
+        timedCache.setTrimSlice(Integer.MAX_VALUE, 1);
+        timedCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+        ArrayList<Integer> sliceSizes = timedRecorder.getSliceSizes();
+        assertTrue(sliceSizes.size() > 1);
+        int evicted = 0;
+        for (int size : sliceSizes) {
+            assertTrue(size >= 1);
+            evicted += size;
+        }
+        assertEquals(500, evicted);
+    }
+
+    @Test
+    public void testEvictionPassClosesEachSliceBeforeTheNext() {
+        SliceRecorder recorder = new SliceRecorder();
+        CountingMemoryCache<Integer, byte[]> cache = newFilledCache(recorder, null);
+        cache.setTrimSlice(4, Long.MAX_VALUE);
+
+        mParamsSupplier.mMaxEntries = 5;
+        cache.refreshCacheParams();
+        // 一片的条目都在下一片开始之前关闭：关闭时读到的条目数正好是这一片结束时的条目数
+        // The items of a slice are all closed before the next slice starts: every close reads
+        // the count left at the end of its own slice.
+        assertEquals(Arrays.asList(4, 4, 4, 3), recorder.getSliceSizes());
+        assertEquals(Arrays.asList(16, 12, 8, 5), recorder.getSliceCounts());
+        assertEquals(5, cache.getCount());
+    }
+
+    @Test
+    public void testSlicedTrimReachesTheSameTarget() {
+        SliceRecorder slicedRecorder = new SliceRecorder();
+        CountingMemoryCache<Integer, byte[]> sliced = newFilledCache(slicedRecorder, null);
+        sliced.setTrimSlice(3, Long.MAX_VALUE);
+        CountingMemoryCache<Integer, byte[]> whole = newFilledCache(new SliceRecorder(), null);
+        // 访问一部分条目，使驱逐顺序和插入顺序不同
+        // Touches some entries, so that the eviction order is not the insertion order.
+        for (int key = 0; key < ENTRIES; key += 3) {
+            CacheTestUtil.hit(sliced, key);
+            CacheTestUtil.hit(whole, key);
+        }
+
+        sliced.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+        whole.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+        assertSameEntries(whole, sliced);
+
+        mParamsSupplier.mMaxEntries = 4;
+        sliced.refreshCacheParams();
+        whole.refreshCacheParams();
+        assertSameEntries(whole, sliced);
+        assertEquals(4, sliced.getCount());
+    }
+
+    @Test
+    public void testOnlyTheFirstSliceAdvancesTheTimerWheel() {
+        // 第一片关闭时时间前进到所有条目都过期之后，后面的片不推进时间轮，所以只驱逐超出的条目
+        // Once the first slice closes, the clock moves past the expiry of every entry. The later
+        // slices do not advance the wheel, so they only evict the overflow.
+        SliceRecorder recorder = new SliceRecorder() {
+            @Override
+            void onRelease() {
+                SystemClock.setUptimeMillis(2000);
+            }
+        };
+        CountingMemoryCache<Integer, byte[]> cache = newFilledCache(
+                recorder,
+                new SimpleExpiryPolicy<Integer, byte[]>(1000, ExpiryPolicy.NO_EXPIRY));
+        cache.setTrimSlice(2, Long.MAX_VALUE);
+
+        mParamsSupplier.mMaxEntries = 10;
+        cache.refreshCacheParams();
+        assertEquals(10, cache.getCount());
+        assertEquals(10, recorder.mCounts.size());
+
+        // 下一次驱逐的第一片推进时间轮，剩下的条目都过期了
+        // The first slice of the next pass advances the wheel, and expires the rest.
+        cache.refreshCacheParams();
+        assertEquals(0, cache.getCount());
+        assertEquals(ENTRIES, recorder.mCounts.size());
+    }
+
+    private CountingMemoryCache<Integer, byte[]> newFilledCache(
+            SliceRecorder recorder,
+            ExpiryPolicy<Integer, byte[]> expiryPolicy) {
+        CountingMemoryCache<Integer, byte[]> cache = newCache(recorder, ENTRIES, expiryPolicy);
+        for (int key = 0; key < ENTRIES; key++) {
+            cacheAndRelease(cache, recorder, key);
+        }
+        return cache;
+    }
+
+    private CountingMemoryCache<Integer, byte[]> newCache(
+            SliceRecorder recorder,
+            int maxEntries,
+            ExpiryPolicy<Integer, byte[]> expiryPolicy) {
+        mParamsSupplier.mMaxEntries = maxEntries;
+        CountingMemoryCache.Builder<Integer, byte[]> builder =
+                new CountingMemoryCache.Builder<>(
+                        CacheTestUtil.BYTES_DESCRIPTOR,
+                        CacheTestUtil.HALF_TRIM_STRATEGY,
+                        mParamsSupplier);
+        if (expiryPolicy != null) {
+            builder.setExpiryPolicy(expiryPolicy);
+        }
+        CountingMemoryCache<Integer, byte[]> cache = builder.build();
+        recorder.mCache = cache;
+        return cache;
+    }
+
+    private static void cacheAndRelease(
+            CountingMemoryCache<Integer, byte[]> cache,
+            SliceRecorder recorder,
+            int key) {
+        CloseableReference<byte[]> valueRef =
+                CloseableReference.of(new byte[ENTRY_SIZE], recorder);
+        CloseableReference.closeSafely(cache.cache(key, valueRef));
+        valueRef.close();
+    }
+
+    private static void assertSameEntries(
+            CountingMemoryCache<Integer, byte[]> expected,
+            CountingMemoryCache<Integer, byte[]> actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSizeInBytes(), actual.getSizeInBytes());
+        for (int key = 0; key < ENTRIES; key++) {
+            assertEquals(expected.containsKey(key), actual.containsKey(key));
+        }
+    }
+
+    /** Params allowing a number of entries that the test changes. */
+    private static class MutableParamsSupplier implements Supplier<MemoryCacheParams> {
+        volatile int mMaxEntries;
+
+        @Override
+        public MemoryCacheParams get() {
+            return new MemoryCacheParams(
+                    Integer.MAX_VALUE,
+                    mMaxEntries,
+                    Integer.MAX_VALUE,
+                    mMaxEntries,
+                    Integer.MAX_VALUE);
+        }
+    }
+
+    /** On every release, reads the count of the cache from another thread and records it. */
+    private class SliceRecorder implements ResourceReleaser<byte[]> {
+        CountingMemoryCache<Integer, byte[]> mCache;
+        final ArrayList<Integer> mCounts = new ArrayList<>();
+
+        @Override
+        public void release(byte[] value) {
+            final CountingMemoryCache<Integer, byte[]> cache = mCache;
+            try {
+                // 锁还被持有的话这里会超时
+                // Times out if the lock is still held.
+                mCounts.add(mExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return cache.getCount();
+                    }
+                }).get(10, TimeUnit.SECONDS));
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                throw new AssertionError(e);
+            }
+            onRelease();
+        }
+
+        void onRelease() {
+        }
+
+        /** The count left after each slice. */
+        ArrayList<Integer> getSliceCounts() {
+            ArrayList<Integer> sliceCounts = new ArrayList<>();
+            for (int count : mCounts) {
+                if (sliceCounts.isEmpty() || sliceCounts.get(sliceCounts.size() - 1) != count) {
+                    sliceCounts.add(count);
+                }
+            }
+            return sliceCounts;
+        }
+
+        /** The number of items closed after each slice. */
+        ArrayList<Integer> getSliceSizes() {
+            ArrayList<Integer> sliceSizes = new ArrayList<>();
+            int previous = -1;
+            for (int count : mCounts) {
+                if (count != previous) {
+                    sliceSizes.add(0);
+                    previous = count;
+                }
+                sliceSizes.set(sliceSizes.size() - 1, sliceSizes.get(sliceSizes.size() - 1) + 1);
+            }
+            return sliceSizes;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.administrator.mymemorycache.core;
+
+import android.net.Uri;
+
+import com.example.administrator.mymemorycache.cacheKey.CacheKey;
+import com.example.administrator.mymemorycache.reference.CloseableReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.example.administrator.mymemorycache.core.CacheTestUtil.cacheAndRelease;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过两个缓存检查URI索引：一个打开了索引，一个遍历所有的条目，同样的操作在两个缓存上的结果要相同。
+ * 每个URI有三个不同缩放选项的key，它们的getUriString()都是这个URI
+ * Checks the URI index through two caches, one with the index and one scanning its entries: the
+ * same operations must give the same answers on both. Every URI has three keys, one per resize
+ * option, whose getUriString() is the URI.
+ */
+public class UriIndexTest {
+
+    private static final int URIS = 5;
+    private static final int[] WIDTHS = {100, 200, 300};
+
+    private final CacheTestUtil.CountingReleaser mReleaser = new CacheTestUtil.CountingReleaser();
+    private CountingMemoryCache<CacheKey, byte[]> mIndexedCache;
+    private CountingMemoryCache<CacheKey, byte[]> mScanningCache;
+
+    @Before
+    public void setUp() {
+        mIndexedCache = CacheTestUtil.<CacheKey>newBuilder(100).setUriIndexEnabled(true).build();
+        mScanningCache = CacheTestUtil.<CacheKey>newBuilder(100).build();
+        for (int uri = 0; uri < URIS; uri++) {
+            for (int width : WIDTHS) {
+                cacheAndRelease(mIndexedCache, key(uri, width), mReleaser, 10);
+                cacheAndRelease(mScanningCache, key(uri, width), mReleaser, 10);
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveAndContainsKey() {
+        assertContainsUri(true, 1);
+        assertTrue(remove(key(1, 200)));
+        assertFalse(containsKey(key(1, 200)));
+        assertTrue(containsKey(key(1, 100)));
+        // 同一个URI还有其他的key
+        // The URI has other keys left.
+        assertContainsUri(true, 1);
+
+        assertTrue(remove(key(1, 100)));
+        assertTrue(remove(key(1, 300)));
+        assertFalse(remove(key(1, 300)));
+        assertContainsUri(false, 1);
+        assertContainsUri(true, 0);
+        assertContainsUri(true, 2);
+    }
+
+    @Test
+    public void testRemoveAllWithUri() {
+        assertEquals(3, removeAllWithUri(2));
+        assertContainsUri(false, 2);
+        for (int width : WIDTHS) {
+            assertFalse(containsKey(key(2, width)));
+        }
+        assertContainsUri(true, 3);
+        assertEquals(0, removeAllWithUri(2));
+        assertEquals(0, removeAllWithUri(URIS));
+
+        // 缓存回来之后又能找到
+        // Found again once cached again.
+        cacheAndRelease(mIndexedCache, key(2, 200), mReleaser, 10);
+        cacheAndRelease(mScanningCache, key(2, 200), mReleaser, 10);
+        assertContainsUri(true, 2);
+        assertEquals(1, removeAllWithUri(2));
+    }
+
+    @Test
+    public void testEntriesInUseAreRemovedWithTheirUri() {
+        CloseableReference<byte[]> indexedRef = mIndexedCache.get(key(3, 100));
+        CloseableReference<byte[]> scanningRef = mScanningCache.get(key(3, 100));
+        assertEquals(3, removeAllWithUri(3));
+        assertContainsUri(false, 3);
+        assertTrue(indexedRef.isValid());
+        assertTrue(scanningRef.isValid());
+        indexedRef.close();
+        scanningRef.close();
+        assertContainsUri(false, 3);
+        assertEquals((URIS - 1) * WIDTHS.length, mIndexedCache.getCount());
+        assertEquals(mIndexedCache.getCount(), mScanningCache.getCount());
+    }
+
+    @Test
+    public void testReplacedEntriesAreIndexedOnce() {
+        cacheAndRelease(mIndexedCache, key(4, 100), mReleaser, 10);
+        cacheAndRelease(mScanningCache, key(4, 100), mReleaser, 10);
+        assertEquals(3, removeAllWithUri(4));
+        assertContainsUri(false, 4);
+    }
+
+    private boolean remove(CacheKey key) {
+        boolean removed = mIndexedCache.remove(key);
+        assertEquals(removed, mScanningCache.remove(key));
+        return removed;
+    }
+
+    private boolean containsKey(CacheKey key) {
+        boolean contains = mIndexedCache.containsKey(key);
+        assertEquals(contains, mScanningCache.containsKey(key));
+        return contains;
+    }
+
+    private int removeAllWithUri(int uri) {
+        int removed = mIndexedCache.removeAllWithUri(uriOf(uri));
+        assertEquals(removed, mScanningCache.removeAllWithUri(uriOf(uri)));
+        return removed;
+    }
+
+    private void assertContainsUri(boolean expected, int uri) {
+        assertEquals(expected, mIndexedCache.containsUri(uriOf(uri)));
+        assertEquals(expected, mScanningCache.containsUri(uriOf(uri)));
+    }
+
+    private static Uri uriOf(int uri) {
+        return Uri.parse("http://example.com/" + uri + ".jpg");
+    }
+
+    private static CacheKey key(int uri, int width) {
+        return new ResizedCacheKey(uriOf(uri).toString(), width);
+    }
+
+    /** The key of an image decoded at a given width, as a bitmap cache would use. */
+    private static final class ResizedCacheKey implements CacheKey {
+        private final String mUriString;
+        private final int mWidth;
+
+        ResizedCacheKey(String uriString, int width) {
+            mUriString = uriString;
+            mWidth = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResizedCacheKey)) {
+                return false;
+            }
+            ResizedCacheKey other = (ResizedCacheKey) o;
+            return mUriString.equals(other.mUriString) && mWidth == other.mWidth;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mUriString.hashCode() + mWidth;
+        }
+
+        @Override
+        public String toString() {
+            return mUriString + "@" + mWidth;
+        }
+
+        @Override
+        public boolean containsUri(Uri uri) {
+            return mUriString.equals(uri.toString());
+        }
+
+        @Override
+        public String getUriString() {
+            return mUriString;
+        }
+    }
+}
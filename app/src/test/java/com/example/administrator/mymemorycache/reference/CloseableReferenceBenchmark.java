@@ -0,0 +1,292 @@
+package com.example.administrator.mymemorycache.reference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * 我的理解：测量多个线程同时克隆和关闭同一个值的引用的吞吐量，比如多个View同时显示同一张图片。
+ * monitor开头的方法测量原来的实现：每次get()、isValid()、克隆和关闭都要获取引用的锁，引用计数也由锁保护，
+ * 所有的Destructor在同一个全局锁下的链表中。{@link MonitorCloseableReference}等嵌套类复制了它，
+ * 这样可以在同一台机器上和现在不加锁的实现比较。单核的机器上多线程的结果看不出竞争。
+ * 创建引用时原来要获取存活对象表的全局锁，trackLiveObjects为false时关闭了存活对象的记录，创建和释放引用都不需要任何锁。
+ *
+ * Measures the throughput of cloning and closing references to one value, as several views
+ * showing the same image do. The monitor methods measure the former implementation, in which
+ * get(), isValid(), clone and close took the monitor of the reference, the reference count was
+ * guarded by the monitor of the shared reference, and every Destructor joined one list under a
+ * global lock. {@link MonitorCloseableReference} and the other nested classes replicate it, so
+ * that it compares with the lock-free references on the same machine. Run the four thread
+ * benchmarks on at least four cores, or the contention does not show.
+ *
+ * <p> Creating and releasing a reference also took the global lock of the live objects. The
+ * live objects are now tracked in lock-striped tables, and with trackLiveObjects false they are
+ * not tracked at all, so no lock is taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloseableReferenceBenchmark {
+
+    private static final ResourceReleaser<Object> RELEASER = new ResourceReleaser<Object>() {
+        @Override
+        public void release(Object value) {
+        }
+    };
+
+    @Param({"true", "false"})
+    public boolean trackLiveObjects;
+
+    private CloseableReference<Object> mRef;
+    private MonitorCloseableReference<Object> mMonitorRef;
+
+    @Setup
+    public void setUp() {
+        SharedReference.setLiveObjectTrackingEnabled(trackLiveObjects);
+        mRef = CloseableReference.of(new Object(), RELEASER);
+        mMonitorRef = new MonitorCloseableReference<>(
+                new MonitorSharedReference<>(new Object(), RELEASER));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRef.close();
+        mMonitorRef.close();
+        SharedReference.setLiveObjectTrackingEnabled(true);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object cloneAndClose() {
+        CloseableReference<Object> clone = mRef.clone();
+        Object value = clone.get();
+        clone.close();
+        return value;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object cloneAndCloseFromFourThreads() {
+        return cloneAndClose();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object monitorCloneAndClose() {
+        MonitorCloseableReference<Object> clone = mMonitorRef.clone();
+        Object value = clone.get();
+        clone.close();
+        return value;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object monitorCloneAndCloseFromFourThreads() {
+        return monitorCloneAndClose();
+    }
+
+    /** Wraps a new value and releases it, which is when the live objects are tracked. */
+    @Benchmark
+    @Threads(4)
+    public Object newReferenceFromFourThreads() {
+        CloseableReference<Object> ref = CloseableReference.of(new Object(), RELEASER);
+        ref.close();
+        return ref;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object monitorNewReferenceFromFourThreads() {
+        MonitorCloseableReference<Object> ref = new MonitorCloseableReference<>(
+                new MonitorSharedReference<>(new Object(), RELEASER));
+        ref.close();
+        return ref;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CloseableReferenceBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    /**
+     * 原来不使用终结器的CloseableReference：isValid()、get()和克隆获取引用的锁，每个引用的Destructor
+     * 加入和离开同一个全局链表时获取Destructor.class的锁
+     * The former CloseableReference without finalizer: isValid(), get() and clone() take the
+     * monitor of the reference, and the Destructor of every reference joins and leaves one global
+     * list under the Destructor.class lock.
+     */
+    static final class MonitorCloseableReference<T> {
+        private final MonitorSharedReference<T> mSharedReference;
+        private final MonitorDestructor mDestructor;
+
+        MonitorCloseableReference(MonitorSharedReference<T> sharedReference) {
+            mSharedReference = sharedReference;
+            mDestructor = new MonitorDestructor(this, sharedReference);
+        }
+
+        synchronized T get() {
+            if (!isValid()) {
+                throw new IllegalStateException();
+            }
+            return mSharedReference.get();
+        }
+
+        synchronized boolean isValid() {
+            return !mDestructor.isDestroyed();
+        }
+
+        @Override
+        public synchronized MonitorCloseableReference<T> clone() {
+            if (!isValid()) {
+                throw new IllegalStateException();
+            }
+            mSharedReference.addReference();
+            return new MonitorCloseableReference<>(mSharedReference);
+        }
+
+        void close() {
+            mDestructor.destroy();
+        }
+    }
+
+    /** The former Destructor, linked in one global list. */
+    static final class MonitorDestructor extends PhantomReference<Object> {
+        private static final ReferenceQueue<Object> REF_QUEUE = new ReferenceQueue<>();
+
+        @GuardedBy("MonitorDestructor.class")
+        private static MonitorDestructor sHead;
+
+        private final MonitorSharedReference<?> mSharedReference;
+        @GuardedBy("MonitorDestructor.class")
+        private MonitorDestructor next;
+        @GuardedBy("MonitorDestructor.class")
+        private MonitorDestructor previous;
+        @GuardedBy("this")
+        private boolean destroyed;
+
+        MonitorDestructor(Object referent, MonitorSharedReference<?> sharedReference) {
+            super(referent, REF_QUEUE);
+            mSharedReference = sharedReference;
+            synchronized (MonitorDestructor.class) {
+                if (sHead != null) {
+                    sHead.next = this;
+                    previous = sHead;
+                }
+                sHead = this;
+            }
+        }
+
+        synchronized boolean isDestroyed() {
+            return destroyed;
+        }
+
+        void destroy() {
+            synchronized (this) {
+                if (destroyed) {
+                    return;
+                }
+                destroyed = true;
+            }
+            synchronized (MonitorDestructor.class) {
+                if (previous != null) {
+                    previous.next = next;
+                }
+                if (next != null) {
+                    next.previous = previous;
+                } else {
+                    sHead = previous;
+                }
+            }
+            mSharedReference.deleteReference();
+        }
+    }
+
+    /** The former SharedReference, with its global map of live objects. */
+    static final class MonitorSharedReference<T> {
+        @GuardedBy("itself")
+        private static final Map<Object, Integer> sLiveObjects = new IdentityHashMap<>();
+
+        @GuardedBy("this")
+        private T mValue;
+        @GuardedBy("this")
+        private int mRefCount;
+        private final ResourceReleaser<T> mResourceReleaser;
+
+        MonitorSharedReference(T value, ResourceReleaser<T> resourceReleaser) {
+            mValue = value;
+            mResourceReleaser = resourceReleaser;
+            mRefCount = 1;
+            synchronized (sLiveObjects) {
+                Integer count = sLiveObjects.get(value);
+                sLiveObjects.put(value, count == null ? 1 : count + 1);
+            }
+        }
+
+        synchronized T get() {
+            return mValue;
+        }
+
+        synchronized boolean isValid() {
+            return mRefCount > 0;
+        }
+
+        synchronized void addReference() {
+            if (!isValid()) {
+                throw new SharedReference.NullReferenceException();
+            }
+            mRefCount++;
+        }
+
+        void deleteReference() {
+            if (decreaseRefCount() == 0) {
+                T deleted;
+                synchronized (this) {
+                    deleted = mValue;
+                    mValue = null;
+                }
+                mResourceReleaser.release(deleted);
+                synchronized (sLiveObjects) {
+                    Integer count = sLiveObjects.get(deleted);
+                    if (count == 1) {
+                        sLiveObjects.remove(deleted);
+                    } else {
+                        sLiveObjects.put(deleted, count - 1);
+                    }
+                }
+            }
+        }
+
+        private synchronized int decreaseRefCount() {
+            if (!isValid()) {
+                throw new SharedReference.NullReferenceException();
+            }
+            return --mRefCount;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.administrator.mymemorycache.reference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 不使用终结器时没有关闭的引用由Destructor回收：泄漏的租约被交还给所有者，泄漏的引用释放值，都只发生一次
+ * Tests the reclaiming of the references not closed, by their Destructor since finalizers are
+ * off: a leaked lease is handed back to its owner and a leaked reference releases its value,
+ * exactly once either way.
+ */
+public class CloseableReferenceTest {
+
+    private static final long GC_TIMEOUT_MS = 10000;
+
+    private final AtomicInteger mReleaseCount = new AtomicInteger();
+    private final ResourceReleaser<Object> mReleaser = new ResourceReleaser<Object>() {
+        @Override
+        public void release(Object value) {
+            mReleaseCount.incrementAndGet();
+        }
+    };
+    private final CountingLeaseOwner mOwner = new CountingLeaseOwner();
+
+    @After
+    public void tearDown() {
+        CloseableReference.setUnclosedReferenceListener(null);
+    }
+
+    @Test
+    public void testLeakedLeaseIsHandedBackToItsOwner() throws Exception {
+        final AtomicInteger reportCount = new AtomicInteger();
+        CloseableReference.setUnclosedReferenceListener(
+                new CloseableReference.UnclosedReferenceListener() {
+                    @Override
+                    public void onUnclosedReferenceFinalized(
+                            @Nullable CloseableReference<?> ref,
+                            @Nullable Throwable relevantTrace) {
+                        // Destructor回收时引用已经不在了
+                        // The reference is gone by the time its Destructor reclaims it.
+                        assertNull(ref);
+                        reportCount.incrementAndGet();
+                    }
+                });
+        Object value = new Object();
+        leakLeases(value, 3);
+
+        awaitCount(mOwner.mReleaseCount, 3);
+        assertEquals(3, mOwner.mReleaseCount.get());
+        assertEquals(2, mOwner.mReacquireCount.get());
+        assertEquals(3, reportCount.get());
+    }
+
+    @Test
+    public void testClosedLeaseIsNotReleasedAgainOnceCollected() throws Exception {
+        closeLease(new Object());
+        assertEquals(1, mOwner.mReleaseCount.get());
+        // 再泄漏一个租约作为标记，它被回收时前面的租约也已经被回收了
+        // Leaks another lease as a marker: once it is reclaimed, the closed one has been too.
+        leakLeases(new Object(), 1);
+        awaitCount(mOwner.mReleaseCount, 2);
+        System.gc();
+        Thread.sleep(100);
+        assertEquals(2, mOwner.mReleaseCount.get());
+    }
+
+    @Test
+    public void testLeakedReferencesReleaseTheirValueOnce() throws Exception {
+        // 比回收线程每批取出的多，需要好几批
+        // More than the reclaimer thread drains per batch, so that it takes several batches.
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            leakReference(new Object());
+        }
+        awaitCount(mReleaseCount, count);
+        assertEquals(count, mReleaseCount.get());
+    }
+
+    /** Creates a lease and its clones, and drops them without closing them. */
+    private void leakLeases(Object value, int count) {
+        CloseableReference<Object> lease = CloseableReference.ofLease(value, mOwner);
+        for (int i = 1; i < count; i++) {
+            lease.clone();
+        }
+    }
+
+    private void closeLease(Object value) {
+        CloseableReference.ofLease(value, mOwner).close();
+    }
+
+    /** Clones a new reference and closes the original, so that only the leaked clone holds it. */
+    private void leakReference(Object value) {
+        CloseableReference<Object> ref = CloseableReference.of(value, mReleaser);
+        ref.clone();
+        ref.close();
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + GC_TIMEOUT_MS;
+        while (count.get() < expected && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+
+    private static class CountingLeaseOwner implements CloseableReference.LeaseOwner<Object> {
+        final AtomicInteger mReacquireCount = new AtomicInteger();
+        final AtomicInteger mReleaseCount = new AtomicInteger();
+
+        @Override
+        public boolean reacquire() {
+            mReacquireCount.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void release(Object value) {
+            mReleaseCount.incrementAndGet();
+        }
+    }
+}
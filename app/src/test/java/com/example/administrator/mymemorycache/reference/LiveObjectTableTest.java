@@ -0,0 +1,105 @@
+package com.example.administrator.mymemorycache.reference;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 开放寻址的条带：扩容和删除之后，剩下的对象仍然能被找到，计数不变；多个线程同时增删时计数不会丢失
+ * Tests the open-addressing stripes: after growing and removing, the objects left are still
+ * found with their counts, and no count is lost to threads adding and removing at once.
+ */
+public class LiveObjectTableTest {
+
+    private static final int OBJECTS = 10000;
+    private static final int THREADS = 4;
+
+    @Test
+    public void testCountsSurviveGrowthAndRemoval() {
+        LiveObjectTable table = new LiveObjectTable();
+        ArrayList<Object> objects = new ArrayList<>();
+        for (int i = 0; i < OBJECTS; i++) {
+            Object object = new Object();
+            objects.add(object);
+            for (int j = 0; j <= i % 3; j++) {
+                table.add(object);
+            }
+        }
+        for (int i = 0; i < OBJECTS; i++) {
+            assertEquals(i % 3 + 1, table.get(objects.get(i)));
+        }
+
+        // 删除一半的对象，删除时后面的key会被往前移
+        // Removes half of the objects, which shifts the later keys back.
+        for (int i = 0; i < OBJECTS; i += 2) {
+            Object object = objects.get(i);
+            for (int j = 0; j <= i % 3; j++) {
+                assertTrue(table.remove(object));
+            }
+            assertEquals(0, table.get(object));
+        }
+        for (int i = 1; i < OBJECTS; i += 2) {
+            assertEquals(i % 3 + 1, table.get(objects.get(i)));
+        }
+    }
+
+    @Test
+    public void testRemoveUntrackedObject() {
+        LiveObjectTable table = new LiveObjectTable();
+        Object object = new Object();
+        assertFalse(table.remove(object));
+        table.add(object);
+        assertTrue(table.remove(object));
+        assertFalse(table.remove(object));
+    }
+
+    @Test
+    public void testConcurrentAddAndRemove() throws Exception {
+        final LiveObjectTable table = new LiveObjectTable();
+        final Object shared = new Object();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Future<ArrayList<Object>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Callable<ArrayList<Object>>() {
+                    @Override
+                    public ArrayList<Object> call() {
+                        // 每个线程加入自己的对象并增删共享的对象，最后留下一半自己的对象
+                        // Every thread adds objects of its own and adds and removes the shared
+                        // one, and leaves half of its objects behind.
+                        ArrayList<Object> kept = new ArrayList<>();
+                        for (int i = 0; i < OBJECTS; i++) {
+                            Object object = new Object();
+                            table.add(object);
+                            table.add(shared);
+                            if (i % 2 == 0) {
+                                kept.add(object);
+                            } else {
+                                assertTrue(table.remove(object));
+                            }
+                            assertTrue(table.remove(shared));
+                        }
+                        return kept;
+                    }
+                }));
+            }
+            for (Future<ArrayList<Object>> future : futures) {
+                for (Object object : future.get(60, TimeUnit.SECONDS)) {
+                    assertEquals(1, table.get(object));
+                }
+            }
+            assertEquals(0, table.get(shared));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.administrator.mymemorycache.reference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 不加锁的引用计数：多个线程同时克隆和关闭引用时，值只被释放一次，而且是在最后一个引用关闭之后
+ * Tests the lock-free reference counting: with threads cloning and closing references at once,
+ * the value is released exactly once, after its last reference is closed.
+ */
+public class SharedReferenceTest {
+
+    private static final int THREADS = 4;
+    private static final int OPERATIONS_PER_THREAD = 50000;
+
+    private final AtomicInteger mReleaseCount = new AtomicInteger();
+    private final ResourceReleaser<Object> mReleaser = new ResourceReleaser<Object>() {
+        @Override
+        public void release(Object value) {
+            mReleaseCount.incrementAndGet();
+        }
+    };
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCloneAndClose() throws Exception {
+        final Object value = new Object();
+        final CloseableReference<Object> ref = CloseableReference.of(value, mReleaser);
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    CloseableReference<Object> clone = ref.clone();
+                    assertTrue(clone.get() == value);
+                    clone.close();
+                    assertEquals(0, mReleaseCount.get());
+                }
+                return null;
+            }
+        });
+        assertEquals(1, ref.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+        ref.close();
+        assertEquals(1, mReleaseCount.get());
+    }
+
+    @Test
+    public void testConcurrentCloseOfTheSameReferences() throws Exception {
+        CloseableReference<Object> ref = CloseableReference.of(new Object(), mReleaser);
+        final ArrayList<CloseableReference<Object>> clones = new ArrayList<>();
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+            clones.add(ref.clone());
+        }
+        // 每个引用被所有线程各关闭一次，只有第一次关闭有效
+        // Every thread closes every reference; only the first close of each counts.
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < clones.size(); i++) {
+                    clones.get(i).close();
+                }
+                return null;
+            }
+        });
+        SharedReference<Object> sharedReference = ref.getUnderlyingReferenceTestOnly();
+        assertEquals(1, sharedReference.getRefCountTestOnly());
+        assertEquals(0, mReleaseCount.get());
+        ref.close();
+        assertEquals(1, mReleaseCount.get());
+        assertFalse(sharedReference.isValid());
+        assertNull(sharedReference.get());
+    }
+
+    @Test
+    public void testCloneOrNullRacesWithTheLastClose() throws Exception {
+        for (int round = 0; round < 1000; round++) {
+            final CloseableReference<Object> ref = CloseableReference.of(new Object(), mReleaser);
+            final CountDownLatch start = new CountDownLatch(1);
+            Future<CloseableReference<Object>> cloned = mExecutor.submit(
+                    new Callable<CloseableReference<Object>>() {
+                        @Override
+                        public CloseableReference<Object> call() throws Exception {
+                            start.await();
+                            return ref.cloneOrNull();
+                        }
+                    });
+            start.countDown();
+            ref.close();
+            // 克隆要么在关闭之前成功，之后值仍然有效，要么返回null
+            // The clone either won, and keeps the value alive, or is null.
+            CloseableReference<Object> clone = cloned.get(10, TimeUnit.SECONDS);
+            if (clone != null) {
+                assertEquals(round, mReleaseCount.get());
+                clone.close();
+            }
+            assertEquals(round + 1, mReleaseCount.get());
+        }
+    }
+
+    @Test
+    public void testAddReferenceAfterReleaseFails() {
+        SharedReference<Object> sharedReference = new SharedReference<>(new Object(), mReleaser);
+        sharedReference.deleteReference();
+        assertEquals(1, mReleaseCount.get());
+        try {
+            sharedReference.addReference();
+            fail();
+        } catch (SharedReference.NullReferenceException e) {
+            // expected
+        }
+        try {
+            sharedReference.deleteReference();
+            fail();
+        } catch (SharedReference.NullReferenceException e) {
+            // expected
+        }
+        assertEquals(1, mReleaseCount.get());
+    }
+
+    @Test
+    public void testLiveObjectsAreCounted() {
+        Object value = new Object();
+        SharedReference<Object> first = new SharedReference<>(value, mReleaser);
+        SharedReference<Object> second = new SharedReference<>(value, mReleaser);
+        assertEquals(2, SharedReference.getLiveReferenceCountTestOnly(value));
+        first.deleteReference();
+        assertEquals(1, SharedReference.getLiveReferenceCountTestOnly(value));
+        second.deleteReference();
+        assertEquals(0, SharedReference.getLiveReferenceCountTestOnly(value));
+    }
+
+    @Test
+    public void testLiveObjectTrackingCanBeTurnedOff() {
+        Object value = new Object();
+        SharedReference.setLiveObjectTrackingEnabled(false);
+        try {
+            SharedReference<Object> sharedReference = new SharedReference<>(value, mReleaser);
+            assertEquals(0, SharedReference.getLiveReferenceCountTestOnly(value));
+            sharedReference.deleteReference();
+            assertEquals(1, mReleaseCount.get());
+        } finally {
+            SharedReference.setLiveObjectTrackingEnabled(true);
+        }
+    }
+
+    private void runConcurrently(Callable<Void> task) throws Exception {
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(mExecutor.submit(task));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+}
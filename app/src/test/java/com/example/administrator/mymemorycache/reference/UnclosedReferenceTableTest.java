@@ -0,0 +1,147 @@
+package com.example.administrator.mymemorycache.reference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 抽样的比例、按调用位置汇总的表的上限和dropped计数以及dump()的顺序。调用栈是构造出来的，这样调用位置是确定的
+ * Tests the sampling rate, the bound on the sites of the table, with the count of the dropped
+ * leaks, and the order of dump(). The traces are made up, so that the call sites are known.
+ */
+public class UnclosedReferenceTableTest {
+
+    private static final String LIBRARY_CLASS = CloseableReference.class.getName();
+
+    private final ResourceReleaser<Object> mReleaser = new ResourceReleaser<Object>() {
+        @Override
+        public void release(Object value) {
+        }
+    };
+
+    @After
+    public void tearDown() {
+        CloseableReference.setUnclosedReferenceListener(null);
+        CloseableReference.setUnclosedReferenceSampleRate(1);
+    }
+
+    @Test
+    public void testOneReferenceInSampleRateCarriesATrace() {
+        CloseableReference.setUnclosedReferenceListener(new UnclosedReferenceTable());
+        assertEquals(1000, countTraced(1000));
+
+        // 按identityHashCode抽样，只检查大约是四分之一
+        // The sampling hashes the identities, so the share is only about a quarter.
+        CloseableReference.setUnclosedReferenceSampleRate(4);
+        int traced = countTraced(4000);
+        assertTrue(String.valueOf(traced), traced > 800 && traced < 1200);
+
+        CloseableReference.setUnclosedReferenceListener(null);
+        assertEquals(0, countTraced(1000));
+    }
+
+    @Test
+    public void testSiteIsTheFirstFramesOutsideOfTheLibrary() {
+        UnclosedReferenceTable table = new UnclosedReferenceTable(4, 1);
+        table.onUnclosedReferenceFinalized(null, trace(
+                frame(LIBRARY_CLASS, "clone"),
+                frame("com.example.app.FeedAdapter", "bind"),
+                frame("com.example.app.FeedView", "onDraw")));
+        table.onUnclosedReferenceFinalized(null, trace(
+                frame(LIBRARY_CLASS, "of"),
+                frame("com.example.app.FeedAdapter", "bind"),
+                frame("com.example.app.ListView", "layout")));
+        assertEquals(2, table.getLeakCount());
+        assertEquals(
+                "Unclosed references: 1 sites, 0 untraced, 0 dropped\n"
+                        + "2 at " + frame("com.example.app.FeedAdapter", "bind") + "\n",
+                table.dump());
+    }
+
+    @Test
+    public void testNewSitesAreDroppedOnceTheTableIsFull() {
+        UnclosedReferenceTable table = new UnclosedReferenceTable(2, 1);
+        leak(table, "First", 1);
+        leak(table, "Second", 1);
+        leak(table, "Third", 2);
+        // 已经在表中的位置仍然被计数
+        // The sites already in the table are still counted.
+        leak(table, "First", 1);
+        table.onUnclosedReferenceFinalized(null, null);
+
+        assertEquals(6, table.getLeakCount());
+        String dump = table.dump();
+        assertTrue(dump, dump.startsWith(
+                "Unclosed references: 2 sites, 1 untraced, 2 dropped\n"));
+        assertTrue(dump, dump.contains("2 at " + frame("com.example.app.First", "run")));
+        assertTrue(dump, dump.contains("1 at " + frame("com.example.app.Second", "run")));
+        assertFalse(dump, dump.contains("Third"));
+
+        table.reset();
+        assertEquals(0, table.getLeakCount());
+        leak(table, "Third", 1);
+        assertEquals(1, table.getLeakCount());
+    }
+
+    @Test
+    public void testDumpListsTheMostLeakingSitesFirst() {
+        UnclosedReferenceTable table = new UnclosedReferenceTable(8, 2);
+        leak(table, "Rare", 1);
+        leak(table, "Frequent", 5);
+        leak(table, "Common", 3);
+
+        String[] lines = table.dump().split("\n");
+        assertEquals(Arrays.asList(
+                "Unclosed references: 3 sites, 0 untraced, 0 dropped",
+                "5 at " + frame("com.example.app.Frequent", "run"),
+                "    at " + frame("com.example.app.Caller", "call"),
+                "3 at " + frame("com.example.app.Common", "run"),
+                "    at " + frame("com.example.app.Caller", "call"),
+                "1 at " + frame("com.example.app.Rare", "run"),
+                "    at " + frame("com.example.app.Caller", "call")),
+                Arrays.asList(lines));
+    }
+
+    /** Creates references while tracking, and counts those that captured a trace. */
+    private int countTraced(int count) {
+        ArrayList<CloseableReference<Object>> refs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            refs.add(CloseableReference.of(new Object(), mReleaser));
+        }
+        int traced = 0;
+        for (CloseableReference<Object> ref : refs) {
+            if (ref.mRelevantTrace != null) {
+                traced++;
+            }
+            ref.close();
+        }
+        return traced;
+    }
+
+    /** Reports leaks from the given app class, called from a common caller. */
+    private static void leak(UnclosedReferenceTable table, String appClass, int count) {
+        for (int i = 0; i < count; i++) {
+            table.onUnclosedReferenceFinalized(null, trace(
+                    frame(LIBRARY_CLASS, "of"),
+                    frame("com.example.app." + appClass, "run"),
+                    frame("com.example.app.Caller", "call")));
+        }
+    }
+
+    private static Throwable trace(StackTraceElement... frames) {
+        Throwable trace = new Throwable();
+        trace.setStackTrace(frames);
+        return trace;
+    }
+
+    private static StackTraceElement frame(String className, String methodName) {
+        String fileName = className.substring(className.lastIndexOf('.') + 1) + ".java";
+        return new StackTraceElement(className, methodName, fileName, 42);
+    }
+}